@@ -3,14 +3,27 @@ package net.derfla.quickeconomy;
 import net.derfla.quickeconomy.command.BalanceCommand;
 import net.derfla.quickeconomy.command.BankCommand;
 import net.derfla.quickeconomy.command.QuickeconomyCommand;
+import net.derfla.quickeconomy.command.ShopsCommand;
+import net.derfla.quickeconomy.database.AutopayScheduler;
+import net.derfla.quickeconomy.database.SqlStore;
 import net.derfla.quickeconomy.database.TableManagement;
 import net.derfla.quickeconomy.database.UpgradeUtility;
+import net.derfla.quickeconomy.database.TransactionManagement;
 import net.derfla.quickeconomy.database.Utility;
 import net.derfla.quickeconomy.file.BalanceFile;
+import net.derfla.quickeconomy.file.BalanceJournal;
+import net.derfla.quickeconomy.file.JournalStore;
+import net.derfla.quickeconomy.file.YamlStore;
 import net.derfla.quickeconomy.listener.*;
 import net.derfla.quickeconomy.util.AccountCache;
 import net.derfla.quickeconomy.util.DerflaAPI;
+import net.derfla.quickeconomy.util.EconomyStore;
+import net.derfla.quickeconomy.util.LockConversion;
+import net.derfla.quickeconomy.util.ShopRegistry;
+import net.derfla.quickeconomy.util.WriteBehindQueue;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.concurrent.ExecutorService;
@@ -21,6 +34,7 @@ public class Main extends JavaPlugin {
 
     public static boolean SQLMode = false;
     private static final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private static EconomyStore store;
 
     @Override
     public void onEnable() {
@@ -30,6 +44,7 @@ public class Main extends JavaPlugin {
         getCommand("bal").setExecutor(new BalanceCommand());
         getCommand("quickeconomy").setExecutor(new QuickeconomyCommand());
         getCommand("bank").setExecutor(new BankCommand());
+        getCommand("shops").setExecutor(new ShopsCommand());
 
         // Register events
         registerEvents();
@@ -44,7 +59,20 @@ public class Main extends JavaPlugin {
             setupFileMode();
         }
 
+        selectStore();
         AccountCache.init();
+        WriteBehindQueue.init();
+        if (SQLMode) AutopayScheduler.init();
+
+        // Shop registry, chunks loaded before the plugin was enabled are indexed here
+        ShopRegistry.load();
+        for (World world : Bukkit.getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                ShopRegistry.indexChunk(chunk);
+            }
+        }
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, ShopRegistry::save, 6000L, 6000L);
+        LockConversion.init();
 
         int pluginID = 20985;
         Metrics metrics = new Metrics(this, pluginID);
@@ -70,6 +98,8 @@ public class Main extends JavaPlugin {
         Bukkit.getServer().getPluginManager().registerEvents(new HopperMoveItemEvent(), this);
         Bukkit.getServer().getPluginManager().registerEvents(new PlayerCloseInventoryListener(), this);
         Bukkit.getServer().getPluginManager().registerEvents(new PlayerLeaveListener(), this);
+        Bukkit.getServer().getPluginManager().registerEvents(new ChunkLoadListener(), this);
+        Bukkit.getServer().getPluginManager().registerEvents(new ChunkUnloadListener(), this);
     }
 
     private void setupFileMode() {
@@ -86,8 +116,9 @@ public class Main extends JavaPlugin {
         try {
             Utility.connectToDatabase();
             SQLMode = true;
-            TableManagement.createTables();
+            TableManagement.createTables().join();
             if (UpgradeUtility.requiresUpgrade()) UpgradeUtility.startUpgrades();
+            TableManagement.checkIndexes();
         } catch (Exception e) {
             getLogger().severe("Could not establish a database connection: " + e.getMessage());
             getServer().getPluginManager().disablePlugin(this);
@@ -97,6 +128,12 @@ public class Main extends JavaPlugin {
     @Override
     public void onDisable() {
         // Plugin shutdown logic
+        if (SQLMode) AutopayScheduler.shutdown(); // Stop paying autopays and wait for payments already queued
+        WriteBehindQueue.shutdown(); // Write queued balance changes before the pool is closed
+        if (SQLMode) TransactionManagement.shutdown(); // Commit transfers waiting for their batch
+        if (store != null) store.snapshot().join();
+        BalanceJournal.shutdown();
+        ShopRegistry.save();
         Utility.closePool();
         Utility.shutdownExecutorService(); // Shutdown async thread handler (for database operations)
     }
@@ -105,6 +142,26 @@ public class Main extends JavaPlugin {
         return getPlugin(Main.class);
     }
 
+    /**
+     * Chooses the store for the current mode. Is called in onEnable and when /quickeconomy migrate switches mode.
+     */
+    public static void selectStore() {
+        if (SQLMode) {
+            store = new SqlStore();
+        } else if (BalanceJournal.isEnabled()) {
+            store = new JournalStore();
+        } else {
+            store = new YamlStore();
+        }
+    }
+
+    /**
+     * @return The store accounts, transactions and empty shops are kept in.
+     */
+    public static EconomyStore getStore() {
+        return store;
+    }
+
     public static ExecutorService getExecutorService() {
         return executorService;
     }
@@ -3,30 +3,32 @@ package net.derfla.quickeconomy.command;
 import net.derfla.quickeconomy.Main;
 import net.derfla.quickeconomy.database.TransactionManagement;
 import net.derfla.quickeconomy.util.*;
-import net.derfla.quickeconomy.file.BalanceFile;
+import net.derfla.quickeconomy.model.PlayerAccount;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.event.ClickEvent;
-import net.kyori.adventure.text.event.HoverEvent;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class BalanceCommand implements CommandExecutor, TabCompleter {
 
+    // Maximum number of player names suggested in tab completion
+    private static final int TAB_COMPLETE_LIMIT = 20;
+    private static final int TOP_PAGE_SIZE = 10;
+
     @Override
     public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String string, @NotNull String[] strings) {
         if (strings.length == 0) {
@@ -35,13 +37,13 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                 return true;
             }
             Player player = ((Player) sender).getPlayer();
-            player.sendMessage(Component.translatable("balance.see", Component.text(Balances.getPlayerBalance(String.valueOf(player.getUniqueId())))).style(Styles.INFOSTYLE));
+            player.sendMessage(Component.translatable("balance.see", Component.text(Money.format(Balances.getPlayerBalance(String.valueOf(player.getUniqueId()))))).style(Styles.INFOSTYLE));
             return true;
         }
         double money = 0;
         boolean moneySet;
         try {
-            money = Double.parseDouble(strings[1]);
+            money = Money.round(Double.parseDouble(strings[1]));
             moneySet = true;
         } catch (Exception e) {
             moneySet = false;
@@ -71,7 +73,7 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     break;
                 }
                 Balances.setPlayerBalance(AccountCache.getUUID(strings[2]), money);
-                sender.sendMessage(Component.translatable("balcommand.set", Component.text(strings[2]), Component.text(money)).style(Styles.INFOSTYLE));
+                sender.sendMessage(Component.translatable("balcommand.set", Component.text(strings[2]), Component.text(Money.format(money))).style(Styles.INFOSTYLE));
                 break;
 
 
@@ -92,11 +94,11 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     Player player = ((Player) sender).getPlayer();
 
                     Balances.addPlayerBalance(String.valueOf(player.getUniqueId()), money);
-                    player.sendMessage(Component.translatable("balcommand.add.self", Component.text(money)).style(Styles.INFOSTYLE));
+                    player.sendMessage(Component.translatable("balcommand.add.self", Component.text(Money.format(money))).style(Styles.INFOSTYLE));
                     break;
                 }
                 Balances.addPlayerBalance(AccountCache.getUUID(strings[2]), money);
-                sender.sendMessage(Component.translatable("balcommand.add", Component.text(money), Component.text(strings[2])).style(Styles.INFOSTYLE));
+                sender.sendMessage(Component.translatable("balcommand.add", Component.text(Money.format(money)), Component.text(strings[2])).style(Styles.INFOSTYLE));
                 break;
 
             case "subtract":
@@ -115,11 +117,11 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     }
                     Player player = ((Player) sender).getPlayer();
                     Balances.subPlayerBalance(String.valueOf(player.getUniqueId()), money);
-                    player.sendMessage(Component.translatable("balcommand.sub.self", Component.text(money)).style(Styles.INFOSTYLE));
+                    player.sendMessage(Component.translatable("balcommand.sub.self", Component.text(Money.format(money))).style(Styles.INFOSTYLE));
                     break;
                 }
                 Balances.subPlayerBalance(AccountCache.getUUID(strings[2]), money);
-                sender.sendMessage(Component.translatable("balcommand.sub", Component.text(money), Component.text(strings[2])).style(Styles.INFOSTYLE));
+                sender.sendMessage(Component.translatable("balcommand.sub", Component.text(Money.format(money)), Component.text(strings[2])).style(Styles.INFOSTYLE));
                 break;
 
             case "send":
@@ -156,13 +158,16 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     player.sendMessage(Component.translatable("balance.notenough", Styles.ERRORSTYLE));
                     break;
                 }
-                Balances.executeTransaction("p2p", "command", String.valueOf(player.getUniqueId()), targetUUID, money, null);
+                if (!Balances.executeTransaction("p2p", "command", String.valueOf(player.getUniqueId()), targetUUID, money, null)) {
+                    player.sendMessage(Component.translatable("balance.notenough", Styles.ERRORSTYLE));
+                    break;
+                }
 
-                player.sendMessage(Component.translatable("balcommand.send", Component.text(money), Component.text(strings[2])).style(Styles.INFOSTYLE));
+                player.sendMessage(Component.translatable("balcommand.send", Component.text(Money.format(money)), Component.text(strings[2])).style(Styles.INFOSTYLE));
                 if (Bukkit.getPlayer(strings[2]) != null) {
                     // Alerts the receiving player if it's online
                     Player targetPlayer = Bukkit.getPlayer(strings[2]);
-                    targetPlayer.sendMessage(Component.translatable("balcommand.send.receive", Component.text(money), Component.text(player.getName())).style(Styles.INFOSTYLE));
+                    targetPlayer.sendMessage(Component.translatable("balcommand.send.receive", Component.text(Money.format(money)), Component.text(player.getName())).style(Styles.INFOSTYLE));
                     break;
                 }
 
@@ -173,7 +178,7 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     break;
                 }
                 Player transactionsPlayer = (Player) sender;
-                if(!Main.SQLMode) {
+                if(!Main.getStore().hasHistory()) {
                     sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
                     break;
                 }
@@ -189,72 +194,28 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     }
                 }
                 
-                String transactions = String.valueOf(TransactionManagement.displayTransactionsView(String.valueOf(transactionsPlayer.getUniqueId()), true, page).join());
-                
+                String transactionsUUID = String.valueOf(transactionsPlayer.getUniqueId());
+                int transactionCount = Main.getStore().countHistory(transactionsUUID, true).join();
+
                 // Check if the user has any transactions at all
-                if (page == 1 && transactions.isEmpty()) {
+                if (transactionCount == 0) {
                     transactionsPlayer.sendMessage(Component.translatable("balcommand.transactions.empty", Styles.ERRORSTYLE));
                     break;
                 }
-                
-                // If not page 1 and no transactions, check if this is an invalid page number
-                if (page > 1 && transactions.isEmpty()) {
-                    // Find the total number of pages by checking backwards
-                    int lastValidPage = 1;
-                    for (int checkPage = page - 1; checkPage >= 1; checkPage--) {
-                        String checkTransactions = String.valueOf(TransactionManagement.displayTransactionsView(String.valueOf(transactionsPlayer.getUniqueId()), true, checkPage).join());
-                        if (!checkTransactions.isEmpty()) {
-                            lastValidPage = checkPage;
-                            break;
-                        }
-                    }
-                    
-                    // If we found a valid page, this means the requested page is invalid
-                    if (lastValidPage < page) {
-                        transactionsPlayer.sendMessage(Component.translatable("balcommand.transactions.page.invalid", 
-                            Component.text(page), Component.text(lastValidPage)).style(Styles.ERRORSTYLE));
-                        break;
-                    }
+
+                int lastValidPage = (transactionCount + TransactionManagement.HISTORY_PAGE_SIZE - 1) / TransactionManagement.HISTORY_PAGE_SIZE;
+                if (page > lastValidPage) {
+                    transactionsPlayer.sendMessage(Component.translatable("balcommand.transactions.page.invalid",
+                        Component.text(page), Component.text(lastValidPage)).style(Styles.ERRORSTYLE));
+                    break;
                 }
-                
-                // Check if there are more transactions on the next page
-                String nextPageTransactions = String.valueOf(TransactionManagement.displayTransactionsView(String.valueOf(transactionsPlayer.getUniqueId()), true, page + 1).join());
-                boolean hasNextPage = !nextPageTransactions.isEmpty();
-                
+                String transactions = Main.getStore().historyPage(transactionsUUID, true, page).join();
+
                 // Display transactions with pagination controls
                 transactionsPlayer.sendMessage(Component.translatable("balcommand.transactions.page", Component.text(page)).style(Styles.INFOSTYLE));
                 transactionsPlayer.sendMessage(transactions);
                 
-                // Add navigation arrows
-                Component navigation = Component.empty();
-                
-                // Previous page arrow (only show if not on page 1)
-                if (page > 1) {
-                    Component prevArrow = Component.translatable("balcommand.transactions.previous")
-                        .style(Styles.INFOSTYLE)
-                        .clickEvent(ClickEvent.runCommand("/bal transactions " + (page - 1)))
-                        .hoverEvent(HoverEvent.showText(Component.translatable("balcommand.transactions.previous.hover", Component.text(page - 1))));
-                    navigation = navigation.append(prevArrow);
-                    
-                    // Add space separator if both arrows will be present
-                    if (hasNextPage) {
-                        navigation = navigation.append(Component.text("  ").style(Styles.BODY));
-                    }
-                }
-                
-                // Next page arrow (only show if there are more transactions)
-                if (hasNextPage) {
-                    Component nextArrow = Component.translatable("balcommand.transactions.next")
-                        .style(Styles.INFOSTYLE)
-                        .clickEvent(ClickEvent.runCommand("/bal transactions " + (page + 1)))
-                        .hoverEvent(HoverEvent.showText(Component.translatable("balcommand.transactions.next.hover", Component.text(page + 1))));
-                    navigation = navigation.append(nextArrow);
-                }
-                
-                // Only send navigation if there are arrows to show
-                if (page > 1 || hasNextPage) {
-                    transactionsPlayer.sendMessage(navigation);
-                }
+                Pagination.sendNavigation(transactionsPlayer, "/bal transactions ", page, lastValidPage);
                 break;
             case "list":
                 if (sender instanceof  Player && !(sender.hasPermission("quickeconomy.balance.seeall"))) {
@@ -262,34 +223,7 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     break;
                 }
                 if(strings.length == 1) {
-                    if(Main.SQLMode) {
-                        sender.sendMessage(" " + AccountCache.listAllAccounts().toString().replace(",", "\n").replace("[", "").replace("]", ""));
-                    } else {
-                        // List all balances in file mode
-                        FileConfiguration file = BalanceFile.get();
-                        if (file == null) {
-                            sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
-                            break;
-                        }
-                        ConfigurationSection players = file.getConfigurationSection("players");
-                        if (players == null) {
-                            sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
-                            break;
-                        }
-                        StringBuilder balanceList = new StringBuilder();
-                        for (String uuid : players.getKeys(false)) {
-                            String name = players.getString(uuid + ".name");
-                            double balance = players.getDouble(uuid + ".balance");
-                            if (name != null && balance > 0) {
-                                balanceList.append(name).append(": ").append(balance).append("\n");
-                            }
-                        }
-                        if (balanceList.length() > 0) {
-                            sender.sendMessage(balanceList.toString());
-                        } else {
-                            sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
-                        }
-                    }
+                    sendAccountList(sender);
                     break;
                 }
                 // Handle /bal list playername case
@@ -311,12 +245,62 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     if (sender instanceof Player) {
                         Translation.init((Player) sender);
                     }
-                    sender.sendMessage(Component.translatable("balcommand.see.other", Component.text(strings[1]), Component.text(balance)).style(Styles.INFOSTYLE));
+                    sender.sendMessage(Component.translatable("balcommand.see.other", Component.text(strings[1]), Component.text(Money.format(balance))).style(Styles.INFOSTYLE));
                     break;
                 }
                 sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
                 break;
 
+            case "top":
+                if (sender instanceof  Player && !(sender.hasPermission("quickeconomy.balance.seeall"))) {
+                    sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
+                    break;
+                }
+                int topPage = 1;
+                if (strings.length > 1) {
+                    try {
+                        topPage = Math.max(1, Integer.parseInt(strings[1]));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage(Component.translatable("provide.number", Styles.ERRORSTYLE));
+                        break;
+                    }
+                }
+                sendTopPage(sender, topPage);
+                break;
+            case "rank":
+                if (strings.length == 1) {
+                    if (!(sender instanceof Player)) {
+                        sender.sendMessage(Component.translatable("provide.player", Styles.ERRORSTYLE));
+                        break;
+                    }
+                    String ownUUID = TypeChecker.trimUUID(((Player) sender).getUniqueId());
+                    int ownRank = BalanceLeaderboard.getRank(ownUUID);
+                    if (ownRank == 0) {
+                        sender.sendMessage(Component.translatable("player.notexists", Component.text(sender.getName())).style(Styles.ERRORSTYLE));
+                        break;
+                    }
+                    sender.sendMessage(Component.translatable("balcommand.rank.self", Component.text(ownRank),
+                            Component.text(BalanceLeaderboard.size()), Component.text(Money.format(BalanceLeaderboard.getBalance(ownUUID)))).style(Styles.INFOSTYLE));
+                    break;
+                }
+                if (sender instanceof  Player && !(sender.hasPermission("quickeconomy.balance.seeall"))) {
+                    sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
+                    break;
+                }
+                if (!Balances.hasAccountName(strings[1])) {
+                    sender.sendMessage(Component.translatable("player.notexists", Component.text(strings[1])).style(Styles.ERRORSTYLE));
+                    break;
+                }
+                String rankUUID = AccountCache.getUUID(strings[1]);
+                PlayerAccount rankAccount = AccountCache.getPlayerAccount(rankUUID);
+                if (rankAccount == null) {
+                    sender.sendMessage(Component.translatable("player.notexists", Component.text(strings[1])).style(Styles.ERRORSTYLE));
+                    break;
+                }
+                sender.sendMessage(Component.translatable("balcommand.rank", Component.text(rankAccount.name()), Component.text(BalanceLeaderboard.getRank(rankUUID)),
+                        Component.text(BalanceLeaderboard.size()), Component.text(Money.format(rankAccount.balance()))).style(Styles.INFOSTYLE));
+                break;
+
             default:
                 sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
                 break;
@@ -324,16 +308,89 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private void sendAccountList(CommandSender sender) {
+        if (AccountCache.holdsEveryAccount()) {
+            sendAccountList(sender, AccountCache.snapshot().values());
+            return;
+        }
+        // A bounded cache only holds some of the accounts, so they are read from the store without waiting on the main thread
+        List<PlayerAccount> accounts = Collections.synchronizedList(new ArrayList<>());
+        Main.getStore().streamAccounts(1000, (uuid, account) -> accounts.add(account)).whenComplete((count, ex) -> {
+            if (ex != null) {
+                Main.getInstance().getLogger().warning("Failed to read accounts for /bal list: " + ex.getMessage());
+                sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
+                return;
+            }
+            sendAccountList(sender, accounts);
+        });
+    }
+
+    // SQL mode lists every account, file mode only the names and balances of accounts with money
+    private void sendAccountList(CommandSender sender, Collection<PlayerAccount> accounts) {
+        StringBuilder accountList = new StringBuilder();
+        synchronized (accounts) {
+            for (PlayerAccount account : accounts) {
+                if (Main.SQLMode) {
+                    accountList.append(accountList.isEmpty() ? " " : "\n ").append(account);
+                } else if (account.balance() > 0) {
+                    accountList.append(account.name()).append(": ").append(Money.format(account.balance())).append("\n");
+                }
+            }
+        }
+        if (accountList.isEmpty()) {
+            sender.sendMessage(Component.translatable("balcommand.incorrectarg", Styles.ERRORSTYLE));
+            return;
+        }
+        sender.sendMessage(accountList.toString());
+    }
+
+    private void sendTopPage(CommandSender sender, int page) {
+        int pageCount = (BalanceLeaderboard.size() + TOP_PAGE_SIZE - 1) / TOP_PAGE_SIZE;
+        if (pageCount == 0) {
+            sender.sendMessage(Component.translatable("balcommand.top.empty", Styles.ERRORSTYLE));
+            return;
+        }
+        if (page > pageCount) {
+            sender.sendMessage(Component.translatable("balcommand.top.page.invalid", Component.text(page), Component.text(pageCount)).style(Styles.ERRORSTYLE));
+            return;
+        }
+        // Balances come from the leaderboard. Only the names of accounts that are not cached are read, without waiting on the main thread
+        List<BalanceLeaderboard.Entry> entries = BalanceLeaderboard.getEntries(page, TOP_PAGE_SIZE);
+        List<CompletableFuture<String>> names = new ArrayList<>(entries.size());
+        for (BalanceLeaderboard.Entry entry : entries) {
+            PlayerAccount cached = AccountCache.getCachedAccount(entry.uuid());
+            names.add(cached != null ? CompletableFuture.completedFuture(cached.name())
+                    : Main.getStore().getAccount(entry.uuid()).thenApply(account -> account == null ? null : account.name()).exceptionally(ex -> null));
+        }
+        CompletableFuture.allOf(names.toArray(new CompletableFuture[0])).thenRun(() -> sendTopEntries(sender, page, pageCount, entries, names));
+    }
+
+    private void sendTopEntries(CommandSender sender, int page, int pageCount, List<BalanceLeaderboard.Entry> entries, List<CompletableFuture<String>> names) {
+        sender.sendMessage(Component.translatable("balcommand.top.page", Component.text(page), Component.text(pageCount)).style(Styles.INFOSTYLE));
+        int rank = (page - 1) * TOP_PAGE_SIZE;
+        for (int i = 0; i < entries.size(); i++) {
+            rank++;
+            String name = names.get(i).join();
+            if (name == null) continue;
+            sender.sendMessage(Component.translatable("balcommand.top.entry", Component.text(rank), Component.text(name),
+                    Component.text(Money.format(entries.get(i).balance()))).style(Styles.BODY));
+        }
+
+        Pagination.sendNavigation(sender, "/bal top ", page, pageCount);
+    }
+
 
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String s, @NotNull String[] strings) {
         if (strings.length == 1) {
             List<String> returnList = new ArrayList<>(Collections.singletonList("send"));
-            if(Main.SQLMode) {
+            if(Main.getStore().hasHistory()) {
                 returnList.add("transactions");
             }
+            returnList.add("rank");
             if (sender.hasPermission("quickeconomy.balance.seeall") || !(sender instanceof Player)) {
                 returnList.add("list");
+                returnList.add("top");
             }
             if (sender.hasPermission("quickeconomy.balance.modifyall") || ! (sender instanceof Player)) {
                 List<String> subCommands = Arrays.asList("set", "add", "subtract");
@@ -344,15 +401,12 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     .collect(Collectors.toList());
         }
         if (strings.length == 2) {
-            if (strings[0].equalsIgnoreCase("list")) {
-                return Bukkit.getOnlinePlayers().stream()
-                        .map(Player::getName)
-                        .filter(player -> player.toLowerCase().startsWith(strings[1]))
-                        .collect(Collectors.toList());
+            if (strings[0].equalsIgnoreCase("list") || strings[0].equalsIgnoreCase("rank")) {
+                return AccountCache.completeNames(strings[1], TAB_COMPLETE_LIMIT);
             }
             
-            if (strings[0].equalsIgnoreCase("transactions")) {
-                // Suggest page numbers for transactions
+            if (strings[0].equalsIgnoreCase("transactions") || strings[0].equalsIgnoreCase("top")) {
+                // Suggest page numbers
                 return Stream.of("1", "2", "3", "4", "5")
                         .filter(pageNum -> pageNum.startsWith(strings[1]))
                         .collect(Collectors.toList());
@@ -367,10 +421,7 @@ public class BalanceCommand implements CommandExecutor, TabCompleter {
                     .collect(Collectors.toList());
         }
         if (strings.length == 3) {
-            return Bukkit.getOnlinePlayers().stream()
-                    .map(Player::getName)
-                    .filter(player -> player.toLowerCase().startsWith(strings[2]))
-                    .collect(Collectors.toList());
+            return AccountCache.completeNames(strings[2], TAB_COMPLETE_LIMIT);
         }
         return null;
     }
@@ -5,8 +5,14 @@ import net.derfla.quickeconomy.database.Migration;
 import net.derfla.quickeconomy.database.System;
 import net.derfla.quickeconomy.database.TableManagement;
 import net.derfla.quickeconomy.database.Utility;
+import net.derfla.quickeconomy.file.BalanceJournal;
+import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.model.RollbackPlan;
+import net.derfla.quickeconomy.util.AccountCache;
 import net.derfla.quickeconomy.util.DerflaAPI;
+import net.derfla.quickeconomy.util.Money;
 import net.derfla.quickeconomy.util.Styles;
+import net.derfla.quickeconomy.util.WriteBehindQueue;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import org.bukkit.command.Command;
@@ -22,12 +28,16 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class QuickeconomyCommand implements TabExecutor {
 
     static Plugin plugin = Main.getInstance();
+    private static final int PREVIEW_SIZE = 10;
+    private static final long PROGRESS_INTERVAL_MS = 2000;
 
     @Override
     public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String string, @NotNull String[] strings) {
@@ -37,21 +47,27 @@ public class QuickeconomyCommand implements TabExecutor {
                     if(!sender.hasPermission("quickeconomy.migrate") && sender instanceof Player) {
                         break;
                     }
+                    // Make sure the storage being migrated from is up to date
+                    if (WriteBehindQueue.isEnabled()) WriteBehindQueue.flush();
+                    if (BalanceJournal.isEnabled()) BalanceJournal.exportToBalanceFile();
                     if(Main.SQLMode) {
                         Migration.migrateToBalanceFile();
                         plugin.getConfig().set("database.enabled", false);
                         plugin.saveConfig();
                         Main.SQLMode = false;
+                        Main.selectStore();
                         sender.sendMessage(Component.translatable("qecommand.migrate.file").style(Styles.INFOSTYLE));
                         return true;
                     } else {
                         boolean connectedAndSetup = false;
+                        CompletableFuture<Void> tablesCreated = null;
                         try{
                             Utility.connectToDatabase();
-                            TableManagement.createTables();
+                            tablesCreated = TableManagement.createTables();
                             plugin.getConfig().set("database.enabled", true);
                             plugin.saveConfig();
                             Main.SQLMode = true;
+                            Main.selectStore();
                             sender.sendMessage(Component.translatable("qecommand.migrate.database").style(Styles.INFOSTYLE));
                             connectedAndSetup = true;
                         } catch (Exception e) {
@@ -63,7 +79,8 @@ public class QuickeconomyCommand implements TabExecutor {
                         }
 
                         if (connectedAndSetup) {
-                            Migration.migrateToDatabase();
+                            // The accounts can only be written once the tables exist
+                            tablesCreated.thenCompose(v -> Migration.migrateToDatabase());
                         }
                         return true;
                     }
@@ -99,24 +116,69 @@ public class QuickeconomyCommand implements TabExecutor {
                         return true;
                     }
                     
-                    // Execute rollback asynchronously and handle the result
-                    System.rollback(timestampString).whenComplete((result, ex) -> {
-                        if (ex != null) {
-                            sender.sendMessage(Component.translatable("qecommand.rollback.fail").style(Styles.ERRORSTYLE));
-                            plugin.getLogger().info("Rollback failed: " + ex.getMessage());
-                        } else {
+                    boolean dryRun = strings.length > 5 && strings[5].equalsIgnoreCase("--dry-run");
+
+                    // Rollback works on the database, so queued changes must be stored first
+                    if (!dryRun && WriteBehindQueue.isEnabled()) WriteBehindQueue.flush();
+
+                    // Plan the rollback asynchronously, then show it or apply it
+                    System.planRollback(timestampString).thenCompose(plan -> {
+                        if (plan.isEmpty()) {
+                            sender.sendMessage(Component.translatable("qecommand.rollback.nothing", Component.text(timestampString)).style(Styles.ERRORSTYLE));
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        if (dryRun) {
+                            sendRollbackPreview(sender, timestampString, plan);
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        if (plan.isResumed()) {
+                            sender.sendMessage(Component.translatable("qecommand.rollback.resume", Component.text(plan.accountsDone())).style(Styles.INFOSTYLE));
+                        }
+                        long[] lastReport = {java.lang.System.currentTimeMillis()};
+                        return System.rollback(plan, (done, total) -> {
+                            long now = java.lang.System.currentTimeMillis();
+                            if (now - lastReport[0] < PROGRESS_INTERVAL_MS) return;
+                            lastReport[0] = now;
+                            sender.sendMessage(Component.translatable("qecommand.rollback.progress", Component.text(done), Component.text(total)).style(Styles.INFOSTYLE));
+                        }).thenRun(() -> {
                             sender.sendMessage(Component.translatable("qecommand.rollback.success").style(Styles.INFOSTYLE));
                             plugin.getLogger().info("Rollback complete to " + timestampString);
+                        });
+                    }).exceptionally(ex -> {
+                        sender.sendMessage(Component.translatable("qecommand.rollback.fail").style(Styles.ERRORSTYLE));
+                        plugin.getLogger().info("Rollback failed: " + ex.getMessage());
+                        return null;
+                    });
+                    return true;
+                case "export":
+                    if(!Main.SQLMode) {
+                        // Export is only available when connected to a database
+                        break;
+                    }
+                    if(!sender.hasPermission("quickeconomy.export") && sender instanceof Player) {
+                        break;
+                    }
+                    boolean ndjson = strings.length > 1 && strings[1].equalsIgnoreCase("ndjson");
+                    boolean gzip = strings.length > 2 && strings[2].equalsIgnoreCase("gzip");
+                    sender.sendMessage(Component.translatable("qecommand.export.start").style(Styles.INFOSTYLE));
+                    long exportStart = java.lang.System.currentTimeMillis();
+                    Migration.exportDatabase(ndjson, gzip).whenComplete((rows, ex) -> {
+                        if (ex != null) {
+                            sender.sendMessage(Component.translatable("qecommand.export.fail").style(Styles.ERRORSTYLE));
+                            return;
                         }
+                        long seconds = Math.max(1, (java.lang.System.currentTimeMillis() - exportStart) / 1000);
+                        sender.sendMessage(Component.translatable("qecommand.export.success", Component.text(rows), Component.text(seconds)).style(Styles.INFOSTYLE));
                     });
                     return true;
                 case "setup":
                     if(!sender.hasPermission("quickeconomy.setup") && sender instanceof Player) {
                         break;
                     }
-                    String storageMethod = Main.SQLMode ? "SQL Server" : "File";
+                    String storageMethod = Main.getStore().name();
                     String connections = Main.SQLMode ? "(" + Utility.dataSource.getMaximumPoolSize() + ")" : "";
                     sender.sendMessage(Component.translatable("qecommand.setup", Component.text(storageMethod + " " + connections), Component.text(plugin.getPluginMeta().getVersion())).style(Styles.INFOSTYLE));
+                    sender.sendMessage(Component.translatable("qecommand.setup.cache", Component.text(AccountCache.stats())).style(Styles.INFOSTYLE));
                     if(DerflaAPI.updateAvailable()) {
                         sender.sendMessage(Component.translatable("quickeconomy.update").style(Styles.INFOSTYLE).clickEvent(ClickEvent.openUrl("https://modrinth.com/plugin/quickeconomy/")));
                     }
@@ -149,6 +211,9 @@ public class QuickeconomyCommand implements TabExecutor {
         if (sender.hasPermission("quickeconomy.rollback")) {
             sender.sendMessage(Component.translatable("qecommand.rollback.info", Styles.INFOSTYLE));
         }
+        if (sender.hasPermission("quickeconomy.export") && Main.SQLMode) {
+            sender.sendMessage(Component.translatable("qecommand.export.info", Styles.INFOSTYLE));
+        }
         if (sender.hasPermission("quickeconomy.setup")) {
             sender.sendMessage(Component.translatable("qecommand.setup.info", Styles.INFOSTYLE));
         }
@@ -156,6 +221,23 @@ public class QuickeconomyCommand implements TabExecutor {
 
     }
 
+    private static void sendRollbackPreview(CommandSender sender, String timestampString, RollbackPlan plan) {
+        sender.sendMessage(Component.translatable("qecommand.rollback.dryrun", Component.text(timestampString),
+                Component.text(plan.transactionCount()), Component.text(plan.deltas().size())).style(Styles.INFOSTYLE));
+        for (Map.Entry<String, Long> delta : plan.largestDeltas(PREVIEW_SIZE)) {
+            PlayerAccount account = AccountCache.getPlayerAccount(delta.getKey());
+            String name = account != null ? account.name() : delta.getKey();
+            String amount = (delta.getValue() > 0 ? "+" : "") + Money.format(delta.getValue());
+            sender.sendMessage(Component.translatable("qecommand.rollback.dryrun.entry", Component.text(name), Component.text(amount)).style(Styles.BODY));
+        }
+        if (plan.deltas().size() > PREVIEW_SIZE) {
+            sender.sendMessage(Component.translatable("qecommand.rollback.dryrun.more", Component.text(plan.deltas().size() - PREVIEW_SIZE)).style(Styles.BODY));
+        }
+        if (plan.isResumed()) {
+            sender.sendMessage(Component.translatable("qecommand.rollback.resume", Component.text(plan.accountsDone())).style(Styles.INFOSTYLE));
+        }
+    }
+
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String s, @NotNull String[] strings) {
         if(strings.length == 1){
@@ -166,6 +248,9 @@ public class QuickeconomyCommand implements TabExecutor {
             if(sender.hasPermission("quickeconomy.rollback") && Main.SQLMode){
                 returnList.add("rollback");
             }
+            if(sender.hasPermission("quickeconomy.export") && Main.SQLMode){
+                returnList.add("export");
+            }
             if(sender.hasPermission("quickeconomy.setup")) {
                 returnList.add("setup");
             }
@@ -173,6 +258,18 @@ public class QuickeconomyCommand implements TabExecutor {
                     .filter(subCommand -> subCommand.toLowerCase().startsWith(strings[0]))
                     .collect(Collectors.toList());
         }
+        if(strings[0].equalsIgnoreCase("export") && sender.hasPermission("quickeconomy.export")) {
+            switch (strings.length) {
+                case 2:
+                    return Stream.of("csv", "ndjson")
+                            .filter(subCommand -> subCommand.startsWith(strings[1].toLowerCase()))
+                            .collect(Collectors.toList());
+                case 3:
+                    return Stream.of("gzip")
+                            .filter(subCommand -> subCommand.startsWith(strings[2].toLowerCase()))
+                            .collect(Collectors.toList());
+            }
+        }
         if(strings[0].equalsIgnoreCase("rollback") && sender.hasPermission("quickeconomy.rollback")) {
             switch (strings.length) {
                 case 2:
@@ -189,6 +286,10 @@ public class QuickeconomyCommand implements TabExecutor {
                             .collect(Collectors.toList());
                 case 5:
                     return Collections.singletonList("hh:mm:ss");
+                case 6:
+                    return Stream.of("--dry-run")
+                            .filter(subCommand -> subCommand.startsWith(strings[5]))
+                            .collect(Collectors.toList());
             }
         }
         return Collections.emptyList();
@@ -0,0 +1,90 @@
+package net.derfla.quickeconomy.command;
+
+import net.derfla.quickeconomy.util.AccountCache;
+import net.derfla.quickeconomy.util.Money;
+import net.derfla.quickeconomy.util.Pagination;
+import net.derfla.quickeconomy.util.ShopRegistry;
+import net.derfla.quickeconomy.util.Styles;
+import net.derfla.quickeconomy.util.TypeChecker;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public class ShopsCommand implements CommandExecutor {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String string, @NotNull String[] strings) {
+        // /shops [page] lists your own shops, /shops <player> [page] the shops of another player
+        String name;
+        String uuid;
+        int pageArgument;
+        if (strings.length == 0 || isNumber(strings[0])) {
+            if (!(sender instanceof Player player)) {
+                sender.sendMessage(Component.translatable("shops.notplayer", Styles.ERRORSTYLE));
+                return true;
+            }
+            name = player.getName();
+            uuid = TypeChecker.trimUUID(player.getUniqueId());
+            pageArgument = 0;
+        } else {
+            if (sender instanceof Player && !sender.hasPermission("quickeconomy.shop.seeall")) {
+                sender.sendMessage(Component.translatable("shops.incorrectarg", Styles.ERRORSTYLE));
+                return true;
+            }
+            name = strings[0];
+            Player target = Bukkit.getPlayerExact(name);
+            uuid = target != null ? TypeChecker.trimUUID(target.getUniqueId()) : AccountCache.getUUID(name);
+            if (uuid == null) {
+                sender.sendMessage(Component.translatable("player.notexists", Component.text(name)).style(Styles.ERRORSTYLE));
+                return true;
+            }
+            pageArgument = 1;
+        }
+        int page = 1;
+        if (strings.length > pageArgument) {
+            if (!isNumber(strings[pageArgument])) {
+                sender.sendMessage(Component.translatable("provide.number", Styles.ERRORSTYLE));
+                return true;
+            }
+            page = Math.max(1, Integer.parseInt(strings[pageArgument]));
+        }
+        sendPage(sender, name, uuid, page, pageArgument == 0 ? "/shops " : "/shops " + name + " ");
+        return true;
+    }
+
+    private void sendPage(CommandSender sender, String name, String uuid, int page, String pageCommand) {
+        List<ShopRegistry.Shop> shops = ShopRegistry.byOwner(uuid);
+        int pageCount = (shops.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (pageCount == 0) {
+            sender.sendMessage(Component.translatable("shops.empty", Component.text(name)).style(Styles.ERRORSTYLE));
+            return;
+        }
+        if (page > pageCount) {
+            sender.sendMessage(Component.translatable("shops.page.invalid", Component.text(page), Component.text(pageCount)).style(Styles.ERRORSTYLE));
+            return;
+        }
+        sender.sendMessage(Component.translatable("shops.page", Component.text(name), Component.text(page), Component.text(pageCount)).style(Styles.INFOSTYLE));
+        for (ShopRegistry.Shop shop : shops.subList((page - 1) * PAGE_SIZE, Math.min(page * PAGE_SIZE, shops.size()))) {
+            sender.sendMessage(Component.translatable("shops.entry", Component.text(shop.world()), Component.text(shop.coordinates()),
+                    Component.text(Money.format(shop.priceCents())), Component.text(shop.singleItem() ? "Item" : "Stack")).style(Styles.BODY));
+        }
+
+        Pagination.sendNavigation(sender, pageCommand, page, pageCount);
+    }
+
+    private static boolean isNumber(String string) {
+        if (string.isEmpty() || string.length() > 9) return false;
+        for (int i = 0; i < string.length(); i++) {
+            if (!Character.isDigit(string.charAt(i))) return false;
+        }
+        return true;
+    }
+}
@@ -1,7 +1,9 @@
 package net.derfla.quickeconomy.database;
 
 import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.PendingTransaction;
 import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.util.Money;
 import net.derfla.quickeconomy.util.TypeChecker;
 import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
@@ -14,8 +16,11 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 
@@ -40,8 +45,8 @@ public class AccountManagement {
                                 pstmt.setString(1, trimmedUuid);
                                 pstmt.setString(2, currentTimeString); // Use the converted UTC time
                                 pstmt.setString(3, playerName);
-                                pstmt.setDouble(4, balance);
-                                pstmt.setDouble(5, change);
+                                pstmt.setBigDecimal(4, Money.toBigDecimal(balance));
+                                pstmt.setBigDecimal(5, Money.toBigDecimal(change));
                                 int rowsInserted = pstmt.executeUpdate();
 
                                 if (rowsInserted > 0) {
@@ -50,8 +55,7 @@ public class AccountManagement {
                             }
                         });
                     }
-                }).thenCompose(v -> TableManagement.createTransactionsView(trimmedUuid))
-                .exceptionally(ex -> {
+                }).exceptionally(ex -> {
                     plugin.getLogger().severe("Error during addAccount operation for UUID: " + trimmedUuid + " PlayerName: " + playerName + " - " + ex.getMessage());
                     if (ex instanceof CompletionException) throw (CompletionException) ex;
                     throw new CompletionException(ex);
@@ -163,8 +167,8 @@ public class AccountManagement {
 
         return Utility.executeUpdateAsync(conn -> {
             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setDouble(1, balance);
-                pstmt.setDouble(2, change);
+                pstmt.setBigDecimal(1, Money.toBigDecimal(balance));
+                pstmt.setBigDecimal(2, Money.toBigDecimal(change));
                 pstmt.setString(3, trimmedUuid);
                 int rowsAffected = pstmt.executeUpdate();
 
@@ -181,6 +185,30 @@ public class AccountManagement {
         });
     }
 
+    /**
+     * Adds to the balance and balance change of an account in a single statement, so concurrent additions are never lost.
+     * @param uuid The UUID of the player.
+     * @param balance The amount to add to the balance. Negative to subtract.
+     * @param change The amount to add to the balance change.
+     */
+    public static CompletableFuture<Void> addPlayerBalance(@NotNull String uuid, double balance, double change) {
+        String trimmedUuid = TypeChecker.trimUUID(uuid);
+        String sql = "UPDATE PlayerAccounts SET Balance = Balance + ?, BalChange = BalChange + ? WHERE UUID = ?;";
+
+        return Utility.executeUpdateAsync(conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setBigDecimal(1, Money.toBigDecimal(balance));
+                pstmt.setBigDecimal(2, Money.toBigDecimal(change));
+                pstmt.setString(3, trimmedUuid);
+                pstmt.executeUpdate();
+            }
+        }).exceptionally(ex -> {
+            plugin.getLogger().severe("Error adding to player balance for UUID: " + uuid + " - " + ex.getMessage());
+            if (ex instanceof CompletionException) throw (CompletionException) ex;
+            throw new CompletionException(ex);
+        });
+    }
+
     public static CompletableFuture<Double> getPlayerBalanceChange(String uuid) {
         String trimmedUUID = TypeChecker.trimUUID(uuid);
         String sql = "SELECT BalChange FROM PlayerAccounts WHERE UUID = ?";
@@ -204,7 +232,7 @@ public class AccountManagement {
 
         return Utility.executeUpdateAsync(conn -> {
             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setDouble(1, change);
+                pstmt.setBigDecimal(1, Money.toBigDecimal(change));
                 pstmt.setString(2, trimmedUuid);
                 pstmt.executeUpdate();
             }
@@ -225,21 +253,132 @@ public class AccountManagement {
                  ResultSet rs = pstmt.executeQuery()) {
 
                 while (rs.next()) {
-                    String uuid = rs.getString("UUID");
-                    String playerName = rs.getString("PlayerName");
-                    double balance = rs.getDouble("Balance");
-                    double change = rs.getDouble("BalChange");
-                    String accountDatetimeUTC = rs.getString("Created");
-                    String accountDatetimeLocal = TypeChecker.convertToLocalTime(accountDatetimeUTC);
-
-                    PlayerAccount account = new PlayerAccount(playerName, balance, change, accountDatetimeLocal);
-                    accountMap.put(uuid, account);
+                    accountMap.put(rs.getString("UUID"), readAccount(rs));
                 }
             }
             return accountMap;
         });
     }
 
+    /**
+     * Reads every account one row at a time and hands it to the consumer, so the whole table is never held in memory at once.
+     * @param fetchSize The number of rows fetched from the database server at a time.
+     * @param consumer Receives the trimmed UUID and the account of every row. Is called on the database thread.
+     * @return The number of accounts read.
+     */
+    public static CompletableFuture<Integer> streamAccounts(int fetchSize, BiConsumer<String, PlayerAccount> consumer) {
+        String sql = "SELECT UUID, PlayerName, Balance, BalChange, AccountDatetime AS Created FROM PlayerAccounts";
+
+        return Utility.executeQueryAsync(conn -> {
+            int count = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pstmt.setFetchSize(fetchSize);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(rs.getString("UUID"), readAccount(rs));
+                        count++;
+                    }
+                }
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Reads a single account.
+     * @param uuid The UUID of the player.
+     * @return The account, or null if there is no such account.
+     */
+    public static CompletableFuture<PlayerAccount> getAccount(@NotNull String uuid) {
+        String trimmedUuid = TypeChecker.trimUUID(uuid);
+        String sql = "SELECT UUID, PlayerName, Balance, BalChange, AccountDatetime AS Created FROM PlayerAccounts WHERE UUID = ?";
+
+        return Utility.executeQueryAsync(conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, trimmedUuid);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) return readAccount(rs);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static PlayerAccount readAccount(ResultSet rs) throws SQLException {
+        String playerName = rs.getString("PlayerName");
+        double balance = rs.getDouble("Balance");
+        double change = rs.getDouble("BalChange");
+        String accountDatetimeUTC = rs.getString("Created");
+        String accountDatetimeLocal = TypeChecker.convertToLocalTime(accountDatetimeUTC);
+        return new PlayerAccount(playerName, balance, change, accountDatetimeLocal);
+    }
+
+    /**
+     * Writes a batch of cached accounts and their pending transactions to the database in a single transaction.
+     * Used by the write-behind queue. Either everything in the batch is stored, or nothing is.
+     * @param newAccounts Accounts created since the last flush, keyed by trimmed UUID.
+     * @param changedAccounts Accounts whose name, balance or change has been modified since the last flush, keyed by trimmed UUID.
+     * @param transactions Transactions to record, in the order they happened.
+     * @return A CompletableFuture that completes when the batch is committed.
+     */
+    public static CompletableFuture<Void> saveAccounts(Map<String, PlayerAccount> newAccounts, Map<String, PlayerAccount> changedAccounts,
+                                                       List<PendingTransaction> transactions) {
+        String existsSql = "SELECT COUNT(*) FROM PlayerAccounts WHERE UUID = ?";
+        String insertSql = "INSERT INTO PlayerAccounts (UUID, AccountDatetime, PlayerName, Balance, BalChange) VALUES (?, ?, ?, ?, ?)";
+        String updateSql = "UPDATE PlayerAccounts SET PlayerName = ?, Balance = ?, BalChange = ? WHERE UUID = ?";
+
+        return Utility.executeUpdateAsync(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement existsStmt = conn.prepareStatement(existsSql);
+                     PreparedStatement insertStmt = conn.prepareStatement(insertSql);
+                     PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+                    for (Map.Entry<String, PlayerAccount> entry : newAccounts.entrySet()) {
+                        PlayerAccount account = entry.getValue();
+                        existsStmt.setString(1, entry.getKey());
+                        boolean exists;
+                        try (ResultSet rs = existsStmt.executeQuery()) {
+                            exists = rs.next() && rs.getInt(1) > 0;
+                        }
+                        if (exists) {
+                            // Already stored, treat it as a regular update instead
+                            addAccountUpdate(updateStmt, entry.getKey(), account);
+                            continue;
+                        }
+                        insertStmt.setString(1, entry.getKey());
+                        insertStmt.setString(2, account.createdTime());
+                        insertStmt.setString(3, account.name());
+                        insertStmt.setBigDecimal(4, Money.toBigDecimal(account.balanceCents()));
+                        insertStmt.setBigDecimal(5, Money.toBigDecimal(account.changeCents()));
+                        insertStmt.addBatch();
+                    }
+                    for (Map.Entry<String, PlayerAccount> entry : changedAccounts.entrySet()) {
+                        addAccountUpdate(updateStmt, entry.getKey(), entry.getValue());
+                    }
+                    // New accounts first, transactions reference them
+                    insertStmt.executeBatch();
+                    updateStmt.executeBatch();
+                }
+                TransactionManagement.insertTransactions(conn, transactions);
+                conn.commit();
+                TransactionManagement.invalidateHistory(transactions);
+            } catch (SQLException e) {
+                conn.rollback();
+                plugin.getLogger().severe("Error writing " + (newAccounts.size() + changedAccounts.size()) + " accounts and "
+                        + transactions.size() + " transactions to the database: " + e.getMessage());
+                throw e;
+            }
+        });
+    }
+
+    private static void addAccountUpdate(PreparedStatement updateStmt, String uuid, PlayerAccount account) throws SQLException {
+        updateStmt.setString(1, account.name());
+        updateStmt.setBigDecimal(2, Money.toBigDecimal(account.balanceCents()));
+        updateStmt.setBigDecimal(3, Money.toBigDecimal(account.changeCents()));
+        updateStmt.setString(4, uuid);
+        updateStmt.addBatch();
+    }
+
     public static CompletableFuture<String> getUUID(String playerName) {
         String sql = "SELECT UUID FROM PlayerAccounts WHERE PlayerName = ?";
 
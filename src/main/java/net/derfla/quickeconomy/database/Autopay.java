@@ -1,6 +1,7 @@
 package net.derfla.quickeconomy.database;
 
 import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.util.Money;
 import net.derfla.quickeconomy.util.TypeChecker;
 import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
@@ -9,6 +10,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
@@ -51,18 +53,21 @@ public class Autopay {
                 ") VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
 
         return Utility.executeUpdateAsync(conn -> {
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 pstmt.setInt(1, 1); // Active
                 pstmt.setString(2, autopayDateTimeFormatted); // AutopayDatetime formatted for SQL DATETIME (UTC)
                 pstmt.setString(3, autopayName); // AutopayName
                 pstmt.setString(4, trimmedUuid); // Source
                 pstmt.setString(5, trimmedDestination); // Destination
-                pstmt.setDouble(6, amount); // Amount
+                pstmt.setBigDecimal(6, Money.toBigDecimal(amount)); // Amount
                 pstmt.setInt(7, inverseFrequency); // InverseFrequency
                 pstmt.setInt(8, timesLeft); // TimesLeft
 
                 pstmt.executeUpdate();
                 plugin.getLogger().info("Autopay added successfully");
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys.next()) AutopayScheduler.reload(keys.getLong(1));
+                }
             }
         }).exceptionally(ex -> {
             plugin.getLogger().severe("Error adding autopay for Source: " + trimmedUuid + ", Name: " + autopayName + " - " + ex.getMessage());
@@ -116,6 +121,11 @@ public class Autopay {
                 int rowsAffected = pstmt.executeUpdate();
                 if (rowsAffected > 0) {
                     plugin.getLogger().info("Autopay updated successfully");
+                    if (activeState) {
+                        AutopayScheduler.reload(autopayID);
+                    } else {
+                        AutopayScheduler.cancel(autopayID);
+                    }
                 } else {
                     plugin.getLogger().info("Autopay not found. No update was performed.");
                 }
@@ -143,6 +153,7 @@ public class Autopay {
                 int rowsAffected = pstmt.executeUpdate();
                 if (rowsAffected > 0) {
                     plugin.getLogger().info("Autopay deleted successfully");
+                    AutopayScheduler.cancel(autopayID);
                 } else {
                     plugin.getLogger().info("Autopay not found. No deletion was performed.");
                 }
@@ -0,0 +1,239 @@
+package net.derfla.quickeconomy.database;
+
+import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.util.Balances;
+import net.derfla.quickeconomy.util.TimingWheel;
+import net.derfla.quickeconomy.util.WriteBehindQueue;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.derfla.quickeconomy.database.Utility.executorService;
+
+/**
+ * Makes the payments in the Autopays table. Active autopays are read once on startup and kept in a TimingWheel by the tick
+ * their next payment is due, so each tick only looks at the payments that came due. Those are sent to TransactionManagement
+ * together and committed as one batch, or applied to the cache and queued when write-behind is on.
+ * <p>
+ * InverseFrequency is the number of seconds between payments, counted from AutopayDatetime. Payments missed while the server
+ * was down are not made up. TimesLeft counts down with every passed payment and the autopay is deactivated after the last one,
+ * 0 keeps it running until it is deactivated. A payment the source can't afford is recorded as failed and tried again next time.
+ */
+public class AutopayScheduler {
+
+    static Plugin plugin = Main.getInstance();
+    private static final long MILLIS_PER_TICK = 50;
+    private static final int UPDATE_CHUNK_SIZE = 100;
+    private static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final class ScheduledAutopay {
+        final long id;
+        final String name;
+        final String source;
+        final String destination;
+        final double amount;
+        final long periodTicks;
+        int timesLeft;
+        long dueTick;
+
+        ScheduledAutopay(long id, String name, String source, String destination, double amount, long periodTicks, int timesLeft) {
+            this.id = id;
+            this.name = name;
+            this.source = source;
+            this.destination = destination;
+            this.amount = amount;
+            this.periodTicks = periodTicks;
+            this.timesLeft = timesLeft;
+        }
+    }
+
+    private static final Object lock = new Object();
+    // Ticks are counted from the epoch, so due times survive restarts
+    private static final TimingWheel<ScheduledAutopay> wheel = new TimingWheel<>(currentTick());
+    // The autopays in the wheel by ID. Deactivated autopays are only removed here and skipped when they come due
+    private static final Map<Long, ScheduledAutopay> scheduled = new HashMap<>();
+    private static final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private static BukkitTask task;
+
+    /**
+     * Loads the active autopays and starts making payments. Is called in onEnable, in SQL mode only.
+     */
+    public static void init() {
+        if (!plugin.getConfig().getBoolean("autopay.enabled", true)) return;
+        String sql = "SELECT AutopayID, AutopayDatetime, AutopayName, Source, Destination, Amount, InverseFrequency, TimesLeft FROM Autopays WHERE Active = 1";
+        Utility.executeQueryAsync(conn -> {
+            int count = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (schedule(rs)) count++;
+                }
+            }
+            return count;
+        }).whenComplete((count, ex) -> {
+            if (ex != null) {
+                plugin.getLogger().severe("Could not load autopays: " + ex.getMessage());
+                return;
+            }
+            plugin.getLogger().info("Scheduled " + count + " autopays.");
+        });
+        task = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, AutopayScheduler::tick, 1L, 1L);
+    }
+
+    /**
+     * Stops making payments and waits for the ones already sent. Is called in onDisable, before TransactionManagement.shutdown().
+     */
+    public static void shutdown() {
+        if (task != null) task.cancel();
+        for (CompletableFuture<Void> payment : inFlight) {
+            payment.exceptionally(ex -> null).join();
+        }
+    }
+
+    /**
+     * Reads an autopay and schedules it if it is active. Is called when an autopay is added or activated.
+     * @param autopayID The ID of the autopay.
+     */
+    public static CompletableFuture<Void> reload(long autopayID) {
+        if (task == null) return CompletableFuture.completedFuture(null);
+        String sql = "SELECT AutopayID, AutopayDatetime, AutopayName, Source, Destination, Amount, InverseFrequency, TimesLeft FROM Autopays WHERE AutopayID = ? AND Active = 1";
+        return Utility.executeUpdateAsync(conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setLong(1, autopayID);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) schedule(rs);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the payments of an autopay. Is called when an autopay is deactivated or deleted.
+     * @param autopayID The ID of the autopay.
+     */
+    public static void cancel(long autopayID) {
+        synchronized (lock) {
+            scheduled.remove(autopayID);
+        }
+    }
+
+    private static boolean schedule(ResultSet rs) throws SQLException {
+        long id = rs.getLong("AutopayID");
+        int inverseFrequency = rs.getInt("InverseFrequency");
+        if (inverseFrequency <= 0) {
+            plugin.getLogger().warning("Autopay #" + id + " has no InverseFrequency and will not be paid.");
+            return false;
+        }
+        ScheduledAutopay autopay = new ScheduledAutopay(id, rs.getString("AutopayName"), rs.getString("Source"),
+                rs.getString("Destination"), rs.getDouble("Amount"), inverseFrequency * 1000L / MILLIS_PER_TICK, rs.getInt("TimesLeft"));
+        // The first payment due after now
+        long created = LocalDateTime.parse(rs.getString("AutopayDatetime").substring(0, 19), DATETIME_FORMAT).toEpochSecond(ZoneOffset.UTC) * 1000 / MILLIS_PER_TICK;
+        long now = currentTick();
+        autopay.dueTick = created + (Math.max(now - created, 0) / autopay.periodTicks + 1) * autopay.periodTicks;
+        synchronized (lock) {
+            scheduled.put(id, autopay);
+            wheel.add(autopay, autopay.dueTick);
+        }
+        return true;
+    }
+
+    private static void tick() {
+        List<ScheduledAutopay> due = new ArrayList<>();
+        synchronized (lock) {
+            wheel.advance(currentTick(), autopay -> {
+                if (scheduled.get(autopay.id) == autopay) due.add(autopay);
+            });
+        }
+        if (!due.isEmpty()) pay(due);
+    }
+
+    private static void pay(List<ScheduledAutopay> due) {
+        List<CompletableFuture<Boolean>> futures = send(due);
+        CompletableFuture<Void> payment = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).handle((ignored, ex) -> {
+            if (ex != null) plugin.getLogger().severe("Failed to make " + due.size() + " autopay payments: " + ex.getMessage());
+            List<Long> countedDown = new ArrayList<>();
+            synchronized (lock) {
+                for (int i = 0; i < due.size(); i++) {
+                    ScheduledAutopay autopay = due.get(i);
+                    boolean passed = !futures.get(i).isCompletedExceptionally() && futures.get(i).join();
+                    // The batch has already put the committed balances in the cache
+                    if (passed && autopay.timesLeft > 0) countedDown.add(autopay.id);
+                    // Deactivated while the payment was made
+                    if (scheduled.get(autopay.id) != autopay) continue;
+                    if (passed && autopay.timesLeft == 1) {
+                        scheduled.remove(autopay.id);
+                        continue;
+                    }
+                    if (passed && autopay.timesLeft > 0) autopay.timesLeft--;
+                    autopay.dueTick += autopay.periodTicks;
+                    wheel.add(autopay, autopay.dueTick);
+                }
+            }
+            return countedDown;
+        }).thenCompose(AutopayScheduler::countDown);
+        inFlight.add(payment);
+        payment.whenComplete((ignored, ex) -> inFlight.remove(payment));
+    }
+
+    // With write-behind on, the balances in the cache are ahead of the database, so payments go through the cache and the queue
+    // like every other transfer. Otherwise they are committed in one batch
+    private static List<CompletableFuture<Boolean>> send(List<ScheduledAutopay> due) {
+        if (WriteBehindQueue.isEnabled()) {
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>(due.size());
+            for (ScheduledAutopay autopay : due) {
+                futures.add(CompletableFuture.supplyAsync(() -> Balances.executeTransaction("autopay", "autopay", autopay.source,
+                        autopay.destination, autopay.amount, autopay.name), executorService));
+            }
+            return futures;
+        }
+        List<PendingTransaction> transactions = new ArrayList<>(due.size());
+        for (ScheduledAutopay autopay : due) {
+            transactions.add(new PendingTransaction(null, "autopay", "autopay", autopay.source, autopay.destination,
+                    null, null, autopay.amount, autopay.name, true));
+        }
+        return TransactionManagement.executeTransactions(transactions);
+    }
+
+    // Counts TimesLeft down for every passed payment in one statement per chunk, and deactivates the autopays that are done
+    private static CompletableFuture<Void> countDown(List<Long> autopayIDs) {
+        if (autopayIDs.isEmpty()) return CompletableFuture.completedFuture(null);
+        return Utility.executeUpdateAsync(conn -> {
+            for (int start = 0; start < autopayIDs.size(); start += UPDATE_CHUNK_SIZE) {
+                List<Long> chunk = autopayIDs.subList(start, Math.min(start + UPDATE_CHUNK_SIZE, autopayIDs.size()));
+                String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+                // Active is set first, so it still sees the old TimesLeft in both MySQL and SQLite
+                String sql = "UPDATE Autopays SET Active = CASE WHEN TimesLeft = 1 THEN 0 ELSE Active END, TimesLeft = TimesLeft - 1"
+                        + " WHERE TimesLeft > 0 AND AutopayID IN (" + placeholders + ")";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setLong(i + 1, chunk.get(i));
+                    }
+                    pstmt.executeUpdate();
+                }
+            }
+        }).exceptionally(ex -> {
+            plugin.getLogger().severe("Error counting down " + autopayIDs.size() + " autopays: " + ex.getMessage());
+            return null;
+        });
+    }
+
+    private static long currentTick() {
+        return java.lang.System.currentTimeMillis() / MILLIS_PER_TICK;
+    }
+}
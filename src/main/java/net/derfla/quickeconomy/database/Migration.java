@@ -2,13 +2,25 @@ package net.derfla.quickeconomy.database;
 
 import net.derfla.quickeconomy.Main;
 import net.derfla.quickeconomy.file.BalanceFile;
+import net.derfla.quickeconomy.file.BalanceJournal;
+import net.derfla.quickeconomy.util.Money;
 import net.derfla.quickeconomy.util.TypeChecker;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.Plugin;
 
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -16,76 +28,117 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
-import static net.derfla.quickeconomy.database.AccountManagement.addAccount;
-import static net.derfla.quickeconomy.database.AccountManagement.setPlayerBalance;
 import static net.derfla.quickeconomy.database.Utility.executorService;
 
 public class Migration {
 
     static Plugin plugin = Main.getInstance();
+    private static final String[] EXPORT_TABLES = {"PlayerAccounts", "Transactions", "Autopays", "EmptyShops"};
+    private static final int EXPORT_BUFFER_SIZE = 1 << 16;
+    // Accounts per transaction, rows per INSERT statement and transactions written at a time when importing balance.yml
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int IMPORT_ROWS_PER_STATEMENT = 100;
+    private static final int IMPORT_IN_FLIGHT = 2;
 
+    /**
+     * Copies every account in balance.yml to the database. Accounts are upserted with multi-row statements, a batch per transaction,
+     * and at most IMPORT_IN_FLIGHT batches are written at a time. Existing accounts get the balance from the file.
+     * @return Completes once every batch has been written.
+     */
     public static CompletableFuture<Void> migrateToDatabase() {
-        AtomicInteger failedCounter = new AtomicInteger(0);
         return CompletableFuture.runAsync(() -> {
-            try {
-                FileConfiguration balanceConfig = BalanceFile.get();
-                ConfigurationSection playersSection = balanceConfig.getConfigurationSection("players");
-                if (playersSection == null) {
-                    plugin.getLogger().info("No player balances found. Migration complete.");
-                    return;
-                }
-
-                int batchSize = 100; // Define a suitable batch size
-                List<String> keys = new ArrayList<>(playersSection.getKeys(false));
-                int totalKeys = keys.size();
-
-                List<CompletableFuture<Void>> futures = new ArrayList<>(); // Collect futures for batch processing
-
-                for (int i = 0; i < totalKeys; i++) {
-                    String key = keys.get(i);
-                    if (key.length() == 32) {
-                        double balance = playersSection.getDouble(key + ".balance");
-                        double change = playersSection.getDouble(key + ".change");
-                        String playerName = playersSection.getString(key + ".name");
-                        String trimmedUuid = TypeChecker.trimUUID(key);
+            FileConfiguration balanceConfig = BalanceFile.get();
+            ConfigurationSection playersSection = balanceConfig.getConfigurationSection("players");
+            if (playersSection == null) {
+                plugin.getLogger().info("No player balances found. Migration complete.");
+                return;
+            }
+            boolean sqlite = "sqlite".equalsIgnoreCase(plugin.getConfig().getString("database.type"));
+            String createdAt = TypeChecker.convertToUTC(Instant.now().atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            long start = java.lang.System.nanoTime();
 
-                        CompletableFuture<Void> future = AccountManagement.accountExists(trimmedUuid).thenCompose(exists -> {
-                            if (!exists) {
-                                return addAccount(trimmedUuid, playerName, balance, change, result -> {
-                                    // Handle the callback if needed
-                                });
-                            } else {
-                                return setPlayerBalance(trimmedUuid, balance, change);
-                            }
-                        });
+            // Backpressure: the file is only read as fast as the batches are written
+            Semaphore inFlight = new Semaphore(IMPORT_IN_FLIGHT);
+            List<CompletableFuture<Void>> batches = new ArrayList<>();
+            AtomicInteger imported = new AtomicInteger(0);
+            int failed = 0;
+            List<Object[]> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            for (String key : playersSection.getKeys(false)) {
+                String playerName = playersSection.getString(key + ".name");
+                if (!TypeChecker.isTrimmedUUID(key) || playerName == null) {
+                    plugin.getLogger().warning("Invalid UUID or missing name for: " + key);
+                    failed++;
+                    continue;
+                }
+                batch.add(new Object[] {key, playerName, playersSection.getDouble(key + ".balance"), playersSection.getDouble(key + ".change")});
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    batches.add(submitImportBatch(batch, sqlite, createdAt, inFlight, imported));
+                    batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) batches.add(submitImportBatch(batch, sqlite, createdAt, inFlight, imported));
 
-                        futures.add(future); // Add future to the list
+            // Completion barrier, the migration is only done once every batch is written
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).join();
+            plugin.getLogger().info("Migration to database completed: " + imported.get() + " accounts, "
+                    + rowsPerSecond(imported.get(), start) + " accounts/s.");
+            if (failed != 0) {
+                plugin.getLogger().warning("Skipped " + failed + " accounts! Due to incorrect UUID format or a missing name, check balance.yml");
+            }
+        }, executorService).exceptionally(ex -> {
+            plugin.getLogger().severe("Error during migration to database: " + ex.getMessage());
+            if (ex instanceof CompletionException) throw (CompletionException) ex;
+            throw new CompletionException(ex);
+        });
+    }
 
-                        // Commit in batches
-                        if ((i + 1) % batchSize == 0 || i == totalKeys - 1) {
-                            final int currentCount = i + 1;  // Create effectively final variable
-                            CompletableFuture<Void> batchFuture = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
-                            batchFuture.thenRun(() -> {
-                                plugin.getLogger().info("Processed " + currentCount + " player accounts.");
-                            });
-                            futures.clear(); // Clear the list for the next batch
-                        }
-                    } else {
-                        plugin.getLogger().warning("Invalid UUID for: " + key);
-                        failedCounter.incrementAndGet();
-                    }
+    // Waits for a free slot, then writes the batch in one transaction. The slot is freed when the write is done
+    private static CompletableFuture<Void> submitImportBatch(List<Object[]> batch, boolean sqlite, String createdAt, Semaphore inFlight, AtomicInteger imported) {
+        inFlight.acquireUninterruptibly();
+        return Utility.executeUpdateAsync(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                for (int start = 0; start < batch.size(); start += IMPORT_ROWS_PER_STATEMENT) {
+                    upsertAccounts(conn, batch.subList(start, Math.min(start + IMPORT_ROWS_PER_STATEMENT, batch.size())), sqlite, createdAt);
                 }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }).whenComplete((v, ex) -> {
+            inFlight.release();
+            if (ex == null) {
+                plugin.getLogger().info("Processed " + imported.addAndGet(batch.size()) + " player accounts.");
+            }
+        });
+    }
 
-                plugin.getLogger().info("Migration to database completed.");
-                if (failedCounter.get() != 0) {
-                    plugin.getLogger().warning("Skipped " + failedCounter.get() + " accounts! Due to incorrect UUID format, check balance.yml");
-                }
-            } catch (Exception e) {
-                plugin.getLogger().severe("Error during migration to database: " + e.getMessage());
+    private static void upsertAccounts(Connection conn, List<Object[]> accounts, boolean sqlite, String createdAt) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO PlayerAccounts (UUID, AccountDatetime, PlayerName, Balance, BalChange) VALUES ");
+        for (int i = 0; i < accounts.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+        }
+        sql.append(sqlite
+                ? " ON CONFLICT(UUID) DO UPDATE SET Balance = excluded.Balance, BalChange = excluded.BalChange"
+                : " ON DUPLICATE KEY UPDATE Balance = VALUES(Balance), BalChange = VALUES(BalChange)");
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Object[] account : accounts) {
+                pstmt.setString(index++, (String) account[0]);
+                pstmt.setString(index++, createdAt);
+                pstmt.setString(index++, (String) account[1]);
+                pstmt.setBigDecimal(index++, Money.toBigDecimal((double) account[2]));
+                pstmt.setBigDecimal(index++, Money.toBigDecimal((double) account[3]));
             }
-        }, executorService); // Use the executorService for async execution
+            pstmt.executeUpdate();
+        }
     }
 
     public static CompletableFuture<Void> migrateToBalanceFile() {
@@ -157,6 +210,7 @@ public class Migration {
             return CompletableFuture.allOf(allBatchFutures.toArray(new CompletableFuture[0]))
                     .thenRun(() -> {
                         BalanceFile.save(); // Save config after all batches are processed
+                        if (plugin.getConfig().getBoolean("journal.enabled", false)) BalanceJournal.importBalanceFile();
                         plugin.getLogger().info("Successfully migrated " + playerCount + " players to balance.yml");
                     });
         }).exceptionally(ex -> {
@@ -165,103 +219,169 @@ public class Migration {
         });
     }
 
-    public static CompletableFuture<Void> exportDatabase() {
-        String sqlAccounts = "SELECT * FROM PlayerAccounts";
-        String sqlTransactions = "SELECT * FROM Transactions";
-        String sqlAutopays = "SELECT * FROM Autopays";
-        String sqlEmptyShops = "SELECT * FROM EmptyShops";
-        String csvFilePath = "QE_DatabaseExport.csv";
-        int batchSize = 100;
-
-        return RetryUtility.withRetry(() -> Utility.getConnectionAsync().thenComposeAsync(conn -> {
-            if (conn == null) {
-                plugin.getLogger().severe("Database export failed: Could not obtain database connection.");
-                return CompletableFuture.failedFuture(new SQLException("Failed to obtain database connection for export."));
-            }
-
-            try (Connection autoCloseConn = conn;
-                 FileWriter csvWriter = new FileWriter(csvFilePath)) {
-
-                CompletableFuture<Void> exportFuture = CompletableFuture.runAsync(() -> {
-                    try {
-                        exportTableToCSV(autoCloseConn, sqlAccounts, "PlayerAccounts Table", csvWriter, batchSize).join();
-                        exportTableToCSV(autoCloseConn, sqlTransactions, "Transactions Table", csvWriter, batchSize).join();
-                        exportTableToCSV(autoCloseConn, sqlAutopays, "Autopays Table", csvWriter, batchSize).join();
-                        exportTableToCSV(autoCloseConn, sqlEmptyShops, "EmptyShops Table", csvWriter, batchSize).join();
+    /**
+     * Exports every table to its own file in the export folder of the plugin, as CSV without compression.
+     * @return The number of rows exported.
+     */
+    public static CompletableFuture<Long> exportDatabase() {
+        return exportDatabase(false, false);
+    }
 
-                        plugin.getLogger().info("Database exported to " + csvFilePath + " successfully.");
-                    } catch (Exception e) {
-                        plugin.getLogger().severe("Error during database export: " + e.getMessage());
-                        throw new CompletionException(e);
-                    }
-                }, executorService);
+    /**
+     * Exports every table to its own file in the export folder of the plugin. Each table is read with one forward-only cursor
+     * and written as it is read. Tables are exported in parallel on separate connections, using at most half of the pool.
+     * @param ndjson True to write one JSON object per line, false to write CSV with a header row.
+     * @param gzip True to compress the files.
+     * @return The number of rows exported.
+     */
+    public static CompletableFuture<Long> exportDatabase(boolean ndjson, boolean gzip) {
+        File directory = new File(plugin.getDataFolder(), "export");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return CompletableFuture.failedFuture(new IOException("Could not create " + directory.getPath()));
+        }
+        int fetchSize = Math.max(1, plugin.getConfig().getInt("database.fetchSize", 1000));
+        String extension = (ndjson ? ".ndjson" : ".csv") + (gzip ? ".gz" : "");
+        int lanes = Math.max(1, Math.min(EXPORT_TABLES.length, Utility.dataSource.getMaximumPoolSize() / 2));
+        long start = java.lang.System.nanoTime();
 
-                return exportFuture;
-            } catch (IOException e) {
-                plugin.getLogger().severe("Error creating CSV file: " + e.getMessage());
-                return CompletableFuture.failedFuture(e);
-            } catch (SQLException e) {
-                plugin.getLogger().severe("Error with database connection during export: " + e.getMessage());
-                return CompletableFuture.failedFuture(e);
+        // Every lane exports its tables one after another on its own connection
+        List<CompletableFuture<Long>> laneFutures = new ArrayList<>();
+        for (int lane = 0; lane < lanes; lane++) {
+            CompletableFuture<Long> laneFuture = CompletableFuture.completedFuture(0L);
+            for (int i = lane; i < EXPORT_TABLES.length; i += lanes) {
+                File file = new File(directory, EXPORT_TABLES[i] + extension);
+                String table = EXPORT_TABLES[i];
+                laneFuture = laneFuture.thenCompose(rows -> exportTable(table, file, ndjson, gzip, fetchSize).thenApply(tableRows -> rows + tableRows));
             }
-        }, executorService));
+            laneFutures.add(laneFuture);
+        }
+        return CompletableFuture.allOf(laneFutures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            long rows = 0;
+            for (CompletableFuture<Long> laneFuture : laneFutures) rows += laneFuture.join();
+            plugin.getLogger().info("Database exported to " + directory.getPath() + ": " + rows + " rows, " + rowsPerSecond(rows, start) + " rows/s.");
+            return rows;
+        }).exceptionally(ex -> {
+            plugin.getLogger().severe("Error during database export: " + ex.getMessage());
+            if (ex instanceof CompletionException) throw (CompletionException) ex;
+            throw new CompletionException(ex);
+        });
     }
 
-    public static CompletableFuture<Void> exportTableToCSV(Connection conn, String sql, String tableName, FileWriter csvWriter, int batchSize) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                int offset = 0;
-                boolean hasMoreRows = true;
-
-                while (hasMoreRows) {
-                    try (PreparedStatement pstmt = conn.prepareStatement(sql + " LIMIT ? OFFSET ?")) {
-                        pstmt.setInt(1, batchSize);
-                        pstmt.setInt(2, offset);
-                        ResultSet rs = pstmt.executeQuery();
+    private static CompletableFuture<Long> exportTable(String table, File file, boolean ndjson, boolean gzip, int fetchSize) {
+        return Utility.executeQueryAsync(conn -> {
+            long start = java.lang.System.nanoTime();
+            long rows = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM " + table, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pstmt.setFetchSize(fetchSize);
+                try (ResultSet rs = pstmt.executeQuery();
+                     Writer writer = openExportWriter(file, gzip)) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    int columnCount = metaData.getColumnCount();
+                    String[] columns = new String[columnCount];
+                    boolean[] numeric = new boolean[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        columns[i] = metaData.getColumnLabel(i + 1);
+                        numeric[i] = isNumeric(metaData.getColumnType(i + 1));
+                    }
+                    if (!ndjson) writeCsvRow(writer, columns);
 
-                        // Write the result set to CSV
-                        if (!rs.isBeforeFirst()) { // Check if the result set is empty
-                            hasMoreRows = false; // No more rows to process
+                    String[] values = new String[columnCount];
+                    while (rs.next()) {
+                        for (int i = 0; i < columnCount; i++) {
+                            values[i] = rs.getString(i + 1);
+                        }
+                        if (ndjson) {
+                            writeJsonRow(writer, columns, numeric, values);
                         } else {
-                            writeResultSetToCSV(rs, csvWriter); // This will write headers for each batch if not handled
-                            offset += batchSize; // Increment the offset for the next batch
+                            writeCsvRow(writer, values);
                         }
-                    } catch (SQLException e) {
-                        plugin.getLogger().severe("SQL error while exporting table '" + tableName + "' at offset " + offset + ": " + e.getMessage());
-                        throw new CompletionException(e);
-                    } catch (IOException e) {
-                        plugin.getLogger().severe("IO error while writing to CSV for table '" + tableName + "' at offset " + offset + ": " + e.getMessage());
-                        throw new CompletionException(e);
-                    }
-                    if (!hasMoreRows) {
-                        break;
+                        rows++;
                     }
                 }
-            } catch (Exception e) {
-                plugin.getLogger().severe("Unexpected error while exporting table '" + tableName + "': " + e.getMessage());
-                throw new CompletionException(e);
+            } catch (IOException e) {
+                throw new SQLException("Could not write " + file.getName() + ": " + e.getMessage(), e);
             }
-        }, executorService);
+            plugin.getLogger().info("Exported " + rows + " rows from " + table + " to " + file.getName() + ", " + rowsPerSecond(rows, start) + " rows/s.");
+            return rows;
+        });
     }
 
-    private static void writeResultSetToCSV(ResultSet rs, FileWriter csvWriter) throws SQLException, IOException {
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columnCount = metaData.getColumnCount();
+    private static Writer openExportWriter(File file, boolean gzip) throws IOException {
+        OutputStream out = Files.newOutputStream(file.toPath());
+        out = gzip ? new GZIPOutputStream(out, EXPORT_BUFFER_SIZE) : new BufferedOutputStream(out, EXPORT_BUFFER_SIZE);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE);
+    }
 
-        // Write the header row
-        for (int i = 1; i <= columnCount; i++) {
-            csvWriter.append(metaData.getColumnName(i));
-            if (i < columnCount) csvWriter.append(","); // Separate columns with a comma
+    // Null is written as an empty field. Fields with separators, quotes or line breaks are quoted, with quotes doubled
+    private static void writeCsvRow(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            String value = values[i];
+            if (value == null) continue;
+            boolean quote = false;
+            for (int c = 0; c < value.length() && !quote; c++) {
+                char character = value.charAt(c);
+                quote = character == ',' || character == '"' || character == '\n' || character == '\r';
+            }
+            if (!quote) {
+                writer.write(value);
+                continue;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
         }
-        csvWriter.append("\n");
+        writer.write('\n');
+    }
 
-        // Write the data rows
-        while (rs.next()) {
-            for (int i = 1; i <= columnCount; i++) {
-                csvWriter.append(rs.getString(i));
-                if (i < columnCount) csvWriter.append(","); // Separate columns with a comma
+    private static void writeJsonRow(Writer writer, String[] columns, boolean[] numeric, String[] values) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) writer.write(',');
+            writeJsonString(writer, columns[i]);
+            writer.write(':');
+            if (values[i] == null) {
+                writer.write("null");
+            } else if (numeric[i]) {
+                writer.write(values[i]);
+            } else {
+                writeJsonString(writer, values[i]);
             }
-            csvWriter.append("\n");
         }
+        writer.write("}\n");
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            switch (character) {
+                case '"' -> writer.write("\\\"");
+                case '\\' -> writer.write("\\\\");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                case '\t' -> writer.write("\\t");
+                default -> {
+                    if (character < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) character));
+                    } else {
+                        writer.write(character);
+                    }
+                }
+            }
+        }
+        writer.write('"');
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.DECIMAL, Types.NUMERIC, Types.REAL, Types.FLOAT, Types.DOUBLE -> true;
+            default -> false;
+        };
+    }
+
+    private static long rowsPerSecond(long rows, long startNanos) {
+        long nanos = Math.max(1, java.lang.System.nanoTime() - startNanos);
+        return rows * 1_000_000_000L / nanos;
     }
 }
@@ -0,0 +1,118 @@
+package net.derfla.quickeconomy.database;
+
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.util.EconomyStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Stores everything in the MySQL or SQLite database. Is used when database.enabled is true.
+ */
+public class SqlStore implements EconomyStore {
+
+    @Override
+    public String name() {
+        return "SQL Server";
+    }
+
+    @Override
+    public CompletableFuture<Map<String, PlayerAccount>> loadAccounts() {
+        return AccountManagement.listAllAccounts().thenApply(accounts -> accounts);
+    }
+
+    @Override
+    public CompletableFuture<Integer> streamAccounts(int fetchSize, BiConsumer<String, PlayerAccount> consumer) {
+        return AccountManagement.streamAccounts(fetchSize, consumer);
+    }
+
+    @Override
+    public CompletableFuture<PlayerAccount> getAccount(String uuid) {
+        return AccountManagement.getAccount(uuid);
+    }
+
+    @Override
+    public CompletableFuture<String> findUUID(String playerName) {
+        return AccountManagement.getUUID(playerName);
+    }
+
+    @Override
+    public CompletableFuture<Double> getBalance(String uuid) {
+        return AccountManagement.displayBalance(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Void> createAccount(String uuid, PlayerAccount account) {
+        return AccountManagement.addAccount(uuid, account.name(), account.balance(), account.change(), result -> {});
+    }
+
+    @Override
+    public CompletableFuture<Void> applyDelta(String uuid, double balanceDelta, double changeDelta) {
+        return AccountManagement.addPlayerBalance(uuid, balanceDelta, changeDelta);
+    }
+
+    @Override
+    public CompletableFuture<Void> setBalance(String uuid, double balance) {
+        return AccountManagement.setPlayerBalance(uuid, balance, 0);
+    }
+
+    @Override
+    public CompletableFuture<Void> setChange(String uuid, double change) {
+        return AccountManagement.setPlayerBalanceChange(uuid, change);
+    }
+
+    @Override
+    public CompletableFuture<Void> setName(String uuid, String name) {
+        return AccountManagement.updatePlayerName(uuid, name);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveBatch(Map<String, PlayerAccount> created, Map<String, PlayerAccount> changed, List<PendingTransaction> transactions) {
+        return AccountManagement.saveAccounts(created, changed, transactions);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> transfer(String transactType, String induce, String source, String destination, double amount, String transactionMessage) {
+        // The batch puts the committed balances in the cache
+        return TransactionManagement.executeTransaction(transactType, induce, source, destination, amount, transactionMessage);
+    }
+
+    @Override
+    public boolean hasHistory() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Integer> countHistory(String uuid, Boolean passed) {
+        return TransactionManagement.countTransactions(uuid, passed);
+    }
+
+    @Override
+    public CompletableFuture<String> historyPage(String uuid, Boolean passed, int page) {
+        return TransactionManagement.displayTransactions(uuid, passed, page);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addEmptyShop(String coordinates, String owner, String owner2) {
+        return Shop.insertEmptyShop(coordinates, owner, owner2);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeEmptyShop(String coordinates) {
+        return Shop.removeEmptyShop(coordinates);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listEmptyShops(String uuid) {
+        return Shop.displayEmptyShopsView(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Void> snapshot() {
+        // Every write is already committed
+        return CompletableFuture.completedFuture(null);
+    }
+}
@@ -1,227 +1,269 @@
 package net.derfla.quickeconomy.database;
 
 import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.RollbackPlan;
+import net.derfla.quickeconomy.util.AccountCache;
+import net.derfla.quickeconomy.util.Money;
 import net.derfla.quickeconomy.util.TypeChecker;
+import net.derfla.quickeconomy.util.WriteBehindQueue;
 import org.bukkit.plugin.Plugin;
-import org.jetbrains.annotations.NotNull;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
-import static net.derfla.quickeconomy.database.AccountManagement.displayBalanceSync;
 import static net.derfla.quickeconomy.database.Utility.executorService;
 
+/**
+ * Rolls the database back to a point in time. A rollback is planned first, by reading the transactions after that time once
+ * and netting them into one delta per account. The plan is applied in chunks of accounts, each in its own short database
+ * transaction, so live transfers are never kept waiting for long. Every chunk records its accounts in RollbackCheckpoints in
+ * the same transaction, so an interrupted rollback continues where it stopped the next time it is run for the same time.
+ */
 public class System {
 
     static Plugin plugin = Main.getInstance();
+    private static final int SELECT_CHUNK_SIZE = 100;
+    private static final int CHUNK_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
 
-    public static CompletableFuture<Void> rollback(String targetDateTime) {
-        // Validate input
-        return validateRollbackInput(targetDateTime).thenCompose(isValid -> {
-            if (!isValid) {
-                return CompletableFuture.failedFuture(new IllegalStateException("Rollback validation failed. Input: " + targetDateTime));
-            }
-
-            final String targetDateTimeUTC;
-            try {
-                targetDateTimeUTC = TypeChecker.convertToUTC(targetDateTime);
-            } catch (DateTimeParseException e) {
-                plugin.getLogger().severe("Invalid targetDateTime format for rollback: " + targetDateTime + " - " + e.getMessage());
-                return CompletableFuture.failedFuture(e);
-            }
-
-            return Utility.getConnectionAsync().thenComposeAsync(conn -> { // New: chain directly
-                        if (conn == null) {
-                            plugin.getLogger().severe("Rollback failed: Could not obtain database connection.");
-                            return CompletableFuture.failedFuture(new SQLException("Failed to obtain database connection for rollback."));
-                        }
-
-                        CompletableFuture<Void> transactionLogicFuture = CompletableFuture.runAsync(() -> {
-                            try {
-                                conn.setAutoCommit(false); // Start transaction
-
-                                // Inner try-catch for the actual transactional work and commit/rollback
-                                try {
-                                    // 1. Get all successful transactions after the target datetime (batched)
-                                    String getTransactionsSQL =
-                                            "SELECT * FROM Transactions " +
-                                                    "WHERE TransactionDatetime > ? AND Passed = 1 " +
-                                                    "ORDER BY TransactionDatetime DESC LIMIT ? OFFSET ?";
-                                    int batchSize = 100;
-                                    AtomicInteger offset = new AtomicInteger(0);
-                                    boolean hasMoreRows = true;
-
-                                    while (hasMoreRows) {
-                                        try (PreparedStatement pstmt = conn.prepareStatement(getTransactionsSQL)) {
-                                            pstmt.setString(1, targetDateTimeUTC);
-                                            pstmt.setInt(2, batchSize);
-                                            pstmt.setInt(3, offset.get());
-                                            ResultSet rs = pstmt.executeQuery();
-                                            int processedRows = 0;
-
-                                            while (rs.next() && processedRows < batchSize) {
-                                                String source = rs.getString("Source");
-                                                String destination = rs.getString("Destination");
-                                                double amount = rs.getDouble("Amount");
-
-                                                if (source != null) {
-                                                    double currentBalance = displayBalanceSync(conn, source);
-                                                    double currentChange = getPlayerBalanceChangeSync(conn, source);
-                                                    setPlayerBalanceSync(conn, source, currentBalance + amount, currentChange + amount);
-                                                }
-                                                if (destination != null) {
-                                                    double currentBalance = displayBalanceSync(conn, destination);
-                                                    double currentChange = getPlayerBalanceChangeSync(conn, destination);
-                                                    setPlayerBalanceSync(conn, destination, currentBalance - amount, currentChange - amount);
-                                                }
-                                                processedRows++;
-                                            }
-                                            if (processedRows < batchSize) hasMoreRows = false;
-                                        }
-                                        offset.addAndGet(batchSize);
-                                    }
-
-                                    // 3. Delete transactions after target datetime
-                                    String deleteTransactionsSQL = "DELETE FROM Transactions WHERE TransactionDatetime > ?";
-                                    try (PreparedStatement pstmt = conn.prepareStatement(deleteTransactionsSQL)) {
-                                        pstmt.setString(1, targetDateTimeUTC);
-                                        int rowsDeleted = pstmt.executeUpdate();
-                                        plugin.getLogger().info(rowsDeleted + " transactions deleted after " + targetDateTime);
-                                    }
-
-                                    // 4. Delete autopays created after target datetime
-                                    String deleteAutopaysSQL = "DELETE FROM Autopays WHERE AutopayDatetime > ?";
-                                    try (PreparedStatement pstmt = conn.prepareStatement(deleteAutopaysSQL)) {
-                                        pstmt.setString(1, targetDateTimeUTC);
-                                        pstmt.executeUpdate();
-                                    }
-
-                                    // 5. Reset account creation dates that are after target datetime
-                                    String resetAccountsSQL =
-                                            "UPDATE PlayerAccounts SET AccountDatetime = ? " +
-                                                    "WHERE AccountDatetime > ?";
-                                    try (PreparedStatement pstmt = conn.prepareStatement(resetAccountsSQL)) {
-                                        pstmt.setString(1, targetDateTimeUTC);
-                                        pstmt.setString(2, targetDateTimeUTC);
-                                        pstmt.executeUpdate();
-                                    }
-
-                                    conn.commit(); // Commit transaction
-                                    plugin.getLogger().info("Successfully rolled back database to " + targetDateTime);
-
-                                } catch (SQLException e) {
-                                    plugin.getLogger().warning("SQLException during rollback transaction, attempting to rollback...: " + e.getMessage());
-                                    try {
-                                        conn.rollback();
-                                        plugin.getLogger().info("Transaction rolled back successfully due to error.");
-                                    } catch (SQLException rbEx) {
-                                        plugin.getLogger().severe("Failed to rollback transaction: " + rbEx.getMessage());
-                                        e.addSuppressed(rbEx);
-                                    }
-                                    throw new CompletionException("Transactional logic failed during rollback", e);
-                                }
-                            } catch (SQLException e) { // Catches errors from conn.setAutoCommit(false) or other pre-transaction issues
-                                plugin.getLogger().severe("SQLException preparing for rollback transaction (e.g., setAutoCommit): " + e.getMessage());
-                                throw new CompletionException("Setup for rollback transaction failed", e);
-                            }
-                        }, executorService);
-
-                        // Ensure connection is closed after transactionLogicFuture completes (successfully or exceptionally)
-                        return transactionLogicFuture.whenCompleteAsync((result, ex) -> {
-                            try {
-                                if (conn != null && !conn.isClosed()) {
-                                    conn.close();
-                                }
-                            } catch (SQLException sqlEx) {
-                                plugin.getLogger().warning("Failed to close connection after rollback attempt: " + sqlEx.getMessage());
-                                if (ex == null) { // transactionLogicFuture succeeded, but closing conn failed.
-                                    throw new CompletionException("Failed to close connection after successful rollback logic execution", sqlEx);
-                                }
-                                // If transactionLogicFuture already failed (ex != null), its exception is primary.
-                                // The sqlEx for closing is logged, and the original 'ex' will propagate.
-                            }
-                        }, executorService);
-
-                    }, executorService) // For the thenComposeAsync stage after getConnectionAsync
-                    .exceptionally(ex -> {
-                        Throwable rootCause = ex;
-                        if (ex instanceof CompletionException && ex.getCause() != null) {
-                            rootCause = ex.getCause();
-                        }
-                        plugin.getLogger().severe("General error during rollback operation: " + rootCause.getMessage());
-                        if (rootCause != ex) {
-                            rootCause.printStackTrace();
-                        }
-                        // Ensure consistent exception type for the CompletableFuture<Void>
-                        if (ex instanceof CompletionException) throw (CompletionException)ex;
-                        throw new CompletionException("Rollback operation failed unexpectedly", ex);
-                    });
-        });
-    }
-
-    private static CompletableFuture<Boolean> validateRollbackInput(String targetDateTime) {
-        // Validate targetDateTime
+    /**
+     * Plans a rollback without changing anything.
+     * @param targetDateTime The local datetime to roll back to, in the format "yyyy-MM-dd HH:mm:ss".
+     * @return The plan. Continues an interrupted rollback to the same datetime, if there is one.
+     */
+    public static CompletableFuture<RollbackPlan> planRollback(String targetDateTime) {
         final String targetDateTimeUTC;
         try {
             targetDateTimeUTC = TypeChecker.convertToUTC(targetDateTime);
         } catch (DateTimeParseException e) {
-            plugin.getLogger().severe("Invalid targetDateTime format for validation: " + targetDateTime + " - " + e.getMessage());
-            return CompletableFuture.completedFuture(false); // Format is invalid, no need to query DB
+            plugin.getLogger().severe("Invalid targetDateTime format for rollback: " + targetDateTime + " - " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
         }
+        int fetchSize = Math.max(1, plugin.getConfig().getInt("database.fetchSize", 1000));
+
+        return Utility.executeQueryAsync(conn -> {
+            // An interrupted rollback keeps the end of its plan, so transactions made since are not undone halfway
+            String plannedUntil = null;
+            Set<String> done = new HashSet<>();
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT PlannedUntil, UUID FROM RollbackCheckpoints WHERE TargetDatetime = ?")) {
+                pstmt.setString(1, targetDateTimeUTC);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        plannedUntil = rs.getString("PlannedUntil");
+                        done.add(rs.getString("UUID"));
+                    }
+                }
+            }
+            if (plannedUntil == null) {
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT MAX(TransactionDatetime) FROM Transactions WHERE TransactionDatetime > ?")) {
+                    pstmt.setString(1, targetDateTimeUTC);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (rs.next()) plannedUntil = rs.getString(1);
+                    }
+                }
+                if (plannedUntil == null) return new RollbackPlan(targetDateTimeUTC, null, 0, Map.of(), 0);
+            }
 
-        String checkTransactionsSQL = "SELECT COUNT(*) FROM Transactions WHERE TransactionDatetime > ?";
-        return Utility.executeQueryAsync(conn -> { // Connection is managed by executeQueryAsync
-            try (PreparedStatement pstmt = conn.prepareStatement(checkTransactionsSQL)) {
+            // Sources get the amount back and destinations give it back
+            String sql = "SELECT Source, Destination, Amount FROM Transactions " +
+                    "WHERE TransactionDatetime > ? AND TransactionDatetime <= ? AND Passed = 1";
+            Map<String, long[]> sums = new HashMap<>();
+            int transactionCount = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pstmt.setFetchSize(fetchSize);
                 pstmt.setString(1, targetDateTimeUTC);
+                pstmt.setString(2, plannedUntil);
                 try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        boolean transactionsExist = rs.getInt(1) > 0;
-                        if (!transactionsExist) {
-                            plugin.getLogger().info("No transactions found to roll back after " + targetDateTime);
-                        }
-                        return transactionsExist;
+                    while (rs.next()) {
+                        long amount = Money.toCents(rs.getDouble("Amount"));
+                        String source = rs.getString("Source");
+                        String destination = rs.getString("Destination");
+                        if (source != null) sums.computeIfAbsent(source, uuid -> new long[1])[0] += amount;
+                        if (destination != null) sums.computeIfAbsent(destination, uuid -> new long[1])[0] -= amount;
+                        transactionCount++;
                     }
                 }
             }
-            // If we reach here, something went wrong with SQL execution or ResultSet processing
-            // executeQueryAsync should ideally handle logging the SQLException
-            return false; // Default to false if there was an issue or no rows found
-        }).exceptionally(ex -> {
-            plugin.getLogger().severe("Error during transaction check for rollback validation: " + ex.getMessage());
-            return false; // On exception, consider it not valid to proceed
+            Map<String, Long> deltas = new HashMap<>();
+            sums.forEach((uuid, sum) -> {
+                if (sum[0] != 0 && !done.contains(uuid)) deltas.put(uuid, sum[0]);
+            });
+            return new RollbackPlan(targetDateTimeUTC, plannedUntil, transactionCount, deltas, done.size());
+        });
+    }
+
+    /**
+     * Applies a rollback plan. The accounts are rolled back in chunks, and the transactions are deleted once every account is done.
+     * A chunk that fails is tried again a few times. If it still fails, planning and running the same rollback again continues from it.
+     * @param plan The plan from planRollback.
+     * @param progress Is told how many accounts of how many are done, after every chunk.
+     */
+    public static CompletableFuture<Void> rollback(RollbackPlan plan, BiConsumer<Integer, Integer> progress) {
+        if (plan.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No transactions to roll back after " + plan.targetDateTime()));
+        }
+        int chunkSize = plugin.getConfig().getInt("database.rollbackChunkSize", 500);
+        if (chunkSize < 1) {
+            chunkSize = 500;
+            plugin.getLogger().warning("database.rollbackChunkSize must be at least 1, using default (500).");
+        }
+        // Sorted, so chunks lock rows in the same order as transfer batches do
+        List<String> accounts = new ArrayList<>(plan.deltas().keySet());
+        Collections.sort(accounts);
+
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        int total = plan.accountsDone() + accounts.size();
+        for (int start = 0; start < accounts.size(); start += chunkSize) {
+            List<String> chunk = accounts.subList(start, Math.min(start + chunkSize, accounts.size()));
+            int done = plan.accountsDone() + start + chunk.size();
+            chain = chain.thenCompose(v -> applyChunk(plan, chunk, 1)).thenRun(() -> progress.accept(done, total));
+        }
+        return chain.thenCompose(v -> finish(plan)).exceptionally(ex -> {
+            Throwable rootCause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            plugin.getLogger().severe("Rollback to " + plan.targetDateTime() + " stopped, run it again to continue: " + rootCause.getMessage());
+            if (ex instanceof CompletionException) throw (CompletionException) ex;
+            throw new CompletionException(ex);
         });
     }
 
-    // Synchronous method for rollback purposes
-    private static double getPlayerBalanceChangeSync(Connection conn, String uuid) throws SQLException {
-        String trimmedUUID = TypeChecker.trimUUID(uuid);
-        String sql = "SELECT BalChange FROM PlayerAccounts WHERE UUID = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, trimmedUUID);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("BalChange");
+    // Rolls back the balances of one chunk of accounts and checkpoints them in the same transaction
+    private static CompletableFuture<Void> applyChunk(RollbackPlan plan, List<String> chunk, int attempt) {
+        return Utility.executeQueryAsync(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement pstmt = conn.prepareStatement("UPDATE PlayerAccounts SET Balance = Balance + ?, BalChange = BalChange + ? WHERE UUID = ?")) {
+                    for (String uuid : chunk) {
+                        BigDecimal amount = Money.toBigDecimal(plan.deltas().get(uuid));
+                        pstmt.setBigDecimal(1, amount);
+                        pstmt.setBigDecimal(2, amount);
+                        pstmt.setString(3, uuid);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO RollbackCheckpoints (TargetDatetime, PlannedUntil, UUID) VALUES (?, ?, ?)")) {
+                    for (String uuid : chunk) {
+                        pstmt.setString(1, plan.targetDateTime());
+                        pstmt.setString(2, plan.plannedUntil());
+                        pstmt.setString(3, uuid);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
                 }
+                Map<String, long[]> balances = readBalances(conn, chunk);
+                conn.commit();
+                return balances;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
-        }
-        return 0.0; // Return 0.0 if no change found
+        }).thenAccept(balances -> balances.forEach((uuid, balance) -> {
+                    if (WriteBehindQueue.isEnabled()) {
+                        // The cache has changes the database does not have yet, so the rollback is added to them instead of
+                        // replacing them. Marked dirty, as a flush that copied the account before this would write the old balance back
+                        long delta = plan.deltas().get(uuid);
+                        if (AccountCache.refreshDelta(uuid, delta, delta, balance[0])) WriteBehindQueue.markDirty(uuid);
+                    } else {
+                        AccountCache.refresh(uuid, balance[0], balance[1]);
+                    }
+                }))
+                .handle((v, ex) -> {
+                    if (ex == null) return CompletableFuture.<Void>completedFuture(null);
+                    if (attempt >= CHUNK_ATTEMPTS) return CompletableFuture.<Void>failedFuture(ex);
+                    plugin.getLogger().warning("Rolling back " + chunk.size() + " accounts failed, trying again: " + ex.getMessage());
+                    return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(RETRY_DELAY_MS * attempt, TimeUnit.MILLISECONDS, executorService))
+                            .thenCompose(ignored -> applyChunk(plan, chunk, attempt + 1));
+                }).thenCompose(f -> f);
     }
 
-    // Synchronous method for rollback purposes
-    private static void setPlayerBalanceSync(Connection conn, @NotNull String uuid, double balance, double change) throws SQLException {
-        String trimmedUuid = TypeChecker.trimUUID(uuid);
-        String sql = "UPDATE PlayerAccounts SET Balance = ?, BalChange = ? WHERE UUID = ?;";
+    // Deletes what was rolled back and the checkpoints, once every account is done
+    private static CompletableFuture<Void> finish(RollbackPlan plan) {
+        return Utility.executeQueryAsync(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM Transactions WHERE TransactionDatetime > ? AND TransactionDatetime <= ?")) {
+                    pstmt.setString(1, plan.targetDateTime());
+                    pstmt.setString(2, plan.plannedUntil());
+                    int rowsDeleted = pstmt.executeUpdate();
+                    plugin.getLogger().info(rowsDeleted + " transactions deleted after " + plan.targetDateTime());
+                }
+
+                // Autopays created after the target datetime, the scheduler stops paying them after the commit
+                List<Long> deletedAutopays = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT AutopayID FROM Autopays WHERE AutopayDatetime > ?")) {
+                    pstmt.setString(1, plan.targetDateTime());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) deletedAutopays.add(rs.getLong(1));
+                    }
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM Autopays WHERE AutopayDatetime > ?")) {
+                    pstmt.setString(1, plan.targetDateTime());
+                    pstmt.executeUpdate();
+                }
+
+                // Reset account creation dates that are after the target datetime
+                try (PreparedStatement pstmt = conn.prepareStatement("UPDATE PlayerAccounts SET AccountDatetime = ? WHERE AccountDatetime > ?")) {
+                    pstmt.setString(1, plan.targetDateTime());
+                    pstmt.setString(2, plan.targetDateTime());
+                    pstmt.executeUpdate();
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM RollbackCheckpoints WHERE TargetDatetime = ?")) {
+                    pstmt.setString(1, plan.targetDateTime());
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+                return deletedAutopays;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }).thenAccept(deletedAutopays -> {
+            TransactionManagement.clearHistoryCache();
+            deletedAutopays.forEach(AutopayScheduler::cancel);
+            plugin.getLogger().info("Successfully rolled back database to " + plan.targetDateTime() + " (UTC), "
+                    + (plan.accountsDone() + plan.deltas().size()) + " balances changed.");
+        });
+    }
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setDouble(1, balance);
-            pstmt.setDouble(2, change);
-            pstmt.setString(3, trimmedUuid);
+    // The balance and balance change in cents of each account, for refreshing the AccountCache after the commit
+    private static Map<String, long[]> readBalances(Connection conn, List<String> uuids) throws SQLException {
+        Map<String, long[]> balances = new HashMap<>();
+        for (int start = 0; start < uuids.size(); start += SELECT_CHUNK_SIZE) {
+            List<String> chunk = uuids.subList(start, Math.min(start + SELECT_CHUNK_SIZE, uuids.size()));
+            String sql = "SELECT UUID, Balance, BalChange FROM PlayerAccounts WHERE UUID IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(rs.getString("UUID"), new long[] {
+                                Money.toCents(rs.getDouble("Balance")), Money.toCents(rs.getDouble("BalChange"))});
+                    }
+                }
+            }
         }
+        return balances;
     }
 }
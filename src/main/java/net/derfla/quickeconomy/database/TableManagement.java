@@ -5,12 +5,17 @@ import net.derfla.quickeconomy.util.TypeChecker;
 import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 
@@ -19,6 +24,15 @@ import static net.derfla.quickeconomy.database.Utility.executorService;
 public class TableManagement {
 
     static Plugin plugin = Main.getInstance();
+    // Indexes for the columns that are filtered on. {index name, table, columns}
+    private static final String[][] INDEXES = {
+            {"idx_Transactions_Source", "Transactions", "Source, TransactionDatetime, TransactionID"},
+            {"idx_Transactions_Destination", "Transactions", "Destination, TransactionDatetime, TransactionID"},
+            {"idx_Transactions_Datetime", "Transactions", "TransactionDatetime"},
+            {"idx_PlayerAccounts_PlayerName", "PlayerAccounts", "PlayerName"},
+            {"idx_EmptyShops_Owner1", "EmptyShops", "Owner1"},
+            {"idx_EmptyShops_Owner2", "EmptyShops", "Owner2"}
+    };
 
     public static CompletableFuture<Void> createTables() {
         return Utility.getConnectionAsync().thenCompose(conn -> {
@@ -86,6 +100,15 @@ public class TableManagement {
                     + ");";
             tableCreationQueries.add(EmptyShops);
 
+            // Accounts already rolled back by a rollback that has not finished yet
+            String RollbackCheckpoints = "CREATE TABLE IF NOT EXISTS RollbackCheckpoints ("
+                    + "  TargetDatetime DATETIME NOT NULL,"
+                    + "  PlannedUntil DATETIME NOT NULL,"
+                    + "  UUID char(32) NOT NULL,"
+                    + "  PRIMARY KEY (TargetDatetime, UUID)"
+                    + ");";
+            tableCreationQueries.add(RollbackCheckpoints);
+
             CompletableFuture<Void> allTablesFuture = CompletableFuture.completedFuture(null);
 
             for (String query : tableCreationQueries) {
@@ -117,7 +140,7 @@ public class TableManagement {
                     plugin.getLogger().warning("Failed to close connection after createTables operations: " + e.getMessage());
                 }
             });
-        }).whenComplete((result, ex) -> {
+        }).thenCompose(v -> createIndexes().exceptionally(ex -> null)).whenComplete((result, ex) -> {
             if (ex != null) {
                 plugin.getLogger().severe("Error during createTables database operations: " + ex.getMessage());
             } else {
@@ -126,6 +149,85 @@ public class TableManagement {
         });
     }
 
+    /**
+     * Creates the indexes that don't exist yet. Existing indexes are looked up through the connection metadata, so it works on both MySQL and SQLite.
+     */
+    public static CompletableFuture<Void> createIndexes() {
+        return Utility.executeUpdateAsync(conn -> {
+            Set<String> existingIndexes = getIndexNames(conn);
+            try (Statement statement = conn.createStatement()) {
+                for (String[] index : INDEXES) {
+                    if (existingIndexes.contains(index[0].toLowerCase(Locale.ROOT))) continue;
+                    statement.executeUpdate("CREATE INDEX " + index[0] + " ON " + index[1] + " (" + index[2] + ")");
+                    plugin.getLogger().info("Index " + index[0] + " created on " + index[1] + ".");
+                }
+            }
+        }).exceptionally(ex -> {
+            plugin.getLogger().severe("Error creating indexes: " + ex.getMessage());
+            if (ex instanceof CompletionException) throw (CompletionException) ex;
+            throw new CompletionException(ex);
+        });
+    }
+
+    /**
+     * Checks that every index the plugin relies on exists, and logs a warning naming the missing ones.
+     * Is called in startup, after the tables are created and upgraded.
+     */
+    public static CompletableFuture<Void> checkIndexes() {
+        return Utility.executeQueryAsync(TableManagement::getIndexNames).thenAccept(existingIndexes -> {
+            List<String> missing = new ArrayList<>();
+            for (String[] index : INDEXES) {
+                if (!existingIndexes.contains(index[0].toLowerCase(Locale.ROOT))) missing.add(index[0] + " on " + index[1]);
+            }
+            if (!missing.isEmpty()) {
+                plugin.getLogger().warning("Missing database indexes, queries on these columns will be slow: " + String.join(", ", missing));
+            }
+        }).exceptionally(ex -> {
+            plugin.getLogger().warning("Could not check database indexes: " + ex.getMessage());
+            return null;
+        });
+    }
+
+    private static Set<String> getIndexNames(Connection conn) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        for (String[] index : INDEXES) {
+            tables.add(index[1]);
+        }
+        Set<String> indexNames = new HashSet<>();
+        DatabaseMetaData metaData = conn.getMetaData();
+        for (String table : tables) {
+            try (ResultSet rs = metaData.getIndexInfo(conn.getCatalog(), null, table, false, false)) {
+                while (rs.next()) {
+                    String indexName = rs.getString("INDEX_NAME");
+                    if (indexName != null) indexNames.add(indexName.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return indexNames;
+    }
+
+    /**
+     * Drops the vw_Transactions_<uuid> views older versions created for every player. Transaction history no longer uses them.
+     */
+    static CompletableFuture<Void> dropTransactionsViews() {
+        return Utility.executeUpdateAsync(conn -> {
+            List<String> views = new ArrayList<>();
+            try (ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, "vw_Transactions_%", new String[]{"VIEW"})) {
+                while (rs.next()) {
+                    String viewName = rs.getString("TABLE_NAME");
+                    // Underscore is a wildcard in the pattern, so check the name again
+                    if (viewName != null && viewName.startsWith("vw_Transactions_")) views.add(viewName);
+                }
+            }
+            try (Statement statement = conn.createStatement()) {
+                for (String view : views) {
+                    statement.executeUpdate("DROP VIEW IF EXISTS " + view);
+                }
+            }
+            plugin.getLogger().info(views.size() + " legacy transaction views dropped.");
+        });
+    }
+
     // Helper method for creating views
     private static CompletableFuture<Void> createViewInternal(String viewName, String databaseName, String createViewSql, String[] createViewParams, String logMsgContext) {
         String checkSQL = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.VIEWS WHERE TABLE_NAME = ? AND TABLE_SCHEMA = ?";
@@ -162,35 +264,6 @@ public class TableManagement {
         });
     }
 
-    public static CompletableFuture<Void> createTransactionsView(@NotNull String uuid) {
-        String trimmedUuid = TypeChecker.trimUUID(uuid);
-        String untrimmedUuid = TypeChecker.untrimUUID(uuid);
-        String viewName = "vw_Transactions_" + trimmedUuid;
-        String databaseName = plugin.getConfig().getString("database.database"); // Assumes this config is available and correct
-
-        String sql = "CREATE VIEW " + viewName + " AS "
-                + "SELECT "
-                + "    t.TransactionDatetime, "
-                + "    t.Amount, "
-                + "    t.Source AS SourceUUID, "
-                + "    t.Destination AS DestinationUUID, "
-                + "    pa.PlayerName AS SourcePlayerName, "
-                + "    pa2.PlayerName AS DestinationPlayerName, "
-                + "    t.TransactionMessage AS Message, "
-                + "    CASE "
-                + "        WHEN t.Passed = 1 THEN 'Passed' "
-                + "        ELSE 'Failed' "
-                + "    END AS Passed, "
-                + "    t.PassedReason "
-                + "FROM Transactions t "
-                + "LEFT JOIN PlayerAccounts pa ON t.Source = pa.UUID "
-                + "LEFT JOIN PlayerAccounts pa2 ON t.Destination = pa2.UUID "
-                + "WHERE t.Source = ? OR t.Destination = ? "
-                + "ORDER BY t.TransactionDatetime DESC;";
-        String[] params = {trimmedUuid, trimmedUuid};
-        return createViewInternal(viewName, databaseName, sql, params, "UUID: " + untrimmedUuid);
-    }
-
     static CompletableFuture<Void> createEmptyShopsView(@NotNull String uuid) {
         String trimmedUuid = TypeChecker.trimUUID(uuid);
         String untrimmedUuid = TypeChecker.untrimUUID(uuid);
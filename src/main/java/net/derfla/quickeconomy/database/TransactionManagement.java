@@ -1,11 +1,14 @@
 package net.derfla.quickeconomy.database;
 
 import net.derfla.quickeconomy.Main;
-import net.derfla.quickeconomy.util.Balances;
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.util.AccountCache;
+import net.derfla.quickeconomy.util.Money;
 import net.derfla.quickeconomy.util.TypeChecker;
 import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -13,149 +16,430 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.derfla.quickeconomy.database.Utility.executorService;
 
 public class TransactionManagement {
 
     static Plugin plugin = Main.getInstance();
+    private static final long batchWindow = plugin.getConfig().getLong("database.batchWindow", 5);
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final int SELECT_CHUNK_SIZE = 100;
+    private static final boolean sqlite = "sqlite".equalsIgnoreCase(plugin.getConfig().getString("database.type"));
+    private static final ConcurrentLinkedQueue<QueuedTransfer> transferQueue = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean batchScheduled = new AtomicBoolean(false);
+    // Batches sent to the database and not committed yet. The batch window is only waited while there are any
+    private static final AtomicInteger batchesInFlight = new AtomicInteger(0);
+
+    public static final int HISTORY_PAGE_SIZE = 10;
+    private static final ConcurrentHashMap<String, List<HistoryCursor>> pageCursors = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> historyCounts = new ConcurrentHashMap<>();
+
+    // Sort key of the last row on a history page
+    private record HistoryCursor(String dateTime, long transactionID) {
+    }
 
-    public static CompletableFuture<Void> executeTransaction(@NotNull String transactType, @NotNull String induce, String source,
-                                                             String destination, double amount, String transactionMessage) {
-        // Sort UUIDs to prevent deadlocks
+    private record QueuedTransfer(PendingTransaction transaction, CompletableFuture<Boolean> future) {
+    }
+
+    // Which transfers passed, and {balance, balance change} in cents of every changed account as committed
+    private record BatchResult(boolean[] passed, Map<String, long[]> accounts) {
+    }
+
+    /**
+     * Queues a transfer to be committed. It is committed right away when no batch is being committed, otherwise together with
+     * other transfers arriving within 'database.batchWindow' milliseconds. All transfers in a batch are applied in one database transaction. A transfer the source can't afford is stored as failed
+     * and leaves both balances untouched.
+     * @return A future with true if the transfer passed and false if the source did not have enough money.
+     * Completes exceptionally if the batch could not be committed.
+     */
+    public static CompletableFuture<Boolean> executeTransaction(@NotNull String transactType, @NotNull String induce, String source,
+                                                                String destination, double amount, String transactionMessage) {
         String trimmedSource = source != null ? TypeChecker.trimUUID(source) : null;
         String trimmedDestination = destination != null ? TypeChecker.trimUUID(destination) : null;
 
         Instant currentTime = Instant.now();
         String currentUTCTimeString = currentTime.atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS"));
 
-        return RetryUtility.withRetry(() -> Utility.executeUpdateAsync(conn -> {
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        transferQueue.add(new QueuedTransfer(new PendingTransaction(currentUTCTimeString, transactType, induce, trimmedSource, trimmedDestination,
+                null, null, amount, transactionMessage, true), future));
+        scheduleBatch();
+        return future;
+    }
 
-            try {
-                // SQL to handle the transaction
-                String sqlUpdateSource = "UPDATE PlayerAccounts SET Balance = Balance - ? WHERE UUID = ?";
-                String sqlUpdateDestination = "UPDATE PlayerAccounts SET Balance = Balance + ? WHERE UUID = ?";
-                String sqlInsertTransaction = "INSERT INTO Transactions (TransactionDatetime, TransactionType, Induce, Source, Destination, NewSourceBalance, NewDestinationBalance, Amount, Passed, TransactionMessage)"
-                        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-                // Update source account balance if applicable
-                Double newSourceBalance = null;
-                if (trimmedSource != null) {
-                    try (PreparedStatement pstmtUpdateSource = conn.prepareStatement(
-                            "SELECT Balance FROM PlayerAccounts WHERE UUID = ?")) {
-                        pstmtUpdateSource.setString(1, trimmedSource);
-                        ResultSet rs = pstmtUpdateSource.executeQuery();
-                        if (rs.next()) {
-                            newSourceBalance = rs.getDouble(1) - amount;  // Calculate new source balance
-                        }
-                    }
+    /**
+     * Queues several transfers at once, so they are committed together as far as the batch size allows. See executeTransaction().
+     * @param transactions The transfers. The balances and passed flag are ignored, they are set when the batch is applied.
+     * @return One future per transfer, in the same order.
+     */
+    public static List<CompletableFuture<Boolean>> executeTransactions(List<PendingTransaction> transactions) {
+        Instant currentTime = Instant.now();
+        String currentUTCTimeString = currentTime.atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS"));
 
-                    try (PreparedStatement pstmtUpdateSource = conn.prepareStatement(sqlUpdateSource)) {
-                        pstmtUpdateSource.setDouble(1, amount);
-                        pstmtUpdateSource.setString(2, trimmedSource);
-                        pstmtUpdateSource.executeUpdate();
-                    }
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(transactions.size());
+        for (PendingTransaction transaction : transactions) {
+            String trimmedSource = transaction.source() != null ? TypeChecker.trimUUID(transaction.source()) : null;
+            String trimmedDestination = transaction.destination() != null ? TypeChecker.trimUUID(transaction.destination()) : null;
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            transferQueue.add(new QueuedTransfer(new PendingTransaction(currentUTCTimeString, transaction.transactType(), transaction.induce(),
+                    trimmedSource, trimmedDestination, null, null, transaction.amount(), transaction.transactionMessage(), true), future));
+            futures.add(future);
+        }
+        scheduleBatch();
+        return futures;
+    }
+
+    private static void scheduleBatch() {
+        if (!batchScheduled.compareAndSet(false, true)) return;
+        // An idle database commits a lone transfer right away, so callers that wait on it are not held up by the window
+        Executor executor = batchWindow > 0 && batchesInFlight.get() > 0 ? CompletableFuture.delayedExecutor(batchWindow, TimeUnit.MILLISECONDS, executorService) : executorService;
+        executor.execute(TransactionManagement::commitBatch);
+    }
+
+    /**
+     * Commits the transfers that are still queued. Is called in onDisable, before the database connection pool is closed.
+     */
+    public static void shutdown() {
+        while (!transferQueue.isEmpty()) {
+            commitBatch().exceptionally(ex -> null).join();
+        }
+    }
+
+    private static CompletableFuture<Void> commitBatch() {
+        List<QueuedTransfer> batch = new ArrayList<>();
+        // Counted before the next batch can be scheduled, so transfers arriving now wait for the window
+        batchesInFlight.incrementAndGet();
+        QueuedTransfer queued;
+        while (batch.size() < MAX_BATCH_SIZE && (queued = transferQueue.poll()) != null) {
+            batch.add(queued);
+        }
+        batchScheduled.set(false);
+        // Transfers that did not fit, or arrived while draining, go in the next batch
+        if (!transferQueue.isEmpty()) scheduleBatch();
+        if (batch.isEmpty()) {
+            batchesInFlight.decrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return Utility.executeQueryAsync(conn -> applyBatch(conn, batch)).handle((result, ex) -> {
+            batchesInFlight.decrementAndGet();
+            if (ex == null) {
+                // The committed values, so an account read through since the commit is not changed twice
+                result.accounts().forEach((uuid, account) -> AccountCache.refresh(uuid, account[0], account[1]));
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                QueuedTransfer transfer = batch.get(i);
+                if (ex != null) {
+                    transfer.future().completeExceptionally(ex);
+                    continue;
                 }
+                transfer.future().complete(result.passed()[i]);
+            }
+            return null;
+        });
+    }
 
-                // Update destination account balance if applicable
-                Double newDestinationBalance = null;
-                if (trimmedDestination != null) {
-                    try (PreparedStatement pstmtUpdateDestination = conn.prepareStatement(
-                            "SELECT Balance FROM PlayerAccounts WHERE UUID = ?")) {
-                        pstmtUpdateDestination.setString(1, trimmedDestination);
-                        ResultSet rs = pstmtUpdateDestination.executeQuery();
-                        if (rs.next()) {
-                            newDestinationBalance = rs.getDouble(1) + amount;  // Calculate new destination balance
-                        }
-                    }
+    // Thrown when the guard in the batched UPDATE refuses to take the balance of an account below zero
+    private static class BalanceGuardException extends SQLException {
+        final String uuid;
 
-                    try (PreparedStatement pstmtUpdateDestination = conn.prepareStatement(sqlUpdateDestination)) {
-                        pstmtUpdateDestination.setDouble(1, amount);
-                        pstmtUpdateDestination.setString(2, trimmedDestination);
-                        pstmtUpdateDestination.executeUpdate();
-                    }
+        BalanceGuardException(String uuid) {
+            super("Balance of " + uuid + " changed during the transaction and would go below zero.");
+            this.uuid = uuid;
+        }
+    }
+
+    // A guard failure only rolls back the attempt. The batch is run again with the transfers out of that account rejected,
+    // so one account does not fail every transfer in the batch
+    private static BatchResult applyBatch(Connection conn, List<QueuedTransfer> batch) throws SQLException {
+        Set<String> refusedSources = new HashSet<>();
+        while (true) {
+            try {
+                return applyBatch(conn, batch, refusedSources);
+            } catch (BalanceGuardException e) {
+                if (!refusedSources.add(e.uuid)) throw e;
+                plugin.getLogger().warning(e.getMessage() + " Rejecting its transfers and committing the rest of the batch.");
+            }
+        }
+    }
+
+    // Applies the transfers in order, so every Transactions row gets the balances as they were right after that transfer
+    private static BatchResult applyBatch(Connection conn, List<QueuedTransfer> batch, Set<String> refusedSources) throws SQLException {
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+        try {
+            // Balances and deltas are in cents, see Money
+            Map<String, Long> changes = new HashMap<>();
+            Map<String, Long> balances = lockBalances(conn, batch, changes);
+            // Net change per account, {balance, balance change}. Sorted so concurrent batches lock rows in the same order
+            Map<String, long[]> deltas = new TreeMap<>();
+            List<PendingTransaction> transactions = new ArrayList<>(batch.size());
+            boolean[] passed = new boolean[batch.size()];
+
+            for (int i = 0; i < batch.size(); i++) {
+                PendingTransaction transaction = batch.get(i).transaction();
+                long amount = Money.toCents(transaction.amount());
+                Long newSourceBalance = null;
+                Long newDestinationBalance = null;
+                Long sourceBalance = transaction.source() != null ? balances.get(transaction.source()) : null;
+                boolean destinationMissing = transaction.destination() != null && !balances.containsKey(transaction.destination());
+                boolean sourceRefused = transaction.source() != null
+                        && (sourceBalance == null || sourceBalance < amount || refusedSources.contains(transaction.source()));
+                if (destinationMissing || sourceRefused) {
+                    // Rejected, only recorded as a failed transaction. Nothing is taken for a destination without an account
+                    transactions.add(new PendingTransaction(transaction.dateTime(), transaction.transactType(), transaction.induce(),
+                            transaction.source(), transaction.destination(), toAmount(sourceBalance), toAmount(balances.get(transaction.destination())),
+                            transaction.amount(), transaction.transactionMessage(), false));
+                    continue;
+                }
+                if (transaction.source() != null) {
+                    newSourceBalance = sourceBalance - amount;
+                    balances.put(transaction.source(), newSourceBalance);
+                    deltas.computeIfAbsent(transaction.source(), uuid -> new long[2])[0] -= amount;
+                }
+                if (transaction.destination() != null) {
+                    newDestinationBalance = balances.computeIfPresent(transaction.destination(), (uuid, balance) -> balance + amount);
+                    long[] delta = deltas.computeIfAbsent(transaction.destination(), uuid -> new long[2]);
+                    delta[0] += amount;
+                    delta[1] += amount;
                 }
+                passed[i] = true;
+                transactions.add(new PendingTransaction(transaction.dateTime(), transaction.transactType(), transaction.induce(),
+                        transaction.source(), transaction.destination(), toAmount(newSourceBalance), toAmount(newDestinationBalance),
+                        transaction.amount(), transaction.transactionMessage(), true));
+            }
 
-                // Insert into Transactions table
-                try (PreparedStatement pstmtInsertTransaction = conn.prepareStatement(sqlInsertTransaction)) {
-                    pstmtInsertTransaction.setString(1, currentUTCTimeString); // Use the formatted UTC SSS time
-                    pstmtInsertTransaction.setString(2, transactType);                   // TransactionType
-                    pstmtInsertTransaction.setString(3, induce);                         // Induce
-                    pstmtInsertTransaction.setString(4, trimmedSource);                  // Source
-                    pstmtInsertTransaction.setString(5, trimmedDestination);             // Destination
-                    pstmtInsertTransaction.setObject(6, newSourceBalance);               // NewSourceBalance (nullable)
-                    pstmtInsertTransaction.setObject(7, newDestinationBalance);          // NewDestinationBalance (nullable)
-                    pstmtInsertTransaction.setDouble(8, amount);                         // Amount
-                    pstmtInsertTransaction.setInt(9, 1);                               // Passed (always 1 if successful)
-                    pstmtInsertTransaction.setString(10, transactionMessage);            // TransactionMessage
-                    pstmtInsertTransaction.executeUpdate();
+            // The guard makes the database itself refuse to take a balance below zero
+            String sqlUpdateAccount = "UPDATE PlayerAccounts SET Balance = Balance + ?, BalChange = BalChange + ? WHERE UUID = ? AND (? >= 0 OR Balance + ? >= 0)";
+            try (PreparedStatement pstmt = conn.prepareStatement(sqlUpdateAccount)) {
+                for (Map.Entry<String, long[]> entry : deltas.entrySet()) {
+                    BigDecimal balanceDelta = Money.toBigDecimal(entry.getValue()[0]);
+                    pstmt.setBigDecimal(1, balanceDelta);
+                    pstmt.setBigDecimal(2, Money.toBigDecimal(entry.getValue()[1]));
+                    pstmt.setString(3, entry.getKey());
+                    pstmt.setBigDecimal(4, balanceDelta);
+                    pstmt.setBigDecimal(5, balanceDelta);
+                    pstmt.addBatch();
+                }
+                int[] updateCounts = pstmt.executeBatch();
+                int index = 0;
+                for (Map.Entry<String, long[]> entry : deltas.entrySet()) {
+                    if (updateCounts[index++] == 0 && entry.getValue()[0] < 0) {
+                        throw new BalanceGuardException(entry.getKey());
+                    }
                 }
+            }
+            insertTransactions(conn, transactions);
+
+            Map<String, long[]> accounts = new HashMap<>();
+            for (Map.Entry<String, long[]> entry : deltas.entrySet()) {
+                Long balance = balances.get(entry.getKey());
+                if (balance == null) continue;
+                accounts.put(entry.getKey(), new long[] {balance, changes.get(entry.getKey()) + entry.getValue()[1]});
+            }
+
+            conn.commit();
+            invalidateHistory(transactions);
+            return new BatchResult(passed, accounts);
+        } catch (SQLException e) {
+            conn.rollback();
+            if (!(e instanceof BalanceGuardException)) {
+                plugin.getLogger().severe("Error executing batch of " + batch.size() + " transactions: " + e.getMessage());
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
 
-                // Commit the transaction
-                conn.commit();
-                if (trimmedDestination != null) Balances.addPlayerBalanceChange(trimmedDestination, amount);
-            } catch (SQLException e) {
-                conn.rollback();
-                if(trimmedDestination != null && trimmedSource != null) {
-                    plugin.getLogger().severe("Error executing transaction from " + trimmedSource + " to " + trimmedDestination + ": " + e.getMessage());
-                } else if (trimmedSource != null) {
-                    plugin.getLogger().severe("Error executing transaction from " + trimmedSource + ": " + e.getMessage());
-                } else if (trimmedDestination != null) {
-                    plugin.getLogger().severe("Error executing transaction to " + trimmedDestination + ": " + e.getMessage());
-                } else {
-                    plugin.getLogger().severe("Error executing transaction: " + e.getMessage());
+    // Reads the balances of every account in the batch and locks them until the transaction ends. The balance changes are put in changes
+    private static Map<String, Long> lockBalances(Connection conn, List<QueuedTransfer> batch, Map<String, Long> changes) throws SQLException {
+        Set<String> uuids = new TreeSet<>();
+        for (QueuedTransfer transfer : batch) {
+            if (transfer.transaction().source() != null) uuids.add(transfer.transaction().source());
+            if (transfer.transaction().destination() != null) uuids.add(transfer.transaction().destination());
+        }
+        List<String> uuidList = new ArrayList<>(uuids);
+        Map<String, Long> balances = new HashMap<>();
+        for (int start = 0; start < uuidList.size(); start += SELECT_CHUNK_SIZE) {
+            List<String> chunk = uuidList.subList(start, Math.min(start + SELECT_CHUNK_SIZE, uuidList.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            String sql;
+            if (sqlite) {
+                // SQLite has no row locks. The no-op update takes the write lock and returns the balances in the same statement
+                sql = "UPDATE PlayerAccounts SET Balance = Balance WHERE UUID IN (" + placeholders + ") RETURNING UUID, Balance, BalChange";
+            } else {
+                sql = "SELECT UUID, Balance, BalChange FROM PlayerAccounts WHERE UUID IN (" + placeholders + ") FOR UPDATE";
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
                 }
-                throw e;
-            } finally {
-                try {
-                    if (!conn.getAutoCommit()) {
-                        conn.commit();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(rs.getString("UUID"), Money.toCents(rs.getDouble("Balance")));
+                        changes.put(rs.getString("UUID"), Money.toCents(rs.getDouble("BalChange")));
                     }
-                } catch (SQLException e) {
-                    plugin.getLogger().severe("Error committing transaction: " + e.getMessage());
-                    throw e;
                 }
             }
-        }));
+        }
+        return balances;
     }
 
-    public static CompletableFuture<String> displayTransactionsView(@NotNull String uuid, Boolean displayPassed, int page) {
-        String trimmedUuid = TypeChecker.trimUUID(uuid);
-        String viewName = "vw_Transactions_" + trimmedUuid;
-        int pageSize = 10;
-        // Calculate the offset for pagination
-        int offset = (page - 1) * pageSize;
-        String sql;
-
-        if (displayPassed == null) {
-            // Display all transactions
-            sql = "SELECT TransactionDatetime, Amount, SourceUUID, DestinationUUID, SourcePlayerName, DestinationPlayerName, Message FROM " + viewName + " ORDER BY TransactionDatetime DESC LIMIT ? OFFSET ?";
-        } else if (displayPassed) {
-            // Display only passed transactions
-            sql = "SELECT TransactionDatetime, Amount, SourceUUID, DestinationUUID, SourcePlayerName, DestinationPlayerName, Message FROM " + viewName + " WHERE Passed = 'Passed' ORDER BY TransactionDatetime DESC LIMIT ? OFFSET ?";
-        } else {
-            // Display only failed transactions
-            sql = "SELECT TransactionDatetime, Amount, SourceUUID, DestinationUUID, SourcePlayerName, DestinationPlayerName, Message FROM " + viewName + " WHERE Passed = 'Failed' ORDER BY TransactionDatetime DESC LIMIT ? OFFSET ?";
+    private static Double toAmount(Long cents) {
+        return cents == null ? null : Money.toDouble(cents);
+    }
+
+    // Synchronous method for write-behind flushes. The caller is responsible for commit and rollback
+    static void insertTransactions(Connection conn, List<PendingTransaction> transactions) throws SQLException {
+        if (transactions.isEmpty()) return;
+        String sqlInsertTransaction = "INSERT INTO Transactions (TransactionDatetime, TransactionType, Induce, Source, Destination, NewSourceBalance, NewDestinationBalance, Amount, Passed, TransactionMessage)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sqlInsertTransaction)) {
+            for (PendingTransaction transaction : transactions) {
+                pstmt.setString(1, transaction.dateTime());
+                pstmt.setString(2, transaction.transactType());
+                pstmt.setString(3, transaction.induce());
+                pstmt.setString(4, transaction.source());
+                pstmt.setString(5, transaction.destination());
+                pstmt.setBigDecimal(6, transaction.newSourceBalance() == null ? null : Money.toBigDecimal(transaction.newSourceBalance()));
+                pstmt.setBigDecimal(7, transaction.newDestinationBalance() == null ? null : Money.toBigDecimal(transaction.newDestinationBalance()));
+                pstmt.setBigDecimal(8, Money.toBigDecimal(transaction.amount()));
+                pstmt.setInt(9, transaction.passed() ? 1 : 0);
+                pstmt.setString(10, transaction.transactionMessage());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
         }
+    }
+
+    /**
+     * Counts the transactions a player has been part of. The count is cached until the player is part of a new transaction.
+     * @param uuid The UUID of the player.
+     * @param displayPassed True to only count passed transactions, false for only failed ones and null for all.
+     */
+    public static CompletableFuture<Integer> countTransactions(@NotNull String uuid, Boolean displayPassed) {
+        String trimmedUuid = TypeChecker.trimUUID(uuid);
+        String cacheKey = historyKey(trimmedUuid, displayPassed);
+        Integer cached = historyCounts.get(cacheKey);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
 
+        String passedFilter = passedFilter(displayPassed);
+        String sql = "SELECT (SELECT COUNT(*) FROM Transactions WHERE Source = ?" + passedFilter + ")"
+                + " + (SELECT COUNT(*) FROM Transactions WHERE Destination = ? AND (Source IS NULL OR Source <> ?)" + passedFilter + ")";
         return Utility.executeQueryAsync(conn -> {
-            StringBuilder transactions = new StringBuilder();
             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setInt(1, pageSize); // Set the page size
-                pstmt.setInt(2, offset); // Set the offset for pagination
-                ResultSet rs = pstmt.executeQuery();
+                pstmt.setString(1, trimmedUuid);
+                pstmt.setString(2, trimmedUuid);
+                pstmt.setString(3, trimmedUuid);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    int count = rs.next() ? rs.getInt(1) : 0;
+                    historyCounts.put(cacheKey, count);
+                    return count;
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets one page of a players transaction history, newest first.
+     * Pages are found with keyset pagination from the last row of the previous page, so deep pages cost the same as the first.
+     * The position where each visited page ends is cached until the player is part of a new transaction.
+     * @param uuid The UUID of the player.
+     * @param displayPassed True to only show passed transactions, false for only failed ones and null for all.
+     * @param page The page number, starting at 1.
+     * @return The transactions on the page, one per line. Empty if the page is past the end.
+     */
+    public static CompletableFuture<String> displayTransactions(@NotNull String uuid, Boolean displayPassed, int page) {
+        String trimmedUuid = TypeChecker.trimUUID(uuid);
+        String cacheKey = historyKey(trimmedUuid, displayPassed);
+        List<HistoryCursor> cursors = pageCursors.computeIfAbsent(cacheKey, key -> new ArrayList<>());
+
+        return Utility.executeQueryAsync(conn -> {
+            HistoryCursor after;
+            int knownPages;
+            synchronized (cursors) {
+                knownPages = Math.min(page - 1, cursors.size());
+                after = knownPages > 0 ? cursors.get(knownPages - 1) : null;
+            }
+            // Walk forward from the last page with a known end
+            for (int skipped = knownPages + 1; skipped < page; skipped++) {
+                after = readHistoryPage(conn, trimmedUuid, displayPassed, after, null);
+                if (after == null) return "";
+                rememberCursor(cursors, skipped, after);
+            }
+
+            StringBuilder transactions = new StringBuilder();
+            HistoryCursor end = readHistoryPage(conn, trimmedUuid, displayPassed, after, transactions);
+            if (end != null) rememberCursor(cursors, page, end);
+            return transactions.toString();
+        });
+    }
+
+    // Reads up to one page after the cursor. Appends the formatted rows if a builder is given, returns the key of the last row on a full page
+    private static HistoryCursor readHistoryPage(Connection conn, String trimmedUuid, Boolean displayPassed, HistoryCursor after,
+                                                 StringBuilder transactions) throws SQLException {
+        String passedFilter = passedFilter(displayPassed);
+        String cursorFilter = after == null ? "" : " AND (TransactionDatetime < ? OR (TransactionDatetime = ? AND TransactionID < ?))";
+        String order = " ORDER BY TransactionDatetime DESC, TransactionID DESC LIMIT ?";
+        String columns = "SELECT TransactionID, TransactionDatetime, Amount, Source, Destination, TransactionMessage FROM Transactions";
+        // One branch per indexed column instead of an OR, so both can use their index
+        String sql = "SELECT t.TransactionID, t.TransactionDatetime, t.Amount, t.Source, t.Destination, t.TransactionMessage, "
+                + "pa.PlayerName AS SourcePlayerName, pa2.PlayerName AS DestinationPlayerName FROM ("
+                + "SELECT * FROM (" + columns + " WHERE Source = ?" + passedFilter + cursorFilter + order + ") s"
+                + " UNION ALL "
+                + "SELECT * FROM (" + columns + " WHERE Destination = ? AND (Source IS NULL OR Source <> ?)" + passedFilter + cursorFilter + order + ") d"
+                + ") t "
+                + "LEFT JOIN PlayerAccounts pa ON t.Source = pa.UUID "
+                + "LEFT JOIN PlayerAccounts pa2 ON t.Destination = pa2.UUID"
+                + " ORDER BY t.TransactionDatetime DESC, t.TransactionID DESC LIMIT ?";
 
-                // Iterate over the result set
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            pstmt.setString(index++, trimmedUuid);
+            index = setCursor(pstmt, index, after);
+            pstmt.setInt(index++, HISTORY_PAGE_SIZE);
+            pstmt.setString(index++, trimmedUuid);
+            pstmt.setString(index++, trimmedUuid);
+            index = setCursor(pstmt, index, after);
+            pstmt.setInt(index++, HISTORY_PAGE_SIZE);
+            pstmt.setInt(index, HISTORY_PAGE_SIZE);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int rows = 0;
+                HistoryCursor last = null;
                 while (rs.next()) {
+                    rows++;
                     String dateTimeUTC = rs.getString("TransactionDatetime");
+                    last = new HistoryCursor(dateTimeUTC, rs.getLong("TransactionID"));
+                    if (transactions == null) continue;
+
                     String dateTimeLocal = TypeChecker.convertToLocalTime(dateTimeUTC); // Convert to local time
                     Double amount = rs.getDouble("Amount");
-                    String sourceUUID = rs.getString("SourceUUID");
-                    String destinationUUID = rs.getString("DestinationUUID");
+                    String sourceUUID = rs.getString("Source");
+                    String destinationUUID = rs.getString("Destination");
                     String sourcePlayerName = rs.getString("SourcePlayerName");
                     String destinationPlayerName = rs.getString("DestinationPlayerName");
-                    String message = rs.getString("Message");
+                    String message = rs.getString("TransactionMessage");
                     transactions.append(dateTimeLocal).append(" ").append(amount);
                     if (sourcePlayerName == null) {
                         // Deposit to bank
@@ -173,8 +457,58 @@ public class TransactionManagement {
                     }
                     transactions.append("\n");
                 }
+                return rows == HISTORY_PAGE_SIZE ? last : null;
             }
-            return transactions.toString();
-        });
+        }
+    }
+
+    private static int setCursor(PreparedStatement pstmt, int index, HistoryCursor after) throws SQLException {
+        if (after == null) return index;
+        pstmt.setString(index++, after.dateTime());
+        pstmt.setString(index++, after.dateTime());
+        pstmt.setLong(index++, after.transactionID());
+        return index;
+    }
+
+    private static void rememberCursor(List<HistoryCursor> cursors, int page, HistoryCursor cursor) {
+        synchronized (cursors) {
+            if (cursors.size() == page - 1) cursors.add(cursor);
+        }
+    }
+
+    private static String passedFilter(Boolean displayPassed) {
+        if (displayPassed == null) return "";
+        return displayPassed ? " AND Passed = 1" : " AND (Passed = 0 OR Passed IS NULL)";
+    }
+
+    private static String historyKey(String trimmedUuid, Boolean displayPassed) {
+        return trimmedUuid + ":" + displayPassed;
+    }
+
+    /**
+     * Drops the cached history pages and counts of everyone involved in the transactions. Is called after they are committed.
+     */
+    static void invalidateHistory(List<PendingTransaction> transactions) {
+        for (PendingTransaction transaction : transactions) {
+            invalidateHistory(transaction.source());
+            invalidateHistory(transaction.destination());
+        }
+    }
+
+    private static void invalidateHistory(String trimmedUuid) {
+        if (trimmedUuid == null) return;
+        for (Boolean displayPassed : new Boolean[]{null, true, false}) {
+            String key = historyKey(trimmedUuid, displayPassed);
+            pageCursors.remove(key);
+            historyCounts.remove(key);
+        }
+    }
+
+    /**
+     * Drops every cached history page and count. Used when transactions are removed, like on a rollback.
+     */
+    static void clearHistoryCache() {
+        pageCursors.clear();
+        historyCounts.clear();
     }
 }
@@ -37,21 +37,28 @@ public class UpgradeUtility {
      * @return Returns true if current database version is older than the latest introduced database version.
      */
     public static boolean requiresUpgrade() {
-        String latestDatabaseVersion = "1.2";
+        String latestDatabaseVersion = "1.3";
         return TypeChecker.isNewerVersion(latestDatabaseVersion, getDatabaseVersion());
     }
 
     /**
-     * Starts the upgrade process. Currently, it is only set up to upgrade to 1.2.
-     * However, plan is to add future upgrades here as well to make skipping versions possible.
-     * As this will upgrade to each new version sequentially.
+     * Starts the upgrade process. Upgrades to each new version sequentially, which makes skipping versions possible.
      */
     public static void startUpgrades() {
         while (requiresUpgrade()) {
             plugin.getLogger().info("Starting database upgrade.");
-            switch (getDatabaseVersion()) {
+            String versionBefore = getDatabaseVersion();
+            switch (versionBefore) {
                 case "1.1":
                     upgradeToV1o2().join();
+                    break;
+                case "1.2":
+                    upgradeToV1o3().join();
+                    break;
+            }
+            if (versionBefore.equals(getDatabaseVersion())) {
+                plugin.getLogger().severe("Database upgrade from version " + versionBefore + " did not complete. Stopping upgrades.");
+                return;
             }
         }
         plugin.getLogger().info("Database upgrade finished.");
@@ -116,4 +123,21 @@ public class UpgradeUtility {
             }
         });
     }
+
+    /**
+     * Upgrades the database to 1.3. Adds indexes on the columns that are filtered on and drops the per-player transaction views.
+     */
+    private static CompletableFuture<Void> upgradeToV1o3() {
+        return TableManagement.createIndexes()
+                .thenCompose(v -> TableManagement.dropTransactionsViews())
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        plugin.getLogger().severe("Error during upgradeToV1o3 database operations: " + ex.getMessage());
+                    } else {
+                        plugin.getConfig().set("database.version", "1.3");
+                        plugin.saveConfig();
+                        plugin.getLogger().info("Database upgrade process to 1.3 completed.");
+                    }
+                });
+    }
 }
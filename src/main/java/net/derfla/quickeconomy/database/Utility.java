@@ -106,6 +106,7 @@ public class Utility {
             config.setConnectionTimeout(30000); // 30 seconds timeout for getting a connection
             config.setIdleTimeout(600000); // 10 minutes before an idle connection is closed
             config.setMaxLifetime(1800000); // 30 minutes max lifetime for a connection
+            config.addDataSourceProperty("useCursorFetch", "true"); // Statements with a fetch size stream their rows instead of reading all at once
         } else if ("sqlite".equalsIgnoreCase(type)) {
             String filePath = plugin.getConfig().getString("database.file");
             String url = "jdbc:sqlite:" + filePath;
@@ -1,6 +1,7 @@
 package net.derfla.quickeconomy.file;
 
 import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.PlayerAccount;
 import net.derfla.quickeconomy.util.MojangAPI;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -9,7 +10,9 @@ import org.bukkit.plugin.Plugin;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BalanceFile {
 
@@ -82,6 +85,37 @@ public class BalanceFile {
         }
     }
 
+    /**
+     * Reads every account in balance.yml.
+     * @return The accounts, keyed by trimmed UUID.
+     */
+    public static Map<String, PlayerAccount> readAccounts() {
+        Map<String, PlayerAccount> accounts = new HashMap<>();
+        ConfigurationSection players = get().getConfigurationSection("players");
+        if (players == null) return accounts;
+        for (String uuid : players.getKeys(false)) {
+            accounts.put(uuid, new PlayerAccount(players.getString(uuid + ".name"), players.getDouble(uuid + ".balance"),
+                    players.getDouble(uuid + ".change"), players.getString(uuid + ".created")));
+        }
+        return accounts;
+    }
+
+    /**
+     * Writes the accounts to balance.yml and saves it. Accounts already in the file but not in the map are left as they are.
+     * @param accounts The accounts, keyed by trimmed UUID.
+     */
+    public static void writeAccounts(Map<String, PlayerAccount> accounts) {
+        for (Map.Entry<String, PlayerAccount> entry : accounts.entrySet()) {
+            PlayerAccount account = entry.getValue();
+            get().set("players." + entry.getKey() + ".name", account.name());
+            get().set("players." + entry.getKey() + ".balance", account.balance());
+            get().set("players." + entry.getKey() + ".change", account.change());
+            get().set("players." + entry.getKey() + ".created", account.createdTime());
+        }
+        get().set("format", "uuid");
+        save();
+    }
+
     public static String checkFormat() {
         if(!get().contains("format")) return "playerName";
         return get().getString("format");
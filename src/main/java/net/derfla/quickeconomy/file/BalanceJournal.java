@@ -0,0 +1,476 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.util.AccountCache;
+import org.bukkit.plugin.Plugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * File mode storage that appends every account change to a memory-mapped journal instead of rewriting balance.yml.
+ * A change costs one fixed-size record, so writes stay constant time no matter how many accounts there are.
+ * <p>
+ * Every record holds the complete state it changes, not a delta, so replaying the journal is idempotent and the last record
+ * of an account always wins. Once the journal grows past journal.compactAfter records the state of the AccountCache is written
+ * to balance.snapshot and a new journal is started. Journals are numbered, and the snapshot stores the number of the last
+ * journal it covers, so a crash in the middle of a compaction never applies a record twice or loses one.
+ * <p>
+ * Record layout, 64 bytes: type (1), trimmed UUID in ASCII padded with zeros (32), epoch millis (8), payload (23).
+ * The type byte is written last, so a record cut short by a crash reads as the end of the journal.
+ */
+public class BalanceJournal {
+
+    static Plugin plugin = Main.getInstance();
+
+    private static final int MAGIC = 0x51454A31; // "QEJ1"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int RECORD_SIZE = 64;
+    private static final int KEY_SIZE = 32;
+    private static final int TIME_OFFSET = 1 + KEY_SIZE;
+    private static final int PAYLOAD_OFFSET = TIME_OFFSET + 8;
+    private static final int MAX_NAME_BYTES = RECORD_SIZE - PAYLOAD_OFFSET - 1;
+    private static final int GROWTH_RECORDS = 16384; // The journal grows 1 MiB at a time
+    private static final long NO_CREATED_TIME = Long.MIN_VALUE;
+    private static final DateTimeFormatter CREATED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final byte STATE = 1; // payload: balance (8), change (8)
+    private static final byte CREATE = 2; // epoch millis is the creation time, payload: name length (1), name
+    private static final byte RENAME = 3; // payload: name length (1), name
+
+    private static final Object lock = new Object();
+    private static final AtomicBoolean compacting = new AtomicBoolean(false);
+    private static File directory;
+    private static FileChannel channel;
+    private static MappedByteBuffer buffer;
+    private static long generation;
+    private static volatile int records;
+    private static int compactAfter;
+
+    /**
+     * @return If the journal is used instead of balance.yml. Is always false in SQL mode.
+     */
+    public static boolean isEnabled() {
+        return !Main.SQLMode && plugin.getConfig().getBoolean("journal.enabled", false);
+    }
+
+    /**
+     * Loads every account from the snapshot and the journals written after it, compacts them into a new snapshot and opens a new journal.
+     * The first time the journal is used, the accounts are imported from balance.yml instead.
+     * Is called by AccountCache.init().
+     * @return The accounts, keyed by trimmed UUID.
+     */
+    public static Map<String, PlayerAccount> load() {
+        compactAfter = plugin.getConfig().getInt("journal.compactAfter", 100000);
+        if (compactAfter < 1) {
+            compactAfter = 100000;
+            plugin.getLogger().warning("journal.compactAfter must be at least 1, using default (100000).");
+        }
+        directory = plugin.getDataFolder();
+
+        synchronized (lock) {
+            close();
+            Map<String, PlayerAccount> accounts = new HashMap<>();
+            TreeMap<Long, File> journals = listJournals();
+            long snapshotGeneration;
+            try {
+                snapshotGeneration = readSnapshot(accounts);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read balance.snapshot: " + e.getMessage(), e);
+            }
+
+            if (snapshotGeneration < 0 && journals.isEmpty()) {
+                plugin.getLogger().info("Importing balance.yml into the balance journal.");
+                accounts.putAll(BalanceFile.readAccounts());
+                snapshotGeneration = 0;
+            }
+
+            long lastGeneration = Math.max(snapshotGeneration, 0);
+            int replayed = 0;
+            for (Map.Entry<Long, File> journal : journals.entrySet()) {
+                lastGeneration = Math.max(lastGeneration, journal.getKey());
+                if (journal.getKey() <= snapshotGeneration) continue;
+                try {
+                    replayed += replay(journal.getValue(), accounts);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not replay " + journal.getValue().getName() + ": " + e.getMessage(), e);
+                }
+            }
+
+            // Start from a fresh snapshot, so the next startup only has to replay what is written from now on
+            try {
+                writeSnapshot(accounts, lastGeneration);
+                deleteJournals(lastGeneration);
+                openJournal(lastGeneration + 1);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open the balance journal: " + e.getMessage(), e);
+            }
+            plugin.getLogger().info("Loaded " + accounts.size() + " accounts from the balance journal (" + replayed + " records replayed).");
+            return accounts;
+        }
+    }
+
+    /**
+     * Appends a new account.
+     * @param uuid The trimmed UUID of the account.
+     * @param account The account.
+     */
+    public static void writeAccount(String uuid, PlayerAccount account) {
+        synchronized (lock) {
+            ByteBuffer record = record(CREATE, uuid, toEpochMillis(account.createdTime()));
+            if (record == null) return;
+            putName(record, account.name());
+            append(record);
+            record = record(STATE, uuid, System.currentTimeMillis());
+            record.putDouble(PAYLOAD_OFFSET, account.balance());
+            record.putDouble(PAYLOAD_OFFSET + 8, account.change());
+            append(record);
+        }
+        compactIfFull();
+    }
+
+    /**
+     * Appends the balance and change of an account.
+     * Callers that read the values from the AccountCache must do so while holding their own lock, so the last record always holds the latest state.
+     * @param uuid The trimmed UUID of the account.
+     * @param balance The balance of the account.
+     * @param change The change of the account.
+     */
+    public static void writeState(String uuid, double balance, double change) {
+        synchronized (lock) {
+            ByteBuffer record = record(STATE, uuid, System.currentTimeMillis());
+            if (record == null) return;
+            record.putDouble(PAYLOAD_OFFSET, balance);
+            record.putDouble(PAYLOAD_OFFSET + 8, change);
+            append(record);
+        }
+        compactIfFull();
+    }
+
+    /**
+     * Appends the name of an account.
+     * @param uuid The trimmed UUID of the account.
+     * @param name The new name of the account.
+     */
+    public static void writeName(String uuid, String name) {
+        synchronized (lock) {
+            ByteBuffer record = record(RENAME, uuid, System.currentTimeMillis());
+            if (record == null) return;
+            putName(record, name);
+            append(record);
+        }
+        compactIfFull();
+    }
+
+    /**
+     * Writes the AccountCache to a new snapshot and starts a new journal.
+     */
+    public static void compact() {
+        Map<String, PlayerAccount> accounts;
+        long coveredGeneration;
+        synchronized (lock) {
+            if (channel == null) return;
+            // Records appended after the switch hold complete states, so replaying them over this copy is always safe
+            accounts = AccountCache.snapshot();
+            coveredGeneration = generation;
+            try {
+                openJournal(generation + 1);
+            } catch (IOException e) {
+                plugin.getLogger().severe("Could not start a new balance journal: " + e.getMessage());
+                return;
+            }
+        }
+        try {
+            writeSnapshot(accounts, coveredGeneration);
+            deleteJournals(coveredGeneration);
+        } catch (IOException e) {
+            // The old journals are kept, so nothing is lost. The next compaction covers them
+            plugin.getLogger().severe("Could not write balance.snapshot: " + e.getMessage());
+        }
+    }
+
+    // Deletes the snapshot and every journal, so the accounts are imported from balance.yml by the next load
+    private static void reset() {
+        synchronized (lock) {
+            close();
+            if (directory == null) directory = plugin.getDataFolder();
+            deleteJournals(Long.MAX_VALUE);
+            File snapshot = new File(directory, "balance.snapshot");
+            if (snapshot.exists() && !snapshot.delete()) {
+                plugin.getLogger().warning("Couldn't delete file: " + snapshot.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the AccountCache to balance.yml, so it can be read by /quickeconomy migrate, and closes the journal.
+     */
+    public static void exportToBalanceFile() {
+        synchronized (lock) {
+            BalanceFile.writeAccounts(AccountCache.snapshot());
+            close();
+        }
+        plugin.getLogger().info("Exported the balance journal to balance.yml.");
+    }
+
+    /**
+     * Replaces the snapshot and every journal with the accounts in balance.yml and opens a new journal.
+     * Is used after balance.yml has been written by a migration.
+     */
+    public static void importBalanceFile() {
+        synchronized (lock) {
+            reset();
+            load();
+        }
+    }
+
+    /**
+     * Forces the journal to disk and closes it. Is called in onDisable.
+     */
+    public static void shutdown() {
+        synchronized (lock) {
+            close();
+        }
+    }
+
+    private static void compactIfFull() {
+        if (records < compactAfter || !compacting.compareAndSet(false, true)) return;
+        Main.getExecutorService().execute(() -> {
+            try {
+                compact();
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    private static ByteBuffer record(byte type, String uuid, long time) {
+        byte[] key = uuid.getBytes(StandardCharsets.US_ASCII);
+        if (key.length > KEY_SIZE) {
+            plugin.getLogger().warning("Account " + uuid + " has a key longer than " + KEY_SIZE + " characters and can't be stored in the balance journal.");
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(0, type);
+        record.put(1, key);
+        record.putLong(TIME_OFFSET, time);
+        return record;
+    }
+
+    private static void putName(ByteBuffer record, String name) {
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_NAME_BYTES);
+        record.put(PAYLOAD_OFFSET, (byte) length);
+        record.put(PAYLOAD_OFFSET + 1, bytes, 0, length);
+    }
+
+    private static String getName(ByteBuffer journal, int position) {
+        int length = journal.get(position + PAYLOAD_OFFSET) & 0xFF;
+        if (length == 0) return null;
+        byte[] bytes = new byte[Math.min(length, MAX_NAME_BYTES)];
+        journal.get(position + PAYLOAD_OFFSET + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Must hold the lock
+    private static void append(ByteBuffer record) {
+        if (channel == null) {
+            plugin.getLogger().severe("The balance journal is not open. A change was not saved.");
+            return;
+        }
+        int position = (records + 1) * RECORD_SIZE; // The first slot holds the header
+        try {
+            if (position + RECORD_SIZE > buffer.capacity()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, buffer.capacity() + (long) GROWTH_RECORDS * RECORD_SIZE);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not grow the balance journal: " + e.getMessage());
+            return;
+        }
+        buffer.put(position + 1, record, 1, RECORD_SIZE - 1);
+        buffer.put(position, record.get(0));
+        records++;
+    }
+
+    // Must hold the lock
+    private static void openJournal(long newGeneration) throws IOException {
+        close();
+        File file = journalFile(newGeneration);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) GROWTH_RECORDS * RECORD_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, newGeneration);
+        buffer.force();
+        generation = newGeneration;
+        records = 0;
+    }
+
+    // Must hold the lock
+    private static void close() {
+        if (channel == null) return;
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not close the balance journal: " + e.getMessage());
+        }
+        channel = null;
+        buffer = null;
+    }
+
+    private static int replay(File file, Map<String, PlayerAccount> accounts) throws IOException {
+        try (FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = readChannel.size();
+            if (size < RECORD_SIZE) return 0;
+            MappedByteBuffer journal = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (journal.getInt(0) != MAGIC) {
+                plugin.getLogger().warning(file.getName() + " is not a balance journal, skipping it.");
+                return 0;
+            }
+            int replayed = 0;
+            byte[] key = new byte[KEY_SIZE];
+            for (int position = RECORD_SIZE; position + RECORD_SIZE <= size; position += RECORD_SIZE) {
+                byte type = journal.get(position);
+                if (type == 0) break;
+                journal.get(position + 1, key);
+                String uuid = readKey(key);
+                PlayerAccount account = accounts.get(uuid);
+                switch (type) {
+                    case CREATE -> {
+                        if (account == null) {
+                            accounts.put(uuid, new PlayerAccount(getName(journal, position), 0.0, 0.0,
+                                    fromEpochMillis(journal.getLong(position + TIME_OFFSET))));
+                        } else {
+                            account.name(getName(journal, position));
+                        }
+                    }
+                    case STATE -> {
+                        if (account == null) {
+                            plugin.getLogger().warning("The balance journal changes account " + uuid + " before creating it, skipping the record.");
+                            continue;
+                        }
+                        account.balance(journal.getDouble(position + PAYLOAD_OFFSET));
+                        account.change(journal.getDouble(position + PAYLOAD_OFFSET + 8));
+                    }
+                    case RENAME -> {
+                        if (account != null) account.name(getName(journal, position));
+                    }
+                    default -> {
+                        plugin.getLogger().warning("Unknown record type " + type + " in " + file.getName() + ", stopping the replay of it.");
+                        return replayed;
+                    }
+                }
+                replayed++;
+            }
+            return replayed;
+        }
+    }
+
+    private static String readKey(byte[] key) {
+        int length = 0;
+        while (length < KEY_SIZE && key[length] != 0) length++;
+        return new String(key, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    // Returns the generation of the last journal in the snapshot, or -1 if there is no snapshot
+    private static long readSnapshot(Map<String, PlayerAccount> accounts) throws IOException {
+        File file = new File(directory, "balance.snapshot");
+        if (!file.exists()) return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            long snapshotGeneration = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String uuid = in.readUTF();
+                String name = in.readBoolean() ? in.readUTF() : null;
+                double balance = in.readDouble();
+                double change = in.readDouble();
+                String created = in.readBoolean() ? in.readUTF() : null;
+                accounts.put(uuid, new PlayerAccount(name, balance, change, created));
+            }
+            return snapshotGeneration;
+        }
+    }
+
+    // Written next to the old snapshot and moved over it, so there is always one complete snapshot on disk
+    private static void writeSnapshot(Map<String, PlayerAccount> accounts, long coveredGeneration) throws IOException {
+        File temporary = new File(directory, "balance.snapshot.tmp");
+        FileOutputStream file = new FileOutputStream(temporary);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(coveredGeneration);
+            out.writeInt(accounts.size());
+            for (Map.Entry<String, PlayerAccount> entry : accounts.entrySet()) {
+                PlayerAccount account = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(account.name() != null);
+                if (account.name() != null) out.writeUTF(account.name());
+                out.writeDouble(account.balance());
+                out.writeDouble(account.change());
+                out.writeBoolean(account.createdTime() != null);
+                if (account.createdTime() != null) out.writeUTF(account.createdTime());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Path target = new File(directory, "balance.snapshot").toPath();
+        Files.move(temporary.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static TreeMap<Long, File> listJournals() {
+        TreeMap<Long, File> journals = new TreeMap<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("balance-") && name.endsWith(".journal"));
+        if (files == null) return journals;
+        for (File file : files) {
+            String number = file.getName().substring("balance-".length(), file.getName().length() - ".journal".length());
+            try {
+                journals.put(Long.parseLong(number), file);
+            } catch (NumberFormatException ignored) {
+                // Not one of ours
+            }
+        }
+        return journals;
+    }
+
+    private static void deleteJournals(long upToGeneration) {
+        for (File file : listJournals().headMap(upToGeneration, true).values()) {
+            if (!file.delete()) plugin.getLogger().warning("Couldn't delete file: " + file.getName());
+        }
+    }
+
+    private static File journalFile(long journalGeneration) {
+        return new File(directory, "balance-" + journalGeneration + ".journal");
+    }
+
+    private static long toEpochMillis(String createdTime) {
+        if (createdTime == null) return NO_CREATED_TIME;
+        try {
+            return LocalDateTime.parse(createdTime, CREATED_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (Exception e) {
+            return NO_CREATED_TIME;
+        }
+    }
+
+    private static String fromEpochMillis(long epochMillis) {
+        if (epochMillis == NO_CREATED_TIME) return null;
+        return LocalDateTime.ofEpochSecond(epochMillis / 1000, 0, ZoneOffset.UTC).format(CREATED_FORMAT);
+    }
+}
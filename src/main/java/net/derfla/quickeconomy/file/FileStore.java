@@ -0,0 +1,166 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.util.AccountCache;
+import net.derfla.quickeconomy.util.EconomyStore;
+import net.derfla.quickeconomy.util.TypeChecker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Base for the stores used in file mode. The AccountCache is the only copy that is read at runtime, so every write stores
+ * the current cached state of the account. The state is read inside the lock, so whichever write comes last always holds the latest state.
+ * There is no transaction history or empty shop tracking in file mode.
+ */
+public abstract class FileStore implements EconomyStore {
+
+    /**
+     * Stores a new account. Is only made durable by the next commit().
+     */
+    protected abstract void putAccount(String uuid, PlayerAccount account);
+
+    /**
+     * Stores the balance and change of an account. Is only made durable by the next commit().
+     */
+    protected abstract void putState(String uuid, double balance, double change);
+
+    /**
+     * Stores the name of an account. Is only made durable by the next commit().
+     */
+    protected abstract void putName(String uuid, String name);
+
+    /**
+     * Makes everything put since the last commit durable.
+     */
+    protected abstract void commit();
+
+    // Files are read whole, so streaming only saves the copy into a map
+    @Override
+    public CompletableFuture<Integer> streamAccounts(int fetchSize, BiConsumer<String, PlayerAccount> consumer) {
+        return loadAccounts().thenApply(accounts -> {
+            accounts.forEach(consumer);
+            return accounts.size();
+        });
+    }
+
+    // The warm-up in file mode finishes before anything is looked up, so single reads are never needed
+    @Override
+    public CompletableFuture<PlayerAccount> getAccount(String uuid) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<String> findUUID(String playerName) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Double> getBalance(String uuid) {
+        PlayerAccount account = AccountCache.getCachedAccount(uuid);
+        return CompletableFuture.completedFuture(account == null ? 0.0 : account.balance());
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> createAccount(String uuid, PlayerAccount account) {
+        putAccount(uuid, account);
+        commit();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> applyDelta(String uuid, double balanceDelta, double changeDelta) {
+        return saveState(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Void> setBalance(String uuid, double balance) {
+        return saveState(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Void> setChange(String uuid, double change) {
+        return saveState(uuid);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> setName(String uuid, String name) {
+        putName(uuid, name);
+        commit();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> saveBatch(Map<String, PlayerAccount> created, Map<String, PlayerAccount> changed, List<PendingTransaction> transactions) {
+        for (Map.Entry<String, PlayerAccount> entry : created.entrySet()) {
+            putAccount(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, PlayerAccount> entry : changed.entrySet()) {
+            PlayerAccount account = entry.getValue();
+            putName(entry.getKey(), account.name());
+            putState(entry.getKey(), account.balance(), account.change());
+        }
+        commit();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> transfer(String transactType, String induce, String source, String destination, double amount, String transactionMessage) {
+        // Like in SQL mode, nothing is taken for a destination without an account
+        if (destination != null && AccountCache.getCachedAccount(TypeChecker.trimUUID(destination)) == null) return CompletableFuture.completedFuture(false);
+        if (source != null) {
+            String sourceUUID = TypeChecker.trimUUID(source);
+            if (Double.isNaN(AccountCache.subtractBalanceIfSufficient(sourceUUID, amount))) return CompletableFuture.completedFuture(false);
+            saveState(sourceUUID);
+        }
+        if (destination != null) {
+            String destinationUUID = TypeChecker.trimUUID(destination);
+            AccountCache.addBalance(destinationUUID, amount);
+            AccountCache.addChange(destinationUUID, amount);
+            saveState(destinationUUID);
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public boolean hasHistory() {
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Integer> countHistory(String uuid, Boolean passed) {
+        return CompletableFuture.completedFuture(0);
+    }
+
+    @Override
+    public CompletableFuture<String> historyPage(String uuid, Boolean passed, int page) {
+        return CompletableFuture.completedFuture("");
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addEmptyShop(String coordinates, String owner, String owner2) {
+        // Nothing is recorded, but the owners are still told
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeEmptyShop(String coordinates) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listEmptyShops(String uuid) {
+        return CompletableFuture.completedFuture(List.of());
+    }
+
+    private synchronized CompletableFuture<Void> saveState(String uuid) {
+        PlayerAccount account = AccountCache.getCachedAccount(uuid);
+        if (account == null) return CompletableFuture.completedFuture(null);
+        putState(uuid, account.balance(), account.change());
+        commit();
+        return CompletableFuture.completedFuture(null);
+    }
+}
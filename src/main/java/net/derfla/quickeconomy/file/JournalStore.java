@@ -0,0 +1,48 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores every account in the BalanceJournal. Is used in file mode when journal.enabled is true.
+ */
+public class JournalStore extends FileStore {
+
+    @Override
+    public String name() {
+        return "File (journal)";
+    }
+
+    @Override
+    public CompletableFuture<Map<String, PlayerAccount>> loadAccounts() {
+        return CompletableFuture.completedFuture(BalanceJournal.load());
+    }
+
+    @Override
+    protected void putAccount(String uuid, PlayerAccount account) {
+        BalanceJournal.writeAccount(uuid, account);
+    }
+
+    @Override
+    protected void putState(String uuid, double balance, double change) {
+        BalanceJournal.writeState(uuid, balance, change);
+    }
+
+    @Override
+    protected void putName(String uuid, String name) {
+        BalanceJournal.writeName(uuid, name);
+    }
+
+    @Override
+    protected void commit() {
+        // Records are in the page cache as soon as they are written, the journal is forced to disk when it is closed
+    }
+
+    @Override
+    public CompletableFuture<Void> snapshot() {
+        BalanceJournal.compact();
+        return CompletableFuture.completedFuture(null);
+    }
+}
@@ -0,0 +1,75 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.util.TypeChecker;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores every account in balance.yml. Every commit rewrites the whole file.
+ */
+public class YamlStore extends FileStore {
+
+    static Plugin plugin = Main.getInstance();
+
+    @Override
+    public String name() {
+        return "File";
+    }
+
+    @Override
+    public CompletableFuture<Map<String, PlayerAccount>> loadAccounts() {
+        return CompletableFuture.completedFuture(BalanceFile.readAccounts());
+    }
+
+    @Override
+    protected void putAccount(String uuid, PlayerAccount account) {
+        FileConfiguration file = file();
+        file.set("players." + uuid + ".name", account.name());
+        file.set("players." + uuid + ".balance", account.balance());
+        file.set("players." + uuid + ".change", account.change());
+        file.set("players." + uuid + ".created", account.createdTime());
+    }
+
+    @Override
+    protected void putState(String uuid, double balance, double change) {
+        FileConfiguration file = file();
+        file.set("players." + uuid + ".balance", balance);
+        file.set("players." + uuid + ".change", change);
+    }
+
+    @Override
+    protected void putName(String uuid, String name) {
+        FileConfiguration file = file();
+        String currentName = file.getString("players." + uuid + ".name");
+        if (name.equals(currentName)) return;
+        file.set("players." + uuid + ".name", name);
+        // Log only if there was an actual name change (not initial setting)
+        if (currentName != null) {
+            plugin.getLogger().info("Updated player name for UUID " + TypeChecker.untrimUUID(uuid) + ": " + currentName + " -> " + name);
+        }
+    }
+
+    @Override
+    protected void commit() {
+        BalanceFile.save();
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> snapshot() {
+        BalanceFile.save();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static FileConfiguration file() {
+        FileConfiguration file = BalanceFile.get();
+        if (file == null) {
+            throw new IllegalStateException("balance.yml not found!");
+        }
+        return file;
+    }
+}
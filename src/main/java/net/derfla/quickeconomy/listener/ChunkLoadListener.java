@@ -0,0 +1,16 @@
+package net.derfla.quickeconomy.listener;
+
+import net.derfla.quickeconomy.util.LockConversion;
+import net.derfla.quickeconomy.util.ShopRegistry;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+
+public class ChunkLoadListener implements Listener {
+
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+        ShopRegistry.indexChunk(event.getChunk());
+        LockConversion.enqueue(event.getChunk());
+    }
+}
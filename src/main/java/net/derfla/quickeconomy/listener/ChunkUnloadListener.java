@@ -0,0 +1,16 @@
+package net.derfla.quickeconomy.listener;
+
+import net.derfla.quickeconomy.util.BlockOwner;
+import net.derfla.quickeconomy.util.LockConversion;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+public class ChunkUnloadListener implements Listener {
+
+    @EventHandler
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        BlockOwner.forget(event.getChunk());
+        LockConversion.dequeue(event.getChunk());
+    }
+}
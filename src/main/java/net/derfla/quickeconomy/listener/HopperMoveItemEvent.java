@@ -1,7 +1,6 @@
 package net.derfla.quickeconomy.listener;
 
 import net.derfla.quickeconomy.util.BlockOwner;
-import org.bukkit.block.Chest;
 import org.bukkit.entity.minecart.HopperMinecart;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -15,10 +14,10 @@ public class HopperMoveItemEvent implements Listener {
         if (!(event.getInitiator().getHolder() instanceof HopperMinecart)) return;
         if (!event.getInitiator().getType().equals(InventoryType.HOPPER)) return;
         if (!event.getSource().getType().equals(InventoryType.CHEST)) return;
+        if (event.getSource().getLocation() == null) return;
         if (event.getSource().getLocation().getBlock() == null) return;
-        if (!(event.getSource().getLocation().getBlock().getState() instanceof Chest)) return;
-        Chest chest = (Chest) event.getSource().getLocation().getBlock().getState();
-        if (!BlockOwner.isLocked(chest)) return;
+        // Answered from the owner cache after the first item, without reading the block state
+        if (!BlockOwner.isLocked(event.getSource().getLocation().getBlock())) return;
         event.setCancelled(true);
         HopperMinecart minecart = (HopperMinecart) event.getInitiator().getHolder();
         minecart.setEnabled(false);
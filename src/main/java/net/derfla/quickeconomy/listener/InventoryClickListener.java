@@ -86,13 +86,25 @@ public class InventoryClickListener implements Listener {
             CompletableFuture.runAsync(() -> {
                 try {
                     String playerUUID = String.valueOf(player.getUniqueId());
+                    boolean paid;
                     if (owner2.isEmpty()) {
                         // Single owner transaction
-                        Balances.executeTransaction("p2p", "purchase",
+                        paid = Balances.executeTransaction("p2p", "purchase",
                                 playerUUID, owner, cost, "");
                     } else {
-                        Balances.executeTransaction("p2p", "purchase", playerUUID, owner, cost/2, "");
-                        Balances.executeTransaction("p2p", "purchase", playerUUID, owner2, cost/2, "");
+                        // Split in cents, the first owner gets the odd cent so nothing is lost
+                        paid = Balances.executeTransaction("p2p", "purchase", playerUUID, owner, Money.firstHalf(cost), "");
+                        if (paid && !Balances.executeTransaction("p2p", "purchase", playerUUID, owner2, Money.secondHalf(cost), "")) {
+                            // The second half was rejected, give the first half back
+                            Balances.executeTransaction("p2p", "rollback", owner, playerUUID, Money.firstHalf(cost), "insufficient_funds");
+                            paid = false;
+                        }
+                    }
+                    // The balance check above uses the cache and can be outdated, the transaction itself is what decides
+                    if (!paid) {
+                        Bukkit.getScheduler().runTask(Main.getInstance(), () ->
+                            player.sendMessage(Component.translatable("balance.notenough", errorStyle)));
+                        return;
                     }
 
                     // Update inventory after successful transaction
@@ -109,9 +121,9 @@ public class InventoryClickListener implements Listener {
                                     owner, String.valueOf(player.getUniqueId()), cost, "inventory_error");
                             } else {
                                 Balances.executeTransaction("p2p", "rollback", 
-                                    owner, String.valueOf(player.getUniqueId()), cost/2, "inventory_error");
+                                    owner, String.valueOf(player.getUniqueId()), Money.firstHalf(cost), "inventory_error");
                                 Balances.executeTransaction("p2p", "rollback", 
-                                    owner2, owner, cost/2, "inventory_error");
+                                    owner2, String.valueOf(player.getUniqueId()), Money.secondHalf(cost), "inventory_error");
                             }
                         }
                     });
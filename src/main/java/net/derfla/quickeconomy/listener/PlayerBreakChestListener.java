@@ -1,6 +1,7 @@
 package net.derfla.quickeconomy.listener;
 
 import net.derfla.quickeconomy.util.BlockOwner;
+import net.derfla.quickeconomy.util.ShopRegistry;
 import net.derfla.quickeconomy.util.Styles;
 import net.derfla.quickeconomy.util.TypeChecker;
 import net.kyori.adventure.text.Component;
@@ -17,10 +18,12 @@ public class PlayerBreakChestListener implements Listener {
         if (!(event.getBlock().getState() instanceof Chest)) return;
         if (!event.getBlock().getType().equals(Material.CHEST)) return;
         Chest chest = (Chest) event.getBlock().getState();
-        if (BlockOwner.isLockedForPlayer(chest, TypeChecker.trimUUID(String.valueOf(event.getPlayer().getUniqueId())))) {
+        if (BlockOwner.isLockedForPlayer(chest, TypeChecker.trimUUID(event.getPlayer().getUniqueId()))) {
             event.getPlayer().sendMessage(Component.translatable("shop.breakchest.canceled", Styles.ERRORSTYLE));
             event.setCancelled(true);
             return;
         }
+        if (BlockOwner.isShop(chest)) ShopRegistry.unregister(event.getBlock());
+        BlockOwner.forget(event.getBlock());
     }
 }
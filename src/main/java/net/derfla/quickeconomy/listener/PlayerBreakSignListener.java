@@ -34,10 +34,11 @@ public class PlayerBreakSignListener implements Listener {
         }
         if (listLines.get(0).equals(shopHeader)) {
             if (player.hasPermission("quickeconomy.shop.destroyall") ||
-                    Balances.getUUID(TypeChecker.getRawString(listLines.get(2))).equals(TypeChecker.trimUUID(String.valueOf(player.getUniqueId())))){
-                if (FindChest.get(sign) == null) return;
+                    Balances.getUUID(TypeChecker.getRawString(listLines.get(2))).equals(TypeChecker.trimUUID(player.getUniqueId()))){
                 Chest chest = FindChest.get(sign);
+                if (chest == null) return;
                 BlockOwner.unlockFromPlayer(chest, player.getName());
+                ShopRegistry.unregister(chest.getBlock());
                 return;
             }
         }
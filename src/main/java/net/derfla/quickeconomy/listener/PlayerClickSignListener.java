@@ -18,7 +18,7 @@ public class PlayerClickSignListener implements Listener {
     @EventHandler
     public void onPlayerClickSign(PlayerInteractEvent event){
         Player player = event.getPlayer();
-        String playerUUID = TypeChecker.trimUUID(String.valueOf(player.getUniqueId()));
+        String playerUUID = TypeChecker.trimUUID(player.getUniqueId());
 
         if (event.getAction() != Action.RIGHT_CLICK_BLOCK) return;
         if (event.getClickedBlock() == null) return;
@@ -36,15 +36,14 @@ public class PlayerClickSignListener implements Listener {
         } else if (listLines.get(0).equals(shopHeader)) {
             if (!player.hasPermission("quickeconomy.shop")) return;
             event.setCancelled(true);
-            if (FindChest.get(sign) == null) {
+            Chest chest = FindChest.get(sign);
+            if (chest == null) {
                 player.sendMessage(Component.translatable("shop.broken", Styles.INFOSTYLE));
                 return;
             }
-            Chest chest = FindChest.get(sign);
-            if (chest == null) return;
 
-            // Update chest NBT tag to UUID
-            BlockOwner.convertChestKeyToUUID(chest);
+            // Update chest NBT tag to UUID, if the conversion has not reached this chunk yet
+            LockConversion.convertIfPending(chest);
 
             if (BlockOwner.isShopOpen(chest)) {
                 player.sendMessage(Component.translatable("shop.locked.shopper", Styles.INFOSTYLE));
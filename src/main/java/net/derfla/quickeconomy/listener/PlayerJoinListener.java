@@ -1,7 +1,6 @@
 package net.derfla.quickeconomy.listener;
 
 import net.derfla.quickeconomy.Main;
-import net.derfla.quickeconomy.database.Shop;
 import net.derfla.quickeconomy.database.TableManagement;
 import net.derfla.quickeconomy.util.*;
 import net.kyori.adventure.text.Component;
@@ -24,7 +23,7 @@ public class PlayerJoinListener implements Listener {
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         Translation.init(player);
-        String uuid = TypeChecker.trimUUID(String.valueOf(player.getUniqueId()));
+        String uuid = TypeChecker.trimUUID(player.getUniqueId());
 
         // Handle update message
         if (plugin.getConfig().getBoolean("player.op.updateMessage")) {
@@ -51,14 +50,14 @@ public class PlayerJoinListener implements Listener {
                     if (change > 0) {
                         Bukkit.getScheduler().runTask(plugin, () -> 
                             player.sendMessage(Component.translatable("player.welcomeback", 
-                                Component.text(change)).style(Styles.INFOSTYLE)));
+                                Component.text(Money.format(change))).style(Styles.INFOSTYLE)));
                     }
                 }
                 Balances.setPlayerBalanceChange(uuid, 0.0f);
 
                 // Handle empty shops list if enabled
-                if (Main.SQLMode && plugin.getConfig().getBoolean("shop.emptyShopListJoin")) {
-                    Shop.displayEmptyShopsView(uuid)
+                if (plugin.getConfig().getBoolean("shop.emptyShopListJoin")) {
+                    Main.getStore().listEmptyShops(uuid)
                         .thenAccept(emptyShops -> {
                             if (emptyShops != null && !emptyShops.isEmpty()) {
                                 int emptyShopCount = emptyShops.size();
@@ -1,8 +1,8 @@
 package net.derfla.quickeconomy.listener;
 
 import net.derfla.quickeconomy.Main;
-import net.derfla.quickeconomy.database.Shop;
 import net.derfla.quickeconomy.util.BlockOwner;
+import net.derfla.quickeconomy.util.LockConversion;
 import net.derfla.quickeconomy.util.Styles;
 import net.derfla.quickeconomy.util.TypeChecker;
 import net.kyori.adventure.text.Component;
@@ -22,9 +22,9 @@ public class PlayerOpenChestListener implements Listener {
         if (!(event.getInventory().getHolder() instanceof Chest)) return;
         Chest chest = (Chest) event.getInventory().getHolder();
         Player player = (Player) event.getPlayer();
-        BlockOwner.convertChestKeyToUUID(chest);
+        LockConversion.convertIfPending(chest);
         // Check if chest is locked
-        if (BlockOwner.isLockedForPlayer(chest, TypeChecker.trimUUID(String.valueOf(player.getUniqueId())))) {
+        if (BlockOwner.isLockedForPlayer(chest, TypeChecker.trimUUID(player.getUniqueId()))) {
             player.sendMessage(Component.translatable("shop.locked.chest", Styles.ERRORSTYLE));
             event.setCancelled(true);
             return;
@@ -36,12 +36,10 @@ public class PlayerOpenChestListener implements Listener {
         }
         if (BlockOwner.isShop(chest)) {
             BlockOwner.setShopOpen(chest, true);
-            if(Main.SQLMode){
-                String coordinates = chest.getLocation().getBlockX() + "," +
-                        chest.getLocation().getBlockY() + "," +
-                        chest.getLocation().getBlockZ();
-                Shop.removeEmptyShop(coordinates);
-            }
+            String coordinates = chest.getLocation().getBlockX() + "," +
+                    chest.getLocation().getBlockY() + "," +
+                    chest.getLocation().getBlockZ();
+            Main.getStore().removeEmptyShop(coordinates);
         }
     }
 }
@@ -17,12 +17,14 @@ public class PlayerPlaceChestListener implements Listener {
         // Check if making a shop chest to a double
         if (!(event.getBlockPlaced().getState() instanceof Chest)) return;
         if (!event.getBlockPlaced().getType().equals(Material.CHEST)) return;
+        // A new chest is never locked, whatever was cached for the position before
+        BlockOwner.forget(event.getBlockPlaced());
         Chest chest;
         if (event.getBlockAgainst().getState() instanceof Chest) {
             chest = (Chest) event.getBlockAgainst().getState();
-        } else if (FindChest.get((Chest) event.getBlockPlaced().getState()) != null) {
+        } else {
             chest = FindChest.get((Chest) event.getBlockPlaced().getState());
-        } else return;
+        }
         if (chest == null) return;
         if (BlockOwner.isShop(chest)) {
             event.getPlayer().sendMessage(Component.translatable("shop.double", Styles.ERRORSTYLE));
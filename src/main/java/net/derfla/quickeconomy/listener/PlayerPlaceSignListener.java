@@ -50,14 +50,9 @@ public class PlayerPlaceSignListener implements Listener {
             if (event.lines().equals(preSign)) return;
             if (!player.hasPermission("quickeconomy.shop.create")) return;
             if (!event.getBlock().getType().toString().contains("WALL")) return;
-            if (FindChest.get(sign) == null) {
-                player.sendMessage(Component.translatable("shop.nochest", Styles.ERRORSTYLE));
-                return;
-            }
-
             Chest chest = FindChest.get(sign);
             if (chest == null) {
-                player.sendMessage(Component.translatable("shop.chest.null", Styles.ERRORSTYLE));
+                player.sendMessage(Component.translatable("shop.nochest", Styles.ERRORSTYLE));
                 return;
             }
             // Check if double chest
@@ -67,7 +62,7 @@ public class PlayerPlaceSignListener implements Listener {
             }
 
             // Check if chest is locked
-            if (BlockOwner.isLockedForPlayer(chest, TypeChecker.trimUUID(String.valueOf(player.getUniqueId())))) {
+            if (BlockOwner.isLockedForPlayer(chest, TypeChecker.trimUUID(player.getUniqueId()))) {
                 player.sendMessage(Component.translatable("shop.locked.chest", Styles.ERRORSTYLE));
                 event.setCancelled(true);
                 return;
@@ -122,12 +117,14 @@ public class PlayerPlaceSignListener implements Listener {
                     sign.update();
                     player.sendMessage(Component.translatable("shop.created.split", Component.text(line3)).style(Styles.INFOSTYLE));
                     // Lock chest to players
-                    BlockOwner.setPlayerLocked(chest, TypeChecker.trimUUID(String.valueOf(player.getUniqueId())), Balances.getUUID(line3));
+                    BlockOwner.setPlayerLocked(chest, TypeChecker.trimUUID(player.getUniqueId()), Balances.getUUID(line3));
+                    ShopRegistry.register(chest, TypeChecker.trimUUID(player.getUniqueId()), Balances.getUUID(line3), cost, shopType.equals("Item"));
                     return;
                 }
             }
             // Lock chest to player
-            BlockOwner.setPlayerLocked(chest, TypeChecker.trimUUID(String.valueOf(player.getUniqueId())), "");
+            BlockOwner.setPlayerLocked(chest, TypeChecker.trimUUID(player.getUniqueId()), "");
+            ShopRegistry.register(chest, TypeChecker.trimUUID(player.getUniqueId()), "", cost, shopType.equals("Item"));
             sign.update();
             player.sendMessage(Component.translatable("shop.created", Styles.INFOSTYLE));
             return;
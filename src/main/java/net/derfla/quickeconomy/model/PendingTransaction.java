@@ -0,0 +1,20 @@
+package net.derfla.quickeconomy.model;
+
+/**
+ * A transaction that has already been applied to the account cache but is still waiting to be written to the database.
+ * Used by the write-behind queue, which stores these in bulk on its next flush.
+ * @param dateTime UTC timestamp of the transaction, in the format "yyyy-MM-dd HH:mm:ss.SSS".
+ * @param transactType The type of transaction, for example "p2p" or "deposit".
+ * @param induce What caused the transaction, for example "command" or "purchase".
+ * @param source Trimmed UUID of the paying player. Null for bank deposits.
+ * @param destination Trimmed UUID of the receiving player. Null for bank withdrawals.
+ * @param newSourceBalance The balance of the source after the transaction. Null if there is no source.
+ * @param newDestinationBalance The balance of the destination after the transaction. Null if there is no destination.
+ * @param amount The amount transferred.
+ * @param transactionMessage Optional message stored with the transaction.
+ * @param passed False if the transaction was rejected, for example because the source could not afford it.
+ */
+public record PendingTransaction(String dateTime, String transactType, String induce, String source, String destination,
+                                 Double newSourceBalance, Double newDestinationBalance, double amount, String transactionMessage,
+                                 boolean passed) {
+}
@@ -1,14 +1,31 @@
 package net.derfla.quickeconomy.model;
 
+import net.derfla.quickeconomy.util.Money;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
 /**
  * This object is used to store data about the players account at a faster place.
+ * The fields are volatile so they can be read from any thread. Accounts held by the AccountCache should only be changed
+ * through the AccountCache, which makes read-modify-write updates atomic.
  */
 public class PlayerAccount {
 
-    private double balance;
-    private double change;
-    private String name;
-    private String createdTime;
+    private static final DateTimeFormatter CREATED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long NO_CREATED_TIME = Long.MIN_VALUE;
+
+    // In cents, see Money
+    private volatile long balance;
+    private volatile long change;
+    private volatile String name;
+    // Epoch seconds of the "yyyy-MM-dd HH:mm:ss" creation time, read as UTC. A long takes 8 bytes where the string took about 60
+    private final long createdTime;
+    // The creation time as it was given, if it could not be read. Kept so it is written back unchanged
+    private final String unparsedCreatedTime;
+    private volatile long lastUsed;
 
     /**
      * Used when creating a new PlayerAccount.
@@ -18,17 +35,26 @@ public class PlayerAccount {
      * @param createdTime Timestamp from the time of account creation.
      */
     public PlayerAccount(String name, double balance, double change, String createdTime) {
-        this.balance = balance;
-        this.change = change;
+        this.balance = Money.toCents(balance);
+        this.change = Money.toCents(change);
         this.name = name;
-        this.createdTime = createdTime;
+        this.createdTime = parseCreatedTime(createdTime);
+        this.unparsedCreatedTime = this.createdTime == NO_CREATED_TIME ? createdTime : null;
     }
 
     public double balance() {
-        return balance;
+        return Money.toDouble(balance);
     }
 
     public double change() {
+        return Money.toDouble(change);
+    }
+
+    public long balanceCents() {
+        return balance;
+    }
+
+    public long changeCents() {
         return change;
     }
 
@@ -36,15 +62,27 @@ public class PlayerAccount {
         return name;
     }
 
+    /**
+     * @return The creation time as "yyyy-MM-dd HH:mm:ss", or null if it is not known. A time in another format is returned as it was given.
+     */
     public String createdTime() {
-        return createdTime;
+        if (createdTime == NO_CREATED_TIME) return unparsedCreatedTime;
+        return LocalDateTime.ofEpochSecond(createdTime, 0, ZoneOffset.UTC).format(CREATED_FORMAT);
     }
 
     public void balance(double balanceNew) {
-        this.balance = balanceNew;
+        this.balance = Money.toCents(balanceNew);
     }
 
     public void change(double changeNew) {
+        this.change = Money.toCents(changeNew);
+    }
+
+    public void balanceCents(long balanceNew) {
+        this.balance = balanceNew;
+    }
+
+    public void changeCents(long changeNew) {
         this.change = changeNew;
     }
 
@@ -52,13 +90,39 @@ public class PlayerAccount {
         this.name = nameNew;
     }
 
+    /**
+     * @return When the account was last used through the AccountCache, in epoch milliseconds. 0 if never.
+     */
+    public long lastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Marks the account as used now. Is used by the AccountCache to find accounts to evict.
+     */
+    public void touch() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+
     /**
      * Custom method. Returns the PlayerAccount in a more readable format. Does not include change.
      * @return A string representation of the PlayerAccount object.
      */
     @Override
     public String toString() {
-        String[] splitTime = createdTime.split(" ");
-        return name + ": " + balance + " (Created: " + splitTime[0] + ")";
+        String created = createdTime();
+        if (created == null) return name + ": " + Money.format(balance);
+        return name + ": " + Money.format(balance) + " (Created: " + created.split(" ")[0] + ")";
+    }
+
+    private static long parseCreatedTime(String createdTime) {
+        if (createdTime == null) return NO_CREATED_TIME;
+        // Databases may add fractions of a second, like "2024-01-31 12:00:00.0"
+        String seconds = createdTime.length() > 19 && createdTime.charAt(19) == '.' ? createdTime.substring(0, 19) : createdTime;
+        try {
+            return LocalDateTime.parse(seconds, CREATED_FORMAT).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return NO_CREATED_TIME;
+        }
     }
 }
@@ -0,0 +1,41 @@
+package net.derfla.quickeconomy.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a rollback to a point in time does to the balances. Made by System.planRollback, which reads the transactions once,
+ * and applied by System.rollback, or only shown with --dry-run.
+ * @param targetDateTime UTC datetime that is rolled back to.
+ * @param plannedUntil UTC datetime of the last transaction in the plan. Transactions made after the plan are kept. Null if there is nothing to roll back.
+ * @param transactionCount The number of passed transactions that are undone.
+ * @param deltas The amount in cents to add to each account, by trimmed UUID. Accounts done by an earlier, interrupted attempt are left out.
+ * @param accountsDone The number of accounts done by an earlier, interrupted attempt.
+ */
+public record RollbackPlan(String targetDateTime, String plannedUntil, int transactionCount, Map<String, Long> deltas, int accountsDone) {
+
+    /**
+     * @return True if there is nothing to roll back.
+     */
+    public boolean isEmpty() {
+        return plannedUntil == null;
+    }
+
+    /**
+     * @return True if an earlier attempt at this rollback was interrupted and this plan continues it.
+     */
+    public boolean isResumed() {
+        return accountsDone > 0;
+    }
+
+    /**
+     * @param limit The most entries to return.
+     * @return The deltas that change a balance the most, largest first.
+     */
+    public List<Map.Entry<String, Long>> largestDeltas(int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(deltas.entrySet());
+        entries.sort((a, b) -> Long.compare(Math.abs(b.getValue()), Math.abs(a.getValue())));
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+}
@@ -1,43 +1,285 @@
 package net.derfla.quickeconomy.util;
 
 import net.derfla.quickeconomy.Main;
-import net.derfla.quickeconomy.database.AccountManagement;
-import net.derfla.quickeconomy.file.BalanceFile;
 import net.derfla.quickeconomy.model.PlayerAccount;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Every account in memory, or the most recently used ones when cache.maxAccounts is set.
+ * <p>
+ * There are two kinds of updates. The read-through ones (setBalance, addBalance, subtractBalanceIfSufficient, addChange...) read
+ * an account that is not cached from storage first, so they are for changes that are made to the cache before storage has them.
+ * refresh only touches cached accounts and is for values storage already has, such as the balances of a committed batch.
+ * Applying a committed change with a read-through update would count it twice when the account had to be read.
+ * <p>
+ * The server thread never waits for storage. An account it misses is read in the background and is unknown until it is cached.
+ * Commands look players up by name first, which only finds cached accounts, so they don't write to an account that is still being read.
+ */
 public class AccountCache {
 
-    static Plugin plugin = Main.getInstance();
-    private static HashMap<String, PlayerAccount> accountMap;
+    // Set in init(), so the cache can be used without a running server in tests
+    static Plugin plugin;
+    private static final AccountTable accountMap = new AccountTable();
+    // Updates to one account are serialized by the lock of its stripe. Must be a power of two
+    private static final int LOCK_STRIPES = 64;
+    private static final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    // Lower case player name to UUID. The hash map serves exact lookups, the sorted map serves prefix searches
+    private static final ConcurrentHashMap<String, String> nameIndex = new ConcurrentHashMap<>();
+    private static final ConcurrentSkipListMap<String, String> sortedNameIndex = new ConcurrentSkipListMap<>();
+    private static volatile boolean warmedUp = false;
+    // Bounded mode, see evict()
+    private static final long MIN_IDLE_MILLIS = 60000;
+    private static final int READ_ATTEMPTS = 3;
+    private static volatile int maxAccounts = 0;
+    private static final AtomicBoolean evicting = new AtomicBoolean(false);
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    // Bumped by refresh, so an account read from storage before the refresh is not admitted over it. One per lock stripe
+    private static final AtomicLongArray storeVersions = new AtomicLongArray(LOCK_STRIPES);
+    // Accounts refreshed during the warm-up that were not cached yet. The stream may have read them before the change
+    private static final Set<String> refreshedDuringWarmUp = ConcurrentHashMap.newKeySet();
+    // Accounts and names being read in the background for the server thread, so each is only read once at a time
+    private static final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    static {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
 
     /**
      * Method to call to initiate the account cache.
      * Is called in startup, in onEnable.
+     * Online players are loaded right away, every other account is streamed in the background. Until that is done, an account
+     * that has not been streamed yet is read on its own the first time it is used.
+     * When cache.maxAccounts is set, the stream only fills the leaderboard and accounts are read when they are first used.
      */
     public static void init() {
-        if(Main.SQLMode) {
-            accountMap = AccountManagement.listAllAccounts().join();
-        } else {
-            accountMap = new HashMap<>();
-            FileConfiguration file = BalanceFile.get();
-            ConfigurationSection players = file.getConfigurationSection("players");
-            for(String uuid : players.getKeys(false)){
-                accountMap.put(uuid,
-                        new PlayerAccount(players.getString(uuid + ".name"), players.getDouble(uuid + ".balance"), players.getDouble(uuid + ".change"), players.getString(uuid + ".created")));
+        plugin = Main.getInstance();
+        warmedUp = false;
+        refreshedDuringWarmUp.clear();
+        accountMap.clear();
+        nameIndex.clear();
+        sortedNameIndex.clear();
+        BalanceLeaderboard.init(Map.of());
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+
+        maxAccounts = plugin.getConfig().getInt("cache.maxAccounts", 0);
+        if (maxAccounts < 0) {
+            maxAccounts = 0;
+            plugin.getLogger().warning("cache.maxAccounts can't be negative, keeping every account in the cache.");
+        }
+        if (maxAccounts > 0 && !Main.SQLMode) {
+            maxAccounts = 0;
+            plugin.getLogger().warning("cache.maxAccounts is only used in SQL mode, keeping every account in the cache.");
+        }
+
+        // Online players first, so they can use the economy the moment the plugin is enabled
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            ensureLoaded(TypeChecker.trimUUID(player.getUniqueId()));
+        }
+
+        int fetchSize = plugin.getConfig().getInt("database.fetchSize", 1000);
+        if (fetchSize < 1) {
+            fetchSize = 1000;
+            plugin.getLogger().warning("database.fetchSize must be at least 1, using default (1000).");
+        }
+        long start = System.currentTimeMillis();
+        Main.getStore().streamAccounts(fetchSize, maxAccounts > 0 ? AccountCache::rank : AccountCache::admit).whenComplete((count, ex) -> {
+            if (ex != null) {
+                plugin.getLogger().severe("Failed to load accounts into the cache, they will be read one at a time: " + ex.getMessage());
+                return;
+            }
+            warmedUp = true;
+            refreshedDuringWarmUp.clear();
+            if (maxAccounts > 0) {
+                plugin.getLogger().info(count + " accounts from database ranked, up to " + maxAccounts + " are kept in cache ("
+                        + (System.currentTimeMillis() - start) + " ms).");
+                return;
+            }
+            plugin.getLogger().info(accountMap.size() + " accounts from database now stored in cache ("
+                    + (System.currentTimeMillis() - start) + " ms).");
+        });
+    }
+
+    /**
+     * @return True once every stored account has been loaded into the cache, or onto the leaderboard when the cache is bounded.
+     */
+    public static boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * @return A summary of the cache size and its hit, miss and eviction counters, for /quickeconomy setup.
+     */
+    public static String stats() {
+        String size = maxAccounts > 0 ? accountMap.size() + "/" + maxAccounts : String.valueOf(accountMap.size());
+        return size + " accounts, " + hits.sum() + " hits, " + misses.sum() + " misses, " + evictions.sum() + " evictions";
+    }
+
+    /**
+     * @return True if every stored account is in the cache, so the cache can be listed without reading storage.
+     */
+    public static boolean holdsEveryAccount() {
+        return !readThrough();
+    }
+
+    // Accounts are read from storage on a miss while the warm-up runs, and always when the cache is bounded
+    private static boolean readThrough() {
+        return maxAccounts > 0 || !warmedUp;
+    }
+
+    // Adds an account streamed from storage, unless it was refreshed while the stream ran. It is then read again when it is used
+    private static void admit(String uuid, PlayerAccount account) {
+        admit(uuid, account, -1);
+    }
+
+    // Adds an account read from storage, unless it is already in the cache. The cached copy may have changed since it was read.
+    // An account read before a refresh of its stripe is not added, storeVersion is the version the read started at or -1 for the stream
+    private static boolean admit(String uuid, PlayerAccount account, long storeVersion) {
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            if (storeVersion < 0 ? refreshedDuringWarmUp.contains(uuid) : storeVersions.get(stripe(uuid)) != storeVersion) return false;
+            if (accountMap.putIfAbsent(uuid, account) != null) return true;
+            account.touch();
+            indexName(account.name(), uuid);
+            BalanceLeaderboard.update(uuid, account.balance());
+        } finally {
+            lock.unlock();
+        }
+        evictIfFull();
+        return true;
+    }
+
+    private static void evictIfFull() {
+        if (maxAccounts == 0 || accountMap.size() <= maxAccounts || !evicting.compareAndSet(false, true)) return;
+        Main.getExecutorService().execute(() -> {
+            try {
+                evict();
+            } finally {
+                evicting.set(false);
             }
+        });
+    }
+
+    // Puts an account on the leaderboard without caching it. A cached account is already there with a newer balance
+    private static void rank(String uuid, PlayerAccount account) {
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            if (!accountMap.containsKey(uuid) && !refreshedDuringWarmUp.contains(uuid)) BalanceLeaderboard.update(uuid, account.balance());
+        } finally {
+            lock.unlock();
         }
-        plugin.getLogger().info(accountMap.size() + " accounts from database now stored in cache.");
+    }
 
+    // Reads an account that is not in the cache. Does nothing once every account is cached
+    private static void ensureLoaded(String uuid) {
+        if (uuid == null) return;
+        PlayerAccount cached = accountMap.get(uuid);
+        if (cached != null) {
+            cached.touch();
+            hits.increment();
+            return;
+        }
+        if (!readThrough()) return;
+        misses.increment();
+        if (Bukkit.isPrimaryThread()) {
+            loadInBackground(uuid, () -> readAccount(uuid));
+            return;
+        }
+        readAccount(uuid);
+    }
+
+    private static void readAccount(String uuid) {
+        // A batch committed while the account was read has refreshed nothing, so the read is only used if no refresh came in between
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            long storeVersion = storeVersions.get(stripe(uuid));
+            PlayerAccount account = Main.getStore().getAccount(uuid).join();
+            if (account == null || admit(uuid, account, storeVersion)) return;
+        }
+    }
+
+    private static void loadInBackground(String key, Runnable read) {
+        if (!loading.add(key)) return;
+        Main.getExecutorService().execute(() -> {
+            try {
+                read.run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Failed to read account " + key + " from storage: " + e.getMessage());
+            } finally {
+                loading.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Removes the least recently used accounts until the cache is below 90% of cache.maxAccounts.
+     * Online players, accounts with unsaved changes and accounts used within the last minute are kept, so the cache may stay above the limit.
+     * The accounts stay on the leaderboard.
+     */
+    private static void evict() {
+        int excess = accountMap.size() - maxAccounts * 9 / 10;
+        if (excess <= 0) return;
+        long idleSince = System.currentTimeMillis() - MIN_IDLE_MILLIS;
+        List<Map.Entry<String, PlayerAccount>> candidates = new ArrayList<>();
+        accountMap.forEach((uuid, account) -> {
+            if (account.lastUsed() <= idleSince && !isPinned(uuid)) candidates.add(Map.entry(uuid, account));
+        });
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed()));
+
+        int evicted = 0;
+        for (Map.Entry<String, PlayerAccount> entry : candidates) {
+            if (evicted >= excess) break;
+            String uuid = entry.getKey();
+            ReentrantLock lock = lockFor(uuid);
+            lock.lock();
+            try {
+                // Check again, the account may have been used since the candidates were picked
+                PlayerAccount account = accountMap.get(uuid);
+                if (account == null || account.lastUsed() > idleSince || isPinned(uuid)) continue;
+                accountMap.remove(uuid);
+                unindexName(account.name(), uuid);
+                evicted++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        evictions.add(evicted);
+    }
+
+    private static boolean isPinned(String uuid) {
+        if (WriteBehindQueue.isPending(uuid)) return true;
+        try {
+            return Bukkit.getPlayer(TypeChecker.toUUID(uuid)) != null;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
 
     /**
@@ -46,9 +288,280 @@ public class AccountCache {
      * @return PlayerAccount of the corresponding player.
      */
     public static PlayerAccount getPlayerAccount(String UUID) {
+        ensureLoaded(UUID);
         return accountMap.get(UUID);
     }
 
+    /**
+     * Looks the account up by the bits of the UUID, so a cached account is found without building the trimmed string.
+     * @param uuid The UUID of the account.
+     * @return The account, or null if there is none.
+     */
+    public static PlayerAccount getPlayerAccount(UUID uuid) {
+        PlayerAccount cached = accountMap.get(uuid);
+        if (cached == null) return getPlayerAccount(TypeChecker.trimUUID(uuid));
+        cached.touch();
+        hits.increment();
+        return cached;
+    }
+
+    /**
+     * Get a PlayerAccount only if it is in the cache. Never reads from storage, so it is safe to use on the main thread in bounded mode.
+     * @param uuid The trimmed UUID of the account.
+     * @return The account, or null if it is not cached.
+     */
+    public static PlayerAccount getCachedAccount(String uuid) {
+        return uuid == null ? null : accountMap.get(uuid);
+    }
+
+    /**
+     * Copies every account in the cache. Changes made to the cache afterwards are not reflected in the copy.
+     * @return A copy of every account, keyed by trimmed UUID.
+     */
+    public static Map<String, PlayerAccount> snapshot() {
+        Map<String, PlayerAccount> copy = new HashMap<>(accountMap.size());
+        accountMap.forEach((uuid, account) ->
+                copy.put(uuid, new PlayerAccount(account.name(), account.balance(), account.change(), account.createdTime())));
+        return copy;
+    }
+
+    /**
+     * Sets the balance of an account in the cache.
+     * @param uuid The trimmed UUID of the account.
+     * @param balance The new balance.
+     * @return The new balance, or NaN if the account is not in the cache.
+     */
+    public static double setBalance(String uuid, double balance) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            if (account == null) return Double.NaN;
+            account.balance(balance);
+            BalanceLeaderboard.update(uuid, account.balance());
+            return account.balance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically adds an amount to the balance of an account in the cache. Use a negative amount to subtract.
+     * @param uuid The trimmed UUID of the account.
+     * @param amount The amount to add.
+     * @return The balance after the addition, or NaN if the account is not in the cache.
+     */
+    public static double addBalance(String uuid, double amount) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            if (account == null) return Double.NaN;
+            account.balanceCents(account.balanceCents() + Money.toCents(amount));
+            double newBalance = account.balance();
+            BalanceLeaderboard.update(uuid, newBalance);
+            return newBalance;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically subtracts an amount from the balance of an account in the cache.
+     * @param uuid The trimmed UUID of the account.
+     * @param amount The amount to subtract.
+     * @return The balance after the subtraction, or NaN if the account is not in the cache.
+     */
+    public static double subtractBalance(String uuid, double amount) {
+        return addBalance(uuid, -amount);
+    }
+
+    /**
+     * Atomically subtracts an amount from the balance of an account in the cache, unless that would make the balance negative.
+     * @param uuid The trimmed UUID of the account.
+     * @param amount The amount to subtract.
+     * @return The balance after the subtraction, or NaN if the account can't afford it or is not in the cache.
+     */
+    public static double subtractBalanceIfSufficient(String uuid, double amount) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            long cents = Money.toCents(amount);
+            if (account == null || account.balanceCents() < cents) return Double.NaN;
+            account.balanceCents(account.balanceCents() - cents);
+            double newBalance = account.balance();
+            BalanceLeaderboard.update(uuid, newBalance);
+            return newBalance;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically sets the balance of an account in the cache, but only if it still is the expected value.
+     * @param uuid The trimmed UUID of the account.
+     * @param expected The balance the account is expected to have.
+     * @param newBalance The balance to set.
+     * @return True if the balance was set. False if the balance had changed or the account is not in the cache.
+     */
+    public static boolean compareAndSetBalance(String uuid, double expected, double newBalance) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            if (account == null || account.balanceCents() != Money.toCents(expected)) return false;
+            account.balance(newBalance);
+            BalanceLeaderboard.update(uuid, newBalance);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the balance change of an account in the cache.
+     * @param uuid The trimmed UUID of the account.
+     * @param change The new balance change.
+     */
+    public static void setChange(String uuid, double change) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            if (account != null) account.change(change);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically adds an amount to the balance change of an account in the cache.
+     * @param uuid The trimmed UUID of the account.
+     * @param amount The amount to add.
+     * @return The balance change after the addition, or NaN if the account is not in the cache.
+     */
+    public static double addChange(String uuid, double amount) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            if (account == null) return Double.NaN;
+            account.changeCents(account.changeCents() + Money.toCents(amount));
+            return account.change();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the balance and balance change of an account with what storage has, after storage was changed directly.
+     * An account that is not in the cache is not read, it only gets its new place on the leaderboard. A read of the account
+     * that started before the refresh is not admitted to the cache, it is read again.
+     * @param uuid The trimmed UUID of the account.
+     * @param balanceCents The balance in storage, in cents.
+     * @param changeCents The balance change in storage, in cents.
+     */
+    public static void refresh(String uuid, long balanceCents, long changeCents) {
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            storeVersions.incrementAndGet(stripe(uuid));
+            PlayerAccount account = accountMap.get(uuid);
+            if (account != null) {
+                account.balanceCents(balanceCents);
+                account.changeCents(changeCents);
+            } else if (!warmedUp) {
+                refreshedDuringWarmUp.add(uuid);
+            }
+            BalanceLeaderboard.update(uuid, Money.toDouble(balanceCents));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a change storage has already committed to a cached account, instead of replacing its balance like refresh does.
+     * For changes made in storage while write-behind is on, so the cached changes that are not flushed yet are kept.
+     * An account that is not in the cache is not read, it gets its place on the leaderboard from the stored balance.
+     * @param uuid The trimmed UUID of the account.
+     * @param balanceDeltaCents The amount added to the balance, in cents.
+     * @param changeDeltaCents The amount added to the balance change, in cents.
+     * @param storedBalanceCents The balance in storage after the change, in cents.
+     * @return True if the account is cached and the change was added to it.
+     */
+    public static boolean refreshDelta(String uuid, long balanceDeltaCents, long changeDeltaCents, long storedBalanceCents) {
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            storeVersions.incrementAndGet(stripe(uuid));
+            PlayerAccount account = accountMap.get(uuid);
+            if (account == null) {
+                if (!warmedUp) refreshedDuringWarmUp.add(uuid);
+                BalanceLeaderboard.update(uuid, Money.toDouble(storedBalanceCents));
+                return false;
+            }
+            account.balanceCents(account.balanceCents() + balanceDeltaCents);
+            account.changeCents(account.changeCents() + changeDeltaCents);
+            BalanceLeaderboard.update(uuid, account.balance());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the name of an account in the cache.
+     * @param uuid The trimmed UUID of the account.
+     * @param name The new name.
+     * @return True if the name was different from the previous one.
+     */
+    public static boolean setName(String uuid, String name) {
+        ensureLoaded(uuid);
+        ReentrantLock lock = lockFor(uuid);
+        lock.lock();
+        try {
+            PlayerAccount account = accountMap.get(uuid);
+            if (account == null || name.equals(account.name())) return false;
+            unindexName(account.name(), uuid);
+            account.name(name);
+            indexName(name, uuid);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void indexName(String name, String uuid) {
+        if (name == null) return;
+        String key = name.toLowerCase(Locale.ROOT);
+        nameIndex.put(key, uuid);
+        sortedNameIndex.put(key, uuid);
+    }
+
+    // Only removes the name if it still points at this account, another account may have taken the name since
+    private static void unindexName(String name, String uuid) {
+        if (name == null) return;
+        String key = name.toLowerCase(Locale.ROOT);
+        nameIndex.remove(key, uuid);
+        sortedNameIndex.remove(key, uuid);
+    }
+
+    private static ReentrantLock lockFor(String uuid) {
+        return locks[stripe(uuid)];
+    }
+
+    private static int stripe(String uuid) {
+        int hash = uuid.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
     /**
      * Get a list of strings. Each PlayerAccount has their own string in the list. Utilizes the custom PlayerAccount.toString method. Mainly built for the '/bal list' command.
      * @return A list of PlayerAccount strings.
@@ -59,9 +572,7 @@ public class AccountCache {
             plugin.getLogger().warning("No accounts found in player cache.");
             return null;
         }
-        for(String uuid : accountMap.keySet()) {
-            accountList.add(accountMap.get(uuid).toString());
-        }
+        accountMap.forEach((uuid, account) -> accountList.add(account.toString()));
         return accountList;
     }
 
@@ -72,44 +583,113 @@ public class AccountCache {
      */
     public static void addAccount(String uuid, String name) {
         String timeStamp = TypeChecker.convertToUTC(Instant.now().atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-        accountMap.put(uuid, new PlayerAccount(name, 0, 0, timeStamp));
+        PlayerAccount account = new PlayerAccount(name, 0, 0, timeStamp);
+        account.touch();
+        if (accountMap.putIfAbsent(uuid, account) == null) {
+            indexName(name, uuid);
+            BalanceLeaderboard.update(uuid, 0);
+            evictIfFull();
+        }
     }
 
     /**
-     * Get the UUID from a player in the account cache.
+     * Get the UUID from a player in the account cache. Ignores case.
      * @param playerName The name of the player.
      * @return A string with the UUID. If the playerName is not found in the cache, it returns an empty string.
      */
     public static String getUUID(String playerName) {
-        for(String uuid : accountMap.keySet()) {
-            if (playerName.equals(accountMap.get(uuid).name())) {
-                return uuid;
-            }
-        }
+        String uuid = playerName == null ? null : findUUID(playerName);
+        if (uuid != null) return uuid;
         plugin.getLogger().warning("Failed to get UUID for player: " + playerName);
         return "";
     }
 
+    /**
+     * Get the UUID of a player whose account is in the cache. Never reads from storage, so it is safe to use on the main thread.
+     * @param playerName The name of the player, case is ignored.
+     * @return The trimmed UUID, or null if no cached account has the name.
+     */
+    public static String getCachedUUID(String playerName) {
+        return playerName == null ? null : nameIndex.get(playerName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Finds player names starting with the provided prefix, ignoring case. Walks the sorted name index from the prefix,
+     * so only the returned names are visited.
+     * @param prefix The start of the name.
+     * @param limit The maximum number of names to return.
+     * @return A list of player names in alphabetical order.
+     */
+    public static List<String> getNamesStartingWith(String prefix, int limit) {
+        List<String> names = new ArrayList<>();
+        String key = prefix.toLowerCase(Locale.ROOT);
+        for (Map.Entry<String, String> entry : sortedNameIndex.tailMap(key, true).entrySet()) {
+            if (names.size() >= limit || !entry.getKey().startsWith(key)) break;
+            PlayerAccount account = accountMap.get(entry.getValue());
+            if (account != null) names.add(account.name());
+        }
+        return names;
+    }
+
+    /**
+     * Suggests player names for tab completion. Online players come first, followed by other accounts in alphabetical order.
+     * @param prefix What has been typed so far.
+     * @param limit The maximum number of suggestions.
+     * @return A list of at most limit player names starting with the prefix, ignoring case.
+     */
+    public static List<String> completeNames(String prefix, int limit) {
+        List<String> names = new ArrayList<>();
+        Set<String> added = new HashSet<>();
+        String key = prefix.toLowerCase(Locale.ROOT);
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (names.size() >= limit) return names;
+            String lowerName = player.getName().toLowerCase(Locale.ROOT);
+            if (lowerName.startsWith(key) && added.add(lowerName)) names.add(player.getName());
+        }
+        for (Map.Entry<String, String> entry : sortedNameIndex.tailMap(key, true).entrySet()) {
+            if (names.size() >= limit || !entry.getKey().startsWith(key)) break;
+            if (!added.add(entry.getKey())) continue;
+            PlayerAccount account = accountMap.get(entry.getValue());
+            if (account != null) names.add(account.name());
+        }
+        return names;
+    }
+
     /**
      * Checks if the provided UUID key exists in the account cache.
      * @param uuid The UUID of the player.
      * @return True if the UUID is present in the cache. False if it's not.
      */
     public static boolean accountExistsUUID(String uuid) {
+        ensureLoaded(uuid);
         return accountMap.containsKey(uuid);
     }
 
     /**
-     * Checks if the provided player name exists in the account cache.
+     * Checks if the provided player name exists in the account cache. Ignores case.
      * @param playerName The name of the player.
      * @return True if the name is present in the cache. False if it's not.
      */
     public static boolean accountExistsName(String playerName) {
-        for(PlayerAccount account : accountMap.values()) {
-            if (playerName.equals(account.name())) {
-                return true;
-            }
+        return playerName != null && findUUID(playerName) != null;
+    }
+
+    // Looks the name up in storage if the account has not been streamed yet. The server thread gets null until the account is cached
+    private static String findUUID(String playerName) {
+        String key = playerName.toLowerCase(Locale.ROOT);
+        String uuid = nameIndex.get(key);
+        if (uuid != null || !readThrough()) return uuid;
+        if (Bukkit.isPrimaryThread()) {
+            loadInBackground("name:" + key, () -> readName(playerName));
+            return null;
         }
-        return false;
+        return readName(playerName);
+    }
+
+    private static String readName(String playerName) {
+        String uuid = Main.getStore().findUUID(playerName).join();
+        if (uuid == null) return null;
+        ensureLoaded(uuid);
+        return accountMap.containsKey(uuid) ? uuid : null;
     }
 }
@@ -0,0 +1,262 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * The map behind the AccountCache. Trimmed UUIDs are stored as two longs in open-addressing tables instead of as String keys in
+ * hash map nodes, which takes about 20 bytes per account instead of about 100.
+ * <p>
+ * The tables are split into segments with a StampedLock each. Lookups are optimistic and only take the read lock if a write
+ * happened at the same time. Keys that are not a lower case trimmed UUID, like the ones left by a failed balance.yml conversion,
+ * are kept in a regular map.
+ */
+class AccountTable {
+
+    private static final int SEGMENTS = 64; // Must be a power of two
+    private static final int SEGMENT_SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final class Table {
+        final long[] mostSigBits;
+        final long[] leastSigBits;
+        final PlayerAccount[] values; // A null value is an empty slot
+
+        Table(int capacity) {
+            mostSigBits = new long[capacity];
+            leastSigBits = new long[capacity];
+            values = new PlayerAccount[capacity];
+        }
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        volatile Table table = new Table(INITIAL_CAPACITY);
+        int size;
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<String, PlayerAccount> irregular = new ConcurrentHashMap<>();
+
+    AccountTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    PlayerAccount get(String uuid) {
+        if (uuid == null) return null;
+        if (!TypeChecker.isTrimmedUUID(uuid)) return irregular.get(uuid);
+        return get(TypeChecker.parseHex(uuid, 0), TypeChecker.parseHex(uuid, 16));
+    }
+
+    PlayerAccount get(UUID uuid) {
+        if (uuid == null) return null;
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private PlayerAccount get(long most, long least) {
+        int hash = hash(most, least);
+        Segment segment = segments[hash >>> SEGMENT_SHIFT];
+
+        long stamp = segment.lock.tryOptimisticRead();
+        PlayerAccount found = find(segment.table, most, least, hash);
+        if (segment.lock.validate(stamp)) return found;
+        stamp = segment.lock.readLock();
+        try {
+            return find(segment.table, most, least, hash);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    boolean containsKey(String uuid) {
+        return get(uuid) != null;
+    }
+
+    /**
+     * @return The account already stored under the UUID, or null if the new account was added.
+     */
+    PlayerAccount putIfAbsent(String uuid, PlayerAccount account) {
+        if (!TypeChecker.isTrimmedUUID(uuid)) return irregular.putIfAbsent(uuid, account);
+        long most = TypeChecker.parseHex(uuid, 0);
+        long least = TypeChecker.parseHex(uuid, 16);
+        int hash = hash(most, least);
+        Segment segment = segments[hash >>> SEGMENT_SHIFT];
+
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int index = slot(table, most, least, hash);
+            if (table.values[index] != null) return table.values[index];
+            table.mostSigBits[index] = most;
+            table.leastSigBits[index] = least;
+            table.values[index] = account;
+            segment.size++;
+            // Kept at most 2/3 full, so probe sequences stay short
+            if (segment.size * 3 > table.values.length * 2) segment.table = grow(table);
+            return null;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return The removed account, or null if there was none.
+     */
+    PlayerAccount remove(String uuid) {
+        if (!TypeChecker.isTrimmedUUID(uuid)) return irregular.remove(uuid);
+        long most = TypeChecker.parseHex(uuid, 0);
+        long least = TypeChecker.parseHex(uuid, 16);
+        int hash = hash(most, least);
+        Segment segment = segments[hash >>> SEGMENT_SHIFT];
+
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int index = slot(table, most, least, hash);
+            PlayerAccount removed = table.values[index];
+            if (removed == null) return null;
+            shiftBack(table, index);
+            segment.size--;
+            return removed;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        int size = irregular.size();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void clear() {
+        irregular.clear();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.table = new Table(INITIAL_CAPACITY);
+                segment.size = 0;
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Calls the action for every account. Each segment is copied before the action is called for its accounts,
+     * so the action may change the table. Changes made during the walk may or may not be seen.
+     */
+    void forEach(BiConsumer<String, PlayerAccount> action) {
+        irregular.forEach(action);
+        List<PlayerAccount> values = new ArrayList<>();
+        for (Segment segment : segments) {
+            long[] keys;
+            values.clear();
+            long stamp = segment.lock.readLock();
+            try {
+                Table table = segment.table;
+                keys = new long[segment.size * 2];
+                for (int i = 0; i < table.values.length; i++) {
+                    if (table.values[i] == null) continue;
+                    keys[values.size() * 2] = table.mostSigBits[i];
+                    keys[values.size() * 2 + 1] = table.leastSigBits[i];
+                    values.add(table.values[i]);
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+            for (int i = 0; i < values.size(); i++) {
+                action.accept(format(keys[i * 2], keys[i * 2 + 1]), values.get(i));
+            }
+        }
+    }
+
+    // May run without a lock, so it must not fail on a table that is being written. The caller validates the result
+    private static PlayerAccount find(Table table, long most, long least, int hash) {
+        int mask = table.values.length - 1;
+        int index = hash & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            PlayerAccount value = table.values[index];
+            if (value == null) return null;
+            if (table.mostSigBits[index] == most && table.leastSigBits[index] == least) return value;
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    // The slot holding the key, or the empty slot where it belongs. Must hold the write lock
+    private static int slot(Table table, long most, long least, int hash) {
+        int mask = table.values.length - 1;
+        int index = hash & mask;
+        while (table.values[index] != null
+                && (table.mostSigBits[index] != most || table.leastSigBits[index] != least)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static Table grow(Table table) {
+        Table grown = new Table(table.values.length * 2);
+        for (int i = 0; i < table.values.length; i++) {
+            if (table.values[i] == null) continue;
+            long most = table.mostSigBits[i];
+            long least = table.leastSigBits[i];
+            int index = slot(grown, most, least, hash(most, least));
+            grown.mostSigBits[index] = most;
+            grown.leastSigBits[index] = least;
+            grown.values[index] = table.values[i];
+        }
+        return grown;
+    }
+
+    // Empties the slot and moves later entries of the probe sequence back, so no lookup stops early at the hole
+    private static void shiftBack(Table table, int hole) {
+        int mask = table.values.length - 1;
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            if (table.values[index] == null) break;
+            int home = hash(table.mostSigBits[index], table.leastSigBits[index]) & mask;
+            // The entry may move into the hole only if the hole lies between its home slot and where it is now
+            boolean movable = hole <= index ? (home <= hole || home > index) : (home <= hole && home > index);
+            if (!movable) continue;
+            table.mostSigBits[hole] = table.mostSigBits[index];
+            table.leastSigBits[hole] = table.leastSigBits[index];
+            table.values[hole] = table.values[index];
+            hole = index;
+        }
+        table.values[hole] = null;
+    }
+
+    // The top bits pick the segment and the bottom bits the slot
+    private static int hash(long most, long least) {
+        long mixed = (most ^ Long.rotateLeft(least, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static String format(long most, long least) {
+        char[] chars = new char[32];
+        TypeChecker.writeHex(most, chars, 0);
+        TypeChecker.writeHex(least, chars, 16);
+        return new String(chars);
+    }
+}
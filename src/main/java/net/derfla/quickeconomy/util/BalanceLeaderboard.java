@@ -0,0 +1,275 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps every account ordered by balance, highest first, so ranks and leaderboard pages can be looked up in O(log n).
+ * Backed by a treap where every node knows the size of its subtree. Accounts with equal balance are ordered by UUID.
+ * The AccountCache updates it on every balance change.
+ */
+public class BalanceLeaderboard {
+
+    private static final class Node {
+        final double balance;
+        final String uuid;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(double balance, String uuid) {
+            this.balance = balance;
+            this.uuid = uuid;
+            this.priority = ThreadLocalRandom.current().nextInt();
+        }
+    }
+
+    /**
+     * An account on the leaderboard.
+     * @param uuid The trimmed UUID of the account.
+     * @param balance The balance the account is ranked by.
+     */
+    public record Entry(String uuid, double balance) {
+    }
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    // The node of each account, needed to find it again by the balance it is sorted by
+    private static final Map<String, Node> nodes = new HashMap<>();
+    private static Node root;
+
+    /**
+     * Rebuilds the leaderboard from the accounts. Is called by AccountCache.init().
+     * @param accounts All accounts, keyed by trimmed UUID.
+     */
+    public static void init(Map<String, PlayerAccount> accounts) {
+        lock.lock();
+        try {
+            root = null;
+            nodes.clear();
+            for (Map.Entry<String, PlayerAccount> entry : accounts.entrySet()) {
+                Node node = new Node(entry.getValue().balance(), entry.getKey());
+                root = insert(root, node);
+                nodes.put(entry.getKey(), node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves an account to the position of its new balance, or adds it if it is not on the leaderboard yet.
+     * @param uuid The trimmed UUID of the account.
+     * @param balance The current balance of the account.
+     */
+    public static void update(String uuid, double balance) {
+        lock.lock();
+        try {
+            Node previous = nodes.get(uuid);
+            if (previous != null) {
+                if (Double.compare(previous.balance, balance) == 0) return;
+                root = erase(root, previous.balance, uuid);
+                // Share the key of the old node, so each account holds one copy of its UUID
+                uuid = previous.uuid;
+            }
+            Node node = new Node(balance, uuid);
+            root = insert(root, node);
+            nodes.put(uuid, node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @return The position of the account, where 1 is the highest balance. 0 if the account is not on the leaderboard.
+     */
+    public static int getRank(String uuid) {
+        lock.lock();
+        try {
+            Node found = nodes.get(uuid);
+            if (found == null) return 0;
+            double balance = found.balance;
+            int rank = 0;
+            Node node = root;
+            while (node != null) {
+                int comparison = compare(balance, uuid, node);
+                if (comparison < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left) + 1;
+                    if (comparison == 0) return rank;
+                    node = node.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets one page of the leaderboard.
+     * @param page The page number, starting at 1.
+     * @param pageSize The number of accounts per page.
+     * @return The trimmed UUIDs on the page, highest balance first. Empty if the page is past the end.
+     */
+    public static List<String> getPage(int page, int pageSize) {
+        lock.lock();
+        try {
+            List<String> uuids = new ArrayList<>(pageSize);
+            int start = (page - 1) * pageSize;
+            int end = Math.min(start + pageSize, size(root));
+            for (int index = start; index < end; index++) {
+                uuids.add(select(index).uuid);
+            }
+            return uuids;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets one page of the leaderboard with the balances, so accounts that are not in the AccountCache don't have to be read.
+     * @param page The page number, starting at 1.
+     * @param pageSize The number of accounts per page.
+     * @return The accounts on the page, highest balance first. Empty if the page is past the end.
+     */
+    public static List<Entry> getEntries(int page, int pageSize) {
+        lock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>(pageSize);
+            int start = (page - 1) * pageSize;
+            int end = Math.min(start + pageSize, size(root));
+            for (int index = start; index < end; index++) {
+                Node node = select(index);
+                entries.add(new Entry(node.uuid, node.balance));
+            }
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @return The balance the account is ranked by, or NaN if the account is not on the leaderboard.
+     */
+    public static double getBalance(String uuid) {
+        lock.lock();
+        try {
+            Node node = nodes.get(uuid);
+            return node == null ? Double.NaN : node.balance;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of accounts on the leaderboard.
+     */
+    public static int size() {
+        lock.lock();
+        try {
+            return size(root);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Highest balance first, then UUID to keep the order total
+    private static int compare(double balance, String uuid, Node node) {
+        int comparison = Double.compare(node.balance, balance);
+        return comparison != 0 ? comparison : uuid.compareTo(node.uuid);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void resize(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    private static Node select(int index) {
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static Node insert(Node node, Node inserted) {
+        if (node == null) return inserted;
+        if (inserted.priority > node.priority) {
+            Node[] parts = split(node, inserted.balance, inserted.uuid);
+            inserted.left = parts[0];
+            inserted.right = parts[1];
+            resize(inserted);
+            return inserted;
+        }
+        if (compare(inserted.balance, inserted.uuid, node) < 0) {
+            node.left = insert(node.left, inserted);
+        } else {
+            node.right = insert(node.right, inserted);
+        }
+        resize(node);
+        return node;
+    }
+
+    private static Node erase(Node node, double balance, String uuid) {
+        if (node == null) return null;
+        int comparison = compare(balance, uuid, node);
+        if (comparison == 0) return merge(node.left, node.right);
+        if (comparison < 0) {
+            node.left = erase(node.left, balance, uuid);
+        } else {
+            node.right = erase(node.right, balance, uuid);
+        }
+        resize(node);
+        return node;
+    }
+
+    // Splits into the nodes sorted before the key and the nodes sorted after it
+    private static Node[] split(Node node, double balance, String uuid) {
+        if (node == null) return new Node[2];
+        if (compare(balance, uuid, node) > 0) {
+            Node[] parts = split(node.right, balance, uuid);
+            node.right = parts[0];
+            resize(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, balance, uuid);
+        node.left = parts[1];
+        resize(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            resize(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        resize(right);
+        return right;
+    }
+}
@@ -1,10 +1,8 @@
 package net.derfla.quickeconomy.util;
 
 import net.derfla.quickeconomy.Main;
-import net.derfla.quickeconomy.database.AccountManagement;
-import net.derfla.quickeconomy.database.TransactionManagement;
-import net.derfla.quickeconomy.file.BalanceFile;
-import org.bukkit.configuration.file.FileConfiguration;
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.model.PlayerAccount;
 import org.bukkit.plugin.Plugin;
 
 import java.time.Instant;
@@ -18,80 +16,67 @@ public class Balances {
     public static double getPlayerBalance(String uuid) {
         String trimmedUUID = TypeChecker.trimUUID(uuid);
 
-        if (Main.SQLMode) {
-            double balance = AccountManagement.displayBalance(trimmedUUID).join();
-            return balance;
+        if (WriteBehindQueue.isEnabled()) {
+            // Unknown on the server thread while the account is read, see AccountCache
+            PlayerAccount account = AccountCache.getPlayerAccount(trimmedUUID);
+            return account == null ? 0.0 : account.balance();
         }
-
-        FileConfiguration file = BalanceFile.get();
-
-        if (file == null){
-            plugin.getLogger().severe("balance.yml not found!");
-            return 0.0;
-        }
-
-
-        return AccountCache.getPlayerAccount(trimmedUUID).balance();
+        return Main.getStore().getBalance(trimmedUUID).join();
     }
 
     public static void setPlayerBalance(String uuid, double money) {
         String trimmedUUID = TypeChecker.trimUUID(uuid);
 
-        AccountCache.getPlayerAccount(trimmedUUID).balance(money);
-        if (Main.SQLMode) {
-            AccountManagement.setPlayerBalance(uuid, money, 0).join();
+        AccountCache.setBalance(trimmedUUID, money);
+        if (WriteBehindQueue.isEnabled()) {
+            WriteBehindQueue.markDirty(trimmedUUID);
             return;
         }
-
-        FileConfiguration file = BalanceFile.get();
-        if (file == null){
-            plugin.getLogger().warning("balance.yml not found!");
-            return;
-        }
-        file.set("players." + trimmedUUID + ".balance", money);
-        BalanceFile.save();
+        Main.getStore().setBalance(trimmedUUID, money).join();
     }
 
     public static void addPlayerBalance(String uuid, double money){
         String trimmedUUID = TypeChecker.trimUUID(uuid);
-        if (uuid != null) addPlayerBalanceChange(trimmedUUID, money);
-        setPlayerBalance(trimmedUUID, getPlayerBalance(trimmedUUID) + money);
+        changePlayerBalance(trimmedUUID, money, money);
     }
 
     public static void subPlayerBalance(String uuid, double money){
         String trimmedUUID = TypeChecker.trimUUID(uuid);
-        setPlayerBalance(trimmedUUID, getPlayerBalance(trimmedUUID) - money);
+        changePlayerBalance(trimmedUUID, -money, 0);
+    }
+
+    // Applies the amounts to the cache atomically, then stores them as a relative update so concurrent changes are never lost
+    private static void changePlayerBalance(String trimmedUUID, double balance, double change) {
+        if (balance != 0) AccountCache.addBalance(trimmedUUID, balance);
+        if (change != 0) AccountCache.addChange(trimmedUUID, change);
+        if (WriteBehindQueue.isEnabled()) {
+            WriteBehindQueue.markDirty(trimmedUUID);
+            return;
+        }
+        Main.getStore().applyDelta(trimmedUUID, balance, change).join();
     }
 
     public static double getPlayerBalanceChange(String uuid) {
         String trimmedUUID = TypeChecker.trimUUID(uuid);
-        return  AccountCache.getPlayerAccount(trimmedUUID).change();
+        PlayerAccount account = AccountCache.getPlayerAccount(trimmedUUID);
+        return account == null ? 0.0 : account.change();
     }
 
     public static void setPlayerBalanceChange(String uuid, double moneyChange) {
         String trimmedUUID = TypeChecker.trimUUID(uuid);
 
-        AccountCache.getPlayerAccount(trimmedUUID).change(moneyChange);
-
-        if(Main.SQLMode) {
-
-            AccountManagement.setPlayerBalanceChange(trimmedUUID, moneyChange).join();
-            return;
-        }
-
-        FileConfiguration file = BalanceFile.get();
+        AccountCache.setChange(trimmedUUID, moneyChange);
 
-        if (file == null){
-            plugin.getLogger().warning("balance.yml not found!");
+        if (WriteBehindQueue.isEnabled()) {
+            WriteBehindQueue.markDirty(trimmedUUID);
             return;
         }
-
-        file.set("players." + trimmedUUID + ".change", moneyChange);
-        BalanceFile.save();
+        Main.getStore().setChange(trimmedUUID, moneyChange).join();
     }
 
     public static void addPlayerBalanceChange(String uuid, double money) {
-        setPlayerBalanceChange(uuid, getPlayerBalanceChange(uuid) + money);
+        String trimmedUUID = TypeChecker.trimUUID(uuid);
+        changePlayerBalance(trimmedUUID, 0, money);
     }
 
     public static boolean hasAccountUUID(String uuid) {
@@ -104,79 +89,67 @@ public class Balances {
         return AccountCache.accountExistsName(playerName);
     }
 
-    public static void executeTransaction(String transactType, String induce, String source,
+    /**
+     * Moves money from source to destination. The transfer is rejected if the source can't afford it.
+     * @param source UUID of the paying player. Null for bank deposits.
+     * @param destination UUID of the receiving player. Null for bank withdrawals.
+     * @return True if the transfer went through. False if the source did not have enough money.
+     */
+    public static boolean executeTransaction(String transactType, String induce, String source,
                                           String destination, double amount, String transactionMessage) {
 
         String sourceUUID = TypeChecker.trimUUID(source);
         String destinationUUID = TypeChecker.trimUUID(destination);
 
-        if(Main.SQLMode) {
-            TransactionManagement.executeTransaction(transactType, induce, source, destination, amount, transactionMessage).join();
-            if (source != null) AccountCache.getPlayerAccount(sourceUUID).balance(AccountCache.getPlayerAccount(sourceUUID).balance() - amount);
-            if (destination != null) AccountCache.getPlayerAccount(destinationUUID).balance(AccountCache.getPlayerAccount(destinationUUID).balance() + amount);
-            return;
+        if (WriteBehindQueue.isEnabled()) {
+            // Apply to the cache right away, the queue takes care of storage
+            Double newSourceBalance = null;
+            Double newDestinationBalance = null;
+            boolean passed = true;
+            if (source != null) {
+                double balance = AccountCache.subtractBalanceIfSufficient(sourceUUID, amount);
+                passed = !Double.isNaN(balance);
+                if (passed) {
+                    newSourceBalance = balance;
+                    WriteBehindQueue.markDirty(sourceUUID);
+                }
+            }
+            if (passed && destination != null) {
+                newDestinationBalance = AccountCache.addBalance(destinationUUID, amount);
+                AccountCache.addChange(destinationUUID, amount);
+                WriteBehindQueue.markDirty(destinationUUID);
+            }
+            if (Main.getStore().hasHistory()) {
+                String currentUTCTimeString = Instant.now().atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS"));
+                WriteBehindQueue.addTransaction(new PendingTransaction(currentUTCTimeString, transactType, induce, sourceUUID, destinationUUID,
+                        newSourceBalance, newDestinationBalance, amount, transactionMessage, passed));
+            }
+            return passed;
         }
-        if (source != null)
-            subPlayerBalance(source, amount);
-        if (destination != null)
-            addPlayerBalance(destination, amount);
 
+        return Main.getStore().transfer(transactType, induce, source, destination, amount, transactionMessage).join();
     }
 
     public static void updatePlayerName(String uuid, String name) {
 
+        if (!AccountCache.setName(uuid, name)) return;
 
-        AccountCache.getPlayerAccount(uuid).name(name);
-
-        if (Main.SQLMode) {
-
-            AccountManagement.updatePlayerName(uuid, name).join();
-            return;
-        }
-        FileConfiguration file = BalanceFile.get();
-
-        if (file == null){
-            plugin.getLogger().severe("balance.yml not found!");
-            return;
-        }
-        
-        // Check if the current name is different before updating
-        String currentName = file.getString("players." + uuid + ".name");
-        if (currentName != null && currentName.equals(name)) {
-            // Name hasn't changed, no need to update
+        if (WriteBehindQueue.isEnabled()) {
+            WriteBehindQueue.markDirty(uuid);
             return;
         }
-        
-        // Name has changed or is new, proceed with update
-        file.set("players." + uuid + ".name", name);
-        BalanceFile.save();
-        
-        // Log only if there was an actual name change (not initial setting)
-        if (currentName != null) {
-            plugin.getLogger().info("Updated player name for UUID " + TypeChecker.untrimUUID(uuid) + ": " + currentName + " -> " + name);
-        }
+        Main.getStore().setName(uuid, name).join();
     }
 
     public static void addAccount(String uuid, String name) {
 
         AccountCache.addAccount(uuid, name);
 
-        if (Main.SQLMode) {
-            AccountManagement.addAccount(uuid, name, 0.0, 0.0, result -> {}).join();
-            return;
-        }
-        FileConfiguration file = BalanceFile.get();
-
-        if (file == null){
-            plugin.getLogger().severe("balance.yml not found!");
+        if (WriteBehindQueue.isEnabled()) {
+            WriteBehindQueue.markNew(uuid);
             return;
         }
-        String timeStamp = TypeChecker.convertToUTC(Instant.now().atZone(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-        file.set("players." + uuid + ".name", name);
-        file.set("players." + uuid + ".balance", 0.0);
-        file.set("players." + uuid + ".change", 0.0);
-        file.set("players." + uuid + ".created", timeStamp);
-        BalanceFile.save();
+        Main.getStore().createAccount(uuid, AccountCache.getPlayerAccount(uuid)).join();
     }
 
     /**
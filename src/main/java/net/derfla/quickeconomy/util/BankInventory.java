@@ -95,7 +95,10 @@ public class BankInventory implements InventoryHolder {
                         target.sendMessage(Component.translatable("balance.notenough", Styles.ERRORSTYLE));
                         return true;
                     }
-                    Balances.executeTransaction("withdrawal", "bank", String.valueOf(target.getUniqueId()), null, exchangeRate * diamondAmount, "");
+                    if (!Balances.executeTransaction("withdrawal", "bank", String.valueOf(target.getUniqueId()), null, exchangeRate * diamondAmount, "")) {
+                        target.sendMessage(Component.translatable("balance.notenough", Styles.ERRORSTYLE));
+                        return true;
+                    }
                     target.getInventory().addItem(new ItemStack(Material.DIAMOND, diamondAmount));
                     return true;
                 case GOLD_INGOT:
@@ -105,7 +108,7 @@ public class BankInventory implements InventoryHolder {
                 case GOLD_BLOCK:
                     // Check balance logic
                     target.closeInventory();
-                    target.sendMessage(Component.translatable("balance.see", Component.text(Balances.getPlayerBalance(String.valueOf(target.getUniqueId())))).style(Styles.INFOSTYLE));
+                    target.sendMessage(Component.translatable("balance.see", Component.text(Money.format(Balances.getPlayerBalance(String.valueOf(target.getUniqueId()))))).style(Styles.INFOSTYLE));
                     return true;
                 default:
                     // Do nothing for other item types
@@ -1,37 +1,54 @@
 package net.derfla.quickeconomy.util;
 
 import net.derfla.quickeconomy.Main;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.block.Block;
 import org.bukkit.block.Chest;
 import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.Plugin;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class BlockOwner {
 
     static Plugin plugin = Main.getInstance();
     static NamespacedKey lockedKey = new NamespacedKey(plugin, "playerLocked");
     static NamespacedKey shopOpenKey = new NamespacedKey(plugin, "shopOpen");
+    // Owners of chests in loaded chunks, by world, chunk and block. An empty list means the chest is not locked
+    private static final Map<UUID, Map<Long, Map<Long, List<String>>>> ownerCache = new ConcurrentHashMap<>();
 
     public static boolean isLockedForPlayer (Chest chest, String playerUUID) {
-        if (!chest.getPersistentDataContainer().has(lockedKey)) return false;
-        if (chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING) == null) return false;
-        String nbt = chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING);
-        if (nbt == null) return false;
-        if (nbt.contains(" ")) {
-            String[] splitNBT = nbt.split(" ");
-            if (splitNBT[0].equals(playerUUID) || splitNBT[1].equals(playerUUID)) return false;
-        }
-        if (nbt.equals(playerUUID)) return false;
-        return true;
+        List<String> owners = owners(chest);
+        if (owners.isEmpty()) return false;
+        return !owners.contains(playerUUID);
     }
 
     public static boolean isLocked (Chest chest) {
-        if (!chest.getPersistentDataContainer().has(lockedKey)) return false;
-        if (chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING) == null) return false;
-        return true;
+        return !owners(chest).isEmpty();
+    }
+
+    /**
+     * Checks the cache before reading the block state, so repeated checks of the same chest, like from hoppers, are cheap.
+     * @param block A block.
+     * @return True if the block is a chest locked to a player.
+     */
+    public static boolean isLocked (Block block) {
+        Material type = block.getType();
+        if (type != Material.CHEST && type != Material.TRAPPED_CHEST) {
+            // The chest may have been removed without a break event, like by an explosion or a plugin
+            forget(block);
+            return false;
+        }
+        List<String> owners = cached(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ());
+        if (owners != null) return !owners.isEmpty();
+        if (!(block.getState() instanceof Chest chest)) return false;
+        return isLocked(chest);
     }
 
     public static void setPlayerLocked(Chest chest, String playerUUID, String player2UUID) {
@@ -41,6 +58,7 @@ public class BlockOwner {
         }else nbtValue = playerUUID + " " + player2UUID;
         chest.getPersistentDataContainer().set(lockedKey, PersistentDataType.STRING, nbtValue);
         chest.update();
+        remember(chest, parseOwners(nbtValue));
         if (nbtValue.equals(playerUUID)) {
             plugin.getLogger().info("Locked chest to: " + playerUUID);
             return;
@@ -52,6 +70,7 @@ public class BlockOwner {
         String nbt = chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING);
         chest.getPersistentDataContainer().remove(lockedKey);
         chest.update();
+        remember(chest, List.of());
         if (nbt == null) {
             plugin.getLogger().info("Unlocked a chest!");
             return;
@@ -73,35 +92,106 @@ public class BlockOwner {
         return chest.getPersistentDataContainer().has(shopOpenKey, PersistentDataType.BOOLEAN);
     }
 
-    public static void convertChestKeyToUUID(Chest chest) {
-        if (!chest.getPersistentDataContainer().has(lockedKey)) return;
-        if (chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING) == null) return;
-        String oldKey = chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING);
-        // Check if oldKey already is new format
-        if((oldKey.contains(" ") && oldKey.length() == 65) || oldKey.length() == 32) return;
+    /**
+     * @param chest The chest.
+     * @return The player names of a lock made before UUIDs were used, empty if the chest is not locked or its lock uses UUIDs.
+     */
+    public static List<String> getLegacyOwners(Chest chest) {
+        List<String> owners = owners(chest);
+        // Check if the owners already are in the new format
+        if (owners.stream().allMatch(owner -> owner.length() == 32)) return List.of();
+        return owners;
+    }
+
+    /**
+     * Replaces the player names in a lock made before UUIDs were used. See LockConversion.
+     * @param chest The chest.
+     * @param uuidOf Gives the trimmed UUID of a player name, or null if it is not known.
+     * @return True if the lock was converted. False if it already used UUIDs, or an owner has no known UUID.
+     */
+    public static boolean convertChestKeyToUUID(Chest chest, Function<String, String> uuidOf) {
+        List<String> owners = getLegacyOwners(chest);
+        if (owners.isEmpty()) return false;
 
-        String newKey;
-        if(oldKey.contains(" ")) {
-            String[] splitOldKey = oldKey.split(" ");
-            newKey = Balances.getUUID(splitOldKey[0]) + " " + Balances.getUUID(splitOldKey[1]);
-        } else {
-            newKey = Balances.getUUID(oldKey);
+        String newKey = null;
+        for (String owner : owners) {
+            String uuid = owner.length() == 32 ? owner : uuidOf.apply(owner);
+            // An unknown name would lock the chest to nobody, so the old lock is kept
+            if (uuid == null || uuid.isEmpty()) return false;
+            newKey = newKey == null ? uuid : newKey + " " + uuid;
         }
-        assert newKey != null;
         chest.getPersistentDataContainer().set(lockedKey, PersistentDataType.STRING, newKey);
         chest.update();
+        remember(chest, parseOwners(newKey));
+        return true;
     }
 
     public static List<String> getChestOwner(Chest chest){
-        List<String> owner = new ArrayList<>();
-        if (!chest.getPersistentDataContainer().has(lockedKey)) return null;
-        if (chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING) == null) return null;
-        String key = chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING);
-        if(key.contains(" ")) {
-            return List.of(key.split(" "));
+        List<String> owners = owners(chest);
+        return owners.isEmpty() ? null : owners;
+    }
+
+    /**
+     * Drops the cached owners of a block. Is called when a chest is placed or broken.
+     * @param block The block.
+     */
+    public static void forget(Block block) {
+        Map<Long, List<String>> chunk = chunkCache(block.getWorld().getUID(), block.getX() >> 4, block.getZ() >> 4, false);
+        if (chunk != null) chunk.remove(blockKey(block.getX(), block.getY(), block.getZ()));
+    }
+
+    /**
+     * Drops the cached owners of every block in a chunk. Is called when the chunk unloads, which keeps the cache to loaded chunks.
+     * @param chunk The chunk.
+     */
+    public static void forget(Chunk chunk) {
+        Map<Long, Map<Long, List<String>>> world = ownerCache.get(chunk.getWorld().getUID());
+        if (world != null) world.remove(chunkKey(chunk.getX(), chunk.getZ()));
+    }
+
+    // The owners of a chest, empty if it is not locked. The tag is read and split once, later calls are answered from the cache
+    private static List<String> owners(Chest chest) {
+        List<String> owners = cached(chest.getWorld().getUID(), chest.getX(), chest.getY(), chest.getZ());
+        if (owners != null) return owners;
+        owners = parseOwners(chest.getPersistentDataContainer().get(lockedKey, PersistentDataType.STRING));
+        remember(chest, owners);
+        return owners;
+    }
+
+    private static List<String> parseOwners(String nbt) {
+        if (nbt == null) return List.of();
+        String[] splitNBT = nbt.split(" ");
+        if (splitNBT.length >= 2) return List.of(splitNBT[0], splitNBT[1]);
+        return List.of(nbt.trim());
+    }
+
+    private static List<String> cached(UUID world, int x, int y, int z) {
+        Map<Long, List<String>> chunk = chunkCache(world, x >> 4, z >> 4, false);
+        if (chunk == null) return null;
+        return chunk.get(blockKey(x, y, z));
+    }
+
+    private static void remember(Chest chest, List<String> owners) {
+        chunkCache(chest.getWorld().getUID(), chest.getX() >> 4, chest.getZ() >> 4, true)
+                .put(blockKey(chest.getX(), chest.getY(), chest.getZ()), owners);
+    }
+
+    private static Map<Long, List<String>> chunkCache(UUID world, int chunkX, int chunkZ, boolean create) {
+        if (!create) {
+            Map<Long, Map<Long, List<String>>> chunks = ownerCache.get(world);
+            return chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
         }
-        owner.add(key);
-        return owner;
+        return ownerCache.computeIfAbsent(world, uid -> new ConcurrentHashMap<>())
+                .computeIfAbsent(chunkKey(chunkX, chunkZ), key -> new ConcurrentHashMap<>());
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (chunkX & 0xFFFFFFFFL) | ((chunkZ & 0xFFFFFFFFL) << 32);
+    }
+
+    // Only needs to be unique within a chunk
+    private static long blockKey(int x, int y, int z) {
+        return ((long) y << 8) | ((z & 0xF) << 4) | (x & 0xF);
     }
 
 }
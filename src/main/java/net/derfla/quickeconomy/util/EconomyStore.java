@@ -0,0 +1,158 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.model.PlayerAccount;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Where accounts, transactions and empty shops are stored. One store is chosen at startup, see Main.getStore().
+ * <p>
+ * The AccountCache is updated before a store is called, so the methods that write an account only persist a change that
+ * has already been made in the cache. Stores that can't express a change on its own, like balance.yml, may write the
+ * current cached state of the account instead. The exception is transfer(), which must check and apply the transfer
+ * itself, since only the store knows if the source can afford it.
+ * <p>
+ * Stores without transaction history or empty shop tracking return empty results rather than failing.
+ */
+public interface EconomyStore {
+
+    /**
+     * @return The name of the store, shown in /quickeconomy setup.
+     */
+    String name();
+
+    /**
+     * Reads every account. Is used to fill the AccountCache.
+     * @return The accounts, keyed by trimmed UUID.
+     */
+    CompletableFuture<Map<String, PlayerAccount>> loadAccounts();
+
+    /**
+     * Reads every account one at a time, without holding them all in memory. Is used to warm up the AccountCache.
+     * @param fetchSize The number of accounts read from storage at a time, where the store supports it.
+     * @param consumer Receives the trimmed UUID and the account of every stored account.
+     * @return The number of accounts read.
+     */
+    CompletableFuture<Integer> streamAccounts(int fetchSize, BiConsumer<String, PlayerAccount> consumer);
+
+    /**
+     * Reads a single account. Is used for accounts the AccountCache has not loaded yet.
+     * @param uuid The trimmed UUID of the account.
+     * @return The account, or null if there is no such account or the store can't read single accounts.
+     */
+    CompletableFuture<PlayerAccount> getAccount(String uuid);
+
+    /**
+     * @param playerName The name of the player.
+     * @return The trimmed UUID of the account with the name, or null if there is none or the store can't look names up.
+     */
+    CompletableFuture<String> findUUID(String playerName);
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @return The stored balance, or 0 if there is no such account.
+     */
+    CompletableFuture<Double> getBalance(String uuid);
+
+    /**
+     * Stores a new account.
+     * @param uuid The trimmed UUID of the account.
+     * @param account The account.
+     */
+    CompletableFuture<Void> createAccount(String uuid, PlayerAccount account);
+
+    /**
+     * Adds to the balance and change of an account.
+     * @param uuid The trimmed UUID of the account.
+     * @param balanceDelta The amount to add to the balance. Negative to subtract.
+     * @param changeDelta The amount to add to the change.
+     */
+    CompletableFuture<Void> applyDelta(String uuid, double balanceDelta, double changeDelta);
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @param balance The new balance.
+     */
+    CompletableFuture<Void> setBalance(String uuid, double balance);
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @param change The new change.
+     */
+    CompletableFuture<Void> setChange(String uuid, double change);
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @param name The new name.
+     */
+    CompletableFuture<Void> setName(String uuid, String name);
+
+    /**
+     * Stores a batch of accounts and transactions, all or nothing where the store supports it. Is used by the WriteBehindQueue.
+     * @param created Accounts created since the last batch, keyed by trimmed UUID.
+     * @param changed Accounts changed since the last batch, keyed by trimmed UUID.
+     * @param transactions Transactions to record, in the order they happened.
+     */
+    CompletableFuture<Void> saveBatch(Map<String, PlayerAccount> created, Map<String, PlayerAccount> changed, List<PendingTransaction> transactions);
+
+    /**
+     * Moves money from one account to another and updates the AccountCache.
+     * @param transactType The type of the transaction.
+     * @param induce What caused the transaction.
+     * @param source The UUID of the source, null if the money is created.
+     * @param destination The UUID of the destination, null if the money is removed.
+     * @param amount The amount to move.
+     * @param transactionMessage A message to store with the transaction, may be null.
+     * @return True if the transfer was made, false if the source could not afford it.
+     */
+    CompletableFuture<Boolean> transfer(String transactType, String induce, String source, String destination, double amount, String transactionMessage);
+
+    /**
+     * @return If the store keeps a transaction history.
+     */
+    boolean hasHistory();
+
+    /**
+     * @param uuid The UUID of the player.
+     * @param passed Only count passed transactions if true, only failed if false, all if null.
+     * @return The number of transactions involving the player.
+     */
+    CompletableFuture<Integer> countHistory(String uuid, Boolean passed);
+
+    /**
+     * @param uuid The UUID of the player.
+     * @param passed Only show passed transactions if true, only failed if false, all if null.
+     * @param page The page number, starting at 1.
+     * @return One page of transactions, formatted for chat. Empty if there are none.
+     */
+    CompletableFuture<String> historyPage(String uuid, Boolean passed, int page);
+
+    /**
+     * Records that a shop is empty.
+     * @param coordinates The coordinates of the shop chest, as "x,y,z".
+     * @param owner The trimmed UUID of the owner.
+     * @param owner2 The trimmed UUID of the second owner, empty if there is none.
+     * @return True if the owners should be told about it.
+     */
+    CompletableFuture<Boolean> addEmptyShop(String coordinates, String owner, String owner2);
+
+    /**
+     * @param coordinates The coordinates of the shop chest, as "x,y,z".
+     */
+    CompletableFuture<Void> removeEmptyShop(String coordinates);
+
+    /**
+     * @param uuid The UUID of the owner.
+     * @return The coordinates of every empty shop the player owns.
+     */
+    CompletableFuture<List<String>> listEmptyShops(String uuid);
+
+    /**
+     * Makes everything written so far durable and compacts the store where it can.
+     */
+    CompletableFuture<Void> snapshot();
+}
@@ -1,115 +1,65 @@
 package net.derfla.quickeconomy.util;
 
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
 import org.bukkit.block.Chest;
 import org.bukkit.block.Sign;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.EnumMap;
+import java.util.Map;
 
 public class FindChest {
 
-    public static Chest get(Sign sign){
-        Pattern pattern = Pattern.compile("facing=([a-z]+)");
-        Matcher matcher = pattern.matcher(sign.getBlock().toString());
+    // The side of a right half chest the left half is on, by the way the chest faces. The left half has its right half on the opposite side
+    private static final Map<BlockFace, BlockFace> OTHER_HALF_OF_RIGHT = new EnumMap<>(BlockFace.class);
 
-        if (!matcher.find()) return null;
-        String facing = matcher.group(1);
-        Location signLocation = sign.getLocation();
-        Block block;
-        switch (facing) {
-            case "north":
-                block = signLocation.getBlock().getRelative(0, 0, 1);
-                break;
-            case "east":
-                block = signLocation.getBlock().getRelative(-1, 0, 0);
-                break;
-            case "south":
-                block = signLocation.getBlock().getRelative(0, 0, -1);
-                break;
-            case "west":
-                block = signLocation.getBlock().getRelative(1, 0, 0);
-                break;
-            default:
-                block = null;
-                break;
-        }
-        if (block == null) return null;
-        if (!(block.getState() instanceof Chest)) return null;
+    static {
+        OTHER_HALF_OF_RIGHT.put(BlockFace.NORTH, BlockFace.WEST);
+        OTHER_HALF_OF_RIGHT.put(BlockFace.WEST, BlockFace.SOUTH);
+        OTHER_HALF_OF_RIGHT.put(BlockFace.SOUTH, BlockFace.EAST);
+        OTHER_HALF_OF_RIGHT.put(BlockFace.EAST, BlockFace.NORTH);
+    }
+
+    public static Chest get(Sign sign){
+        // The chest is behind the sign, on the side opposite to where the sign faces
+        if (!(sign.getBlockData() instanceof Directional directional)) return null;
+        if (!OTHER_HALF_OF_RIGHT.containsKey(directional.getFacing())) return null;
+        Block block = sign.getBlock().getRelative(directional.getFacing().getOppositeFace());
         if (!block.getType().equals(Material.CHEST)) return null;
-        return (Chest) block.getState();
+        return block.getState() instanceof Chest chest ? chest : null;
     }
+
     public static boolean topLocked(Block block) {
         Block topBlock = block.getRelative(0, 1, 0);
         if (topBlock == null) return false;
         if (!topBlock.getType().equals(Material.CHEST)) return false;
-        if (!(topBlock.getState() instanceof Chest)) return false;
-        return BlockOwner.isLocked((Chest) topBlock.getState());
+        return BlockOwner.isLocked(topBlock);
     }
 
     public static boolean isDouble (Chest chest) {
-        Pattern pattern = Pattern.compile("type=([a-z]+)");
-        Matcher matcher = pattern.matcher(chest.getBlock().toString());
-        if (!matcher.find()) return false;
-        String type = matcher.group(1);
-        if (type.equals("single")) return false;
-        return true;
+        if (!(chest.getBlockData() instanceof org.bukkit.block.data.type.Chest chestData)) return false;
+        return chestData.getType() != org.bukkit.block.data.type.Chest.Type.SINGLE;
     }
 
     public static Chest get(Chest chest) {
-        Pattern pattern = Pattern.compile("type=([a-z]+)");
-        Matcher matcher = pattern.matcher(chest.getBlock().toString());
-        if (!matcher.find()) return null;
-        String type = matcher.group(1);
-        boolean isRight;
-        if (type.equals("right")) {
-            isRight = true;
-        } else if (type.equals("left")) {
-            isRight = false;
-        } else return null;
-
-        Pattern pattern2 = Pattern.compile("facing=([a-z]+)");
-        Matcher matcher2 = pattern2.matcher(chest.getBlock().toString());
-        if (!matcher2.find()) return null;
-        String facing = matcher2.group(1);
-        Block block;
-        switch (facing) {
-            case "north":
-                if (isRight) {
-                    block = chest.getBlock().getRelative(-1, 0, 0);
-                    break;
-                }
-                block = chest.getBlock().getRelative(1, 0, 0);
-                break;
-            case "west":
-                if (isRight) {
-                    block = chest.getBlock().getRelative(0, 0, 1);
-                    break;
-                }
-                block = chest.getBlock().getRelative(0, 0, -1);
+        BlockData blockData = chest.getBlockData();
+        if (!(blockData instanceof org.bukkit.block.data.type.Chest chestData)) return null;
+        BlockFace otherHalf = OTHER_HALF_OF_RIGHT.get(chestData.getFacing());
+        if (otherHalf == null) return null;
+        switch (chestData.getType()) {
+            case RIGHT:
                 break;
-            case "south":
-                if (isRight) {
-                    block = chest.getBlock().getRelative(1, 0, 0);
-                    break;
-                }
-                block = chest.getBlock().getRelative(-1, 0, 0);
-                break;
-            case "east":
-                if (isRight){
-                    block = chest.getBlock().getRelative(0, 0, -1);
-                    break;
-                }
-                block = chest.getBlock().getRelative(0, 0, 1);
+            case LEFT:
+                otherHalf = otherHalf.getOppositeFace();
                 break;
             default:
-                block = null;
-                break;
+                return null;
         }
-        if (block == null) return null;
-        if (!(block.getState() instanceof Chest)) return null;
-        return (Chest) block.getState();
+        BlockState state = chest.getBlock().getRelative(otherHalf).getState();
+        return state instanceof Chest otherChest ? otherChest : null;
     }
 }
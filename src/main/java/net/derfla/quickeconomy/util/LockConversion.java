@@ -0,0 +1,186 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.Main;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts chest locks made before UUIDs were used, when they were keyed by player name. Loaded chunks are queued and converted
+ * chest by chest on the main thread, within a time budget per tick. A chunk is marked once every lock in it uses UUIDs,
+ * so it is never scanned again.
+ * <p>
+ * Names are only looked up in the AccountCache on the main thread. Names it doesn't know are read from storage in the background,
+ * and their chunks are converted again afterwards. A chunk with a name that has no account stays unmarked and is tried again
+ * when a chest in it is used or the chunk loads again.
+ * <p>
+ * Chests are only checked when they are used while their chunk is still queued or has unconverted locks. Once every loaded chunk
+ * has been converted, opening a chest doesn't check for legacy locks at all.
+ */
+public class LockConversion {
+
+    static Plugin plugin = Main.getInstance();
+    static NamespacedKey convertedKey = new NamespacedKey(plugin, "locksConverted");
+
+    private record PendingChunk(UUID world, int x, int z) {}
+
+    // Insertion ordered, so chunks are converted in the order they loaded. Only used on the main thread
+    private static final LinkedHashSet<PendingChunk> pending = new LinkedHashSet<>();
+    // Loaded chunks with locks whose names could not be converted yet. Only used on the main thread
+    private static final Set<PendingChunk> unresolved = new HashSet<>();
+    // Lower case names read from storage, so a name without an account is only looked up once
+    private static final Set<String> lookedUp = ConcurrentHashMap.newKeySet();
+    private static boolean enabled;
+    private static long tickBudgetNanos;
+    private static int converted;
+
+    /**
+     * Reads the config, queues every loaded chunk and starts the conversion task. Is called once in onEnable.
+     */
+    public static void init() {
+        enabled = plugin.getConfig().getBoolean("lockConversion.enabled", true);
+        if (!enabled) return;
+        long tickBudget = plugin.getConfig().getLong("lockConversion.tickBudget", 2);
+        if (tickBudget < 1) {
+            tickBudget = 2;
+            plugin.getLogger().warning("lockConversion.tickBudget must be at least 1, using default (2).");
+        }
+        tickBudgetNanos = tickBudget * 1_000_000L;
+        for (World world : Bukkit.getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                enqueue(chunk);
+            }
+        }
+        Bukkit.getScheduler().runTaskTimer(plugin, LockConversion::run, 1L, 1L);
+    }
+
+    /**
+     * Queues a chunk, unless it has been converted before.
+     * @param chunk The loaded chunk.
+     */
+    public static void enqueue(Chunk chunk) {
+        if (!enabled) return;
+        if (chunk.getPersistentDataContainer().has(convertedKey)) return;
+        pending.add(new PendingChunk(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * Takes an unloaded chunk off the queue. It is queued again the next time it loads.
+     * @param chunk The chunk.
+     */
+    public static void dequeue(Chunk chunk) {
+        if (pending.isEmpty() && unresolved.isEmpty()) return;
+        PendingChunk pendingChunk = new PendingChunk(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+        pending.remove(pendingChunk);
+        unresolved.remove(pendingChunk);
+    }
+
+    /**
+     * Converts the lock of a chest used before the task got to its chunk. Does nothing once the queue is empty.
+     * @param chest The chest.
+     */
+    public static void convertIfPending(Chest chest) {
+        if (pending.isEmpty() && unresolved.isEmpty()) return;
+        PendingChunk pendingChunk = new PendingChunk(chest.getWorld().getUID(), chest.getX() >> 4, chest.getZ() >> 4);
+        if (!pending.contains(pendingChunk) && !unresolved.contains(pendingChunk)) return;
+        if (BlockOwner.convertChestKeyToUUID(chest, AccountCache::getCachedUUID)) {
+            converted++;
+            return;
+        }
+        List<String> names = BlockOwner.getLegacyOwners(chest);
+        if (names.isEmpty()) return;
+        unresolved.add(pendingChunk);
+        lookUp(names);
+    }
+
+    private static void run() {
+        if (pending.isEmpty()) return;
+        long deadline = System.nanoTime() + tickBudgetNanos;
+        Iterator<PendingChunk> iterator = pending.iterator();
+        while (iterator.hasNext() && System.nanoTime() < deadline) {
+            PendingChunk next = iterator.next();
+            World world = Bukkit.getWorld(next.world());
+            if (world != null && world.isChunkLoaded(next.x(), next.z()) && !convert(next, world.getChunkAt(next.x(), next.z()), deadline)) {
+                // Out of time within the chunk, it is scanned again from the start next tick
+                break;
+            }
+            iterator.remove();
+        }
+        if (pending.isEmpty() && converted > 0) {
+            plugin.getLogger().info("Converted " + converted + " chest locks from player names to UUIDs.");
+            converted = 0;
+        }
+    }
+
+    // Converts the locks of a chunk and marks it if every lock uses UUIDs. Returns false if the deadline passed before the last chest
+    private static boolean convert(PendingChunk pendingChunk, Chunk chunk, long deadline) {
+        int convertedInChunk = 0;
+        Set<String> unknownNames = new HashSet<>();
+        for (BlockState state : chunk.getTileEntities()) {
+            if (!(state instanceof Chest chest)) continue;
+            List<String> names = BlockOwner.getLegacyOwners(chest);
+            if (names.isEmpty()) continue;
+            if (!BlockOwner.convertChestKeyToUUID(chest, AccountCache::getCachedUUID)) {
+                unknownNames.addAll(names);
+                continue;
+            }
+            convertedInChunk++;
+            // Only converted chests are checked, the others cost a cache lookup. Converted chests are skipped on the next attempt
+            if (System.nanoTime() >= deadline) {
+                finish(chunk, convertedInChunk);
+                return false;
+            }
+        }
+        if (unknownNames.isEmpty()) {
+            unresolved.remove(pendingChunk);
+            chunk.getPersistentDataContainer().set(convertedKey, PersistentDataType.BOOLEAN, true);
+        } else {
+            unresolved.add(pendingChunk);
+            lookUp(unknownNames);
+        }
+        finish(chunk, convertedInChunk);
+        return true;
+    }
+
+    private static void finish(Chunk chunk, int convertedInChunk) {
+        converted += convertedInChunk;
+        // The registry skips shops locked to names, so it has to look at the chunk again
+        if (convertedInChunk > 0) ShopRegistry.reindexChunk(chunk);
+    }
+
+    // Reads the accounts of names the AccountCache doesn't know in the background, then queues the unresolved chunks again
+    private static void lookUp(Collection<String> names) {
+        List<String> newNames = new ArrayList<>();
+        for (String name : names) {
+            if (name.length() != 32 && lookedUp.add(name.toLowerCase(Locale.ROOT))) newNames.add(name);
+        }
+        if (newNames.isEmpty()) return;
+        Main.getExecutorService().execute(() -> {
+            boolean found = false;
+            for (String name : newNames) {
+                found |= AccountCache.accountExistsName(name);
+            }
+            if (!found) return;
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                pending.addAll(unresolved);
+                unresolved.clear();
+            });
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package net.derfla.quickeconomy.util;
+
+import java.math.BigDecimal;
+
+/**
+ * Money as a whole number of cents in a long. Balances are stored as DECIMAL(19,2), so this is exactly what the database
+ * holds. Doing the arithmetic in cents means adding and subtracting never drifts, and nothing is allocated on the way.
+ * <p>
+ * The plugin API still takes and returns doubles. They are converted with toCents() at the edges and back with toDouble().
+ */
+public class Money {
+
+    public static final long CENTS_PER_UNIT = 100;
+
+    /**
+     * @param amount An amount of money.
+     * @return The amount in cents, rounded half away from zero.
+     */
+    public static long toCents(double amount) {
+        if (Double.isNaN(amount)) throw new IllegalArgumentException("Amount is not a number");
+        return Math.round(Math.abs(amount) * CENTS_PER_UNIT) * (amount < 0 ? -1 : 1);
+    }
+
+    /**
+     * @param cents An amount in cents.
+     * @return The amount as a double. Exact to two decimals when printed.
+     */
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_UNIT;
+    }
+
+    /**
+     * @param amount An amount of money.
+     * @return The amount rounded to two decimals.
+     */
+    public static double round(double amount) {
+        return toDouble(toCents(amount));
+    }
+
+    /**
+     * @param cents An amount in cents.
+     * @return The amount with a scale of two, for binding to DECIMAL columns.
+     */
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * @param amount An amount of money.
+     * @return The amount rounded to two decimals, for binding to DECIMAL columns.
+     */
+    public static BigDecimal toBigDecimal(double amount) {
+        return toBigDecimal(toCents(amount));
+    }
+
+    /**
+     * Splits an amount between two owners. The first share gets the odd cent, so the shares always add up to the amount.
+     * @param amount The amount to split.
+     * @return The first share.
+     */
+    public static double firstHalf(double amount) {
+        long cents = toCents(amount);
+        return toDouble(cents - cents / 2);
+    }
+
+    /**
+     * @param amount The amount to split.
+     * @return The second share, see firstHalf().
+     */
+    public static double secondHalf(double amount) {
+        return toDouble(toCents(amount) / 2);
+    }
+
+    /**
+     * @param amount An amount of money.
+     * @return The amount with exactly two decimals, like "1234.50".
+     */
+    public static String format(double amount) {
+        return format(toCents(amount));
+    }
+
+    /**
+     * Formats without String.format, which parses its pattern and boxes its arguments on every call.
+     * @param cents An amount in cents.
+     * @return The amount with exactly two decimals, like "1234.50".
+     */
+    public static String format(long cents) {
+        StringBuilder builder = new StringBuilder(24);
+        if (cents < 0) builder.append('-');
+        // Long.MIN_VALUE has no positive counterpart, so the parts are taken from the negative value
+        long units = Math.abs(cents / CENTS_PER_UNIT);
+        int fraction = (int) Math.abs(cents % CENTS_PER_UNIT);
+        builder.append(units).append('.');
+        if (fraction < 10) builder.append('0');
+        return builder.append(fraction).toString();
+    }
+}
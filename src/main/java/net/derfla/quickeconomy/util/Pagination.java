@@ -0,0 +1,45 @@
+package net.derfla.quickeconomy.util;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import org.bukkit.command.CommandSender;
+
+/**
+ * The previous and next arrows sent under a paged list, like /bal transactions, /bal top and /shops.
+ */
+public class Pagination {
+
+    /**
+     * Sends an arrow to the previous page and one to the next page, when there are such pages.
+     * Clicking an arrow runs the command with the page number appended.
+     * @param sender Who receives the arrows.
+     * @param command The command that shows a page, ending with a space. For example "/bal top ".
+     * @param page The page that was just sent.
+     * @param pageCount The number of pages.
+     */
+    public static void sendNavigation(CommandSender sender, String command, int page, int pageCount) {
+        boolean hasPreviousPage = page > 1;
+        boolean hasNextPage = page < pageCount;
+        if (!hasPreviousPage && !hasNextPage) return;
+
+        Component navigation = Component.empty();
+        if (hasPreviousPage) {
+            navigation = navigation.append(arrow("page.previous", command, page - 1));
+            if (hasNextPage) {
+                navigation = navigation.append(Component.text("  ").style(Styles.BODY));
+            }
+        }
+        if (hasNextPage) {
+            navigation = navigation.append(arrow("page.next", command, page + 1));
+        }
+        sender.sendMessage(navigation);
+    }
+
+    private static Component arrow(String key, String command, int target) {
+        return Component.translatable(key)
+                .style(Styles.INFOSTYLE)
+                .clickEvent(ClickEvent.runCommand(command + target))
+                .hoverEvent(HoverEvent.showText(Component.translatable(key + ".hover", Component.text(target))));
+    }
+}
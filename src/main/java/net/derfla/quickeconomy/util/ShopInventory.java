@@ -1,7 +1,6 @@
 package net.derfla.quickeconomy.util;
 
 import net.derfla.quickeconomy.Main;
-import net.derfla.quickeconomy.database.Shop;
 import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
@@ -38,40 +37,20 @@ public class ShopInventory implements InventoryHolder {
         // Check if shop is empty
         if (chest.getBlockInventory().isEmpty()) {
             player.sendMessage(Component.translatable("shop.inventory.empty.player", Styles.INFOSTYLE));
-            if (Main.SQLMode) {
-                // Store empty shop details in the database
-                String coordinates = chest.getLocation().getBlockX() + "," + chest.getLocation().getBlockY() + "," + chest.getLocation().getBlockZ();
-                if (Shop.insertEmptyShop(coordinates, owner, owner2).join()) {
-                    // Notify the shop owners
-                    if (Main.getInstance().getConfig().getBoolean("shop.emptyShopOwnerMessage")) {
-                        if (!owner.isEmpty()) {
-                            UUID shopOwnerUUID = UUID.fromString(TypeChecker.untrimUUID(shopOwner));
-                            if (Bukkit.getPlayer(shopOwnerUUID) != null) {
-                                Player shopOwnerPlayer = Bukkit.getPlayer(shopOwnerUUID);
-                                shopOwnerPlayer.sendMessage(Component.translatable("shop.inventory.empty.owner", Styles.INFOSTYLE));
-                            }
-                        }
-                        if (!owner2.isEmpty()) {
-                            UUID shopOwner2UUID = UUID.fromString(TypeChecker.untrimUUID(shopOwner2));
-                            if (Bukkit.getPlayer(shopOwner2UUID) != null) {
-                                Player shopOwnerPlayer2 = Bukkit.getPlayer(shopOwner2UUID);
-                                shopOwnerPlayer2.sendMessage(Component.translatable("shop.inventory.empty.owner", Styles.INFOSTYLE));
-                            }
-                        }
-                    }
-                }
-            } else {
+            // Store empty shop details, the owners are only told the first time
+            String coordinates = chest.getLocation().getBlockX() + "," + chest.getLocation().getBlockY() + "," + chest.getLocation().getBlockZ();
+            if (Main.getStore().addEmptyShop(coordinates, owner, owner2).join()) {
                 // Notify the shop owners
                 if (Main.getInstance().getConfig().getBoolean("shop.emptyShopOwnerMessage")) {
                     if (!owner.isEmpty()) {
-                        UUID shopOwnerUUID = UUID.fromString(TypeChecker.untrimUUID(shopOwner));
+                        UUID shopOwnerUUID = TypeChecker.toUUID(shopOwner);
                         if (Bukkit.getPlayer(shopOwnerUUID) != null) {
                             Player shopOwnerPlayer = Bukkit.getPlayer(shopOwnerUUID);
                             shopOwnerPlayer.sendMessage(Component.translatable("shop.inventory.empty.owner", Styles.INFOSTYLE));
                         }
                     }
                     if (!owner2.isEmpty()) {
-                        UUID shopOwner2UUID = UUID.fromString(TypeChecker.untrimUUID(shopOwner2));
+                        UUID shopOwner2UUID = TypeChecker.toUUID(shopOwner2);
                         if (Bukkit.getPlayer(shopOwner2UUID) != null) {
                             Player shopOwnerPlayer2 = Bukkit.getPlayer(shopOwner2UUID);
                             shopOwnerPlayer2.sendMessage(Component.translatable("shop.inventory.empty.owner", Styles.INFOSTYLE));
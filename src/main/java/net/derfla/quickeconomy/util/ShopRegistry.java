@@ -0,0 +1,417 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.listener.PlayerPlaceSignListener;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Chunk;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Sign;
+import org.bukkit.block.sign.Side;
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An index of every shop chest, kept in memory and saved to shops.dat. Is filled when shop signs are placed and broken,
+ * and by scanning each chunk the first time it is loaded after the registry was introduced, so shops created earlier are found too.
+ * The scanned chunks are saved in shops.dat with the shops, so a chunk is scanned again if the file is lost or replaced.
+ * <p>
+ * The chest tags set by BlockOwner stay the authority on who owns a chest and who may open or break it. The registry only
+ * answers questions like "where are the shops of this player" without touching the world.
+ */
+public class ShopRegistry {
+
+    static Plugin plugin = Main.getInstance();
+
+    private static final int MAGIC = 0x51455331;
+    // Version 1 had no scanned chunks, they were tagged in the world instead
+    private static final int VERSION = 2;
+    private static final Comparator<Shop> LOCATION_ORDER = Comparator.comparing(Shop::world)
+            .thenComparingInt(Shop::x).thenComparingInt(Shop::z).thenComparingInt(Shop::y);
+
+    /**
+     * A shop chest.
+     * @param world The name of the world the chest is in.
+     * @param owner The trimmed UUID of the owner.
+     * @param owner2 The trimmed UUID of the second owner, empty if there is none.
+     * @param priceCents The price in cents, see Money.
+     * @param singleItem True if one item is sold at a time, false for a stack.
+     */
+    public record Shop(String world, int x, int y, int z, String owner, String owner2, long priceCents, boolean singleItem) {
+
+        public double price() {
+            return Money.toDouble(priceCents);
+        }
+
+        /**
+         * @return The coordinates as "x,y,z", the same form as the EmptyShops table.
+         */
+        public String coordinates() {
+            return x + "," + y + "," + z;
+        }
+    }
+
+    private static final Object lock = new Object();
+    // World name, chunk key, block key
+    private static final Map<String, Map<Long, Map<Long, Shop>>> chunks = new HashMap<>();
+    private static final Map<String, Set<Shop>> owners = new HashMap<>();
+    private static final TreeMap<Long, Set<Shop>> prices = new TreeMap<>();
+    // World name, chunk keys of the chunks that have been scanned for shops
+    private static final Map<String, Set<Long>> indexedChunks = new HashMap<>();
+    private static int size;
+    private static boolean dirty;
+
+    /**
+     * Reads shops.dat. Is called once in onEnable.
+     */
+    public static void load() {
+        File file = new File(plugin.getDataFolder(), "shops.dat");
+        if (!file.exists()) return;
+        synchronized (lock) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int version = in.readInt() == MAGIC ? in.readInt() : -1;
+                if (version != 1 && version != VERSION) {
+                    plugin.getLogger().warning("Unknown format of " + file.getName() + ", shops will be indexed again as chunks load.");
+                    return;
+                }
+                String[] worlds = new String[in.readInt()];
+                for (int i = 0; i < worlds.length; i++) {
+                    worlds[i] = in.readUTF();
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String world = worlds[in.readInt()];
+                    int x = in.readInt();
+                    int y = in.readInt();
+                    int z = in.readInt();
+                    String owner = readUUID(in);
+                    String owner2 = in.readBoolean() ? readUUID(in) : "";
+                    long priceCents = in.readLong();
+                    boolean singleItem = in.readBoolean();
+                    add(new Shop(world, x, y, z, owner, owner2, priceCents, singleItem));
+                }
+                if (version == 1) {
+                    plugin.getLogger().info("Upgrading " + file.getName() + ", shops will be indexed again as chunks load.");
+                    dirty = true;
+                } else {
+                    for (String world : worlds) {
+                        int chunkCount = in.readInt();
+                        Set<Long> indexed = new HashSet<>(chunkCount * 4 / 3 + 1);
+                        for (int i = 0; i < chunkCount; i++) {
+                            indexed.add(in.readLong());
+                        }
+                        indexedChunks.put(world, indexed);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // Shops that were read are kept, scanning the chunks again puts the file right
+                indexedChunks.clear();
+                plugin.getLogger().severe("Could not read " + file.getName() + ", shops will be indexed again as chunks load: " + e.getMessage());
+                dirty = true;
+                return;
+            }
+            dirty = false;
+            plugin.getLogger().info("Loaded " + size + " shops from " + file.getName() + ".");
+        }
+    }
+
+    /**
+     * Writes shops.dat if a shop was added or removed since the last save.
+     */
+    public static synchronized void save() {
+        List<Shop> shops;
+        Map<String, long[]> indexed = new HashMap<>();
+        synchronized (lock) {
+            if (!dirty) return;
+            shops = all();
+            indexedChunks.forEach((world, chunkKeys) -> indexed.put(world, chunkKeys.stream().mapToLong(Long::longValue).toArray()));
+            dirty = false;
+        }
+        File temporary = new File(plugin.getDataFolder(), "shops.dat.tmp");
+        try {
+            FileOutputStream file = new FileOutputStream(temporary);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                Map<String, Integer> worlds = new HashMap<>();
+                for (Shop shop : shops) {
+                    worlds.putIfAbsent(shop.world(), worlds.size());
+                }
+                for (String world : indexed.keySet()) {
+                    worlds.putIfAbsent(world, worlds.size());
+                }
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                String[] worldNames = new String[worlds.size()];
+                worlds.forEach((world, index) -> worldNames[index] = world);
+                out.writeInt(worldNames.length);
+                for (String world : worldNames) {
+                    out.writeUTF(world);
+                }
+                out.writeInt(shops.size());
+                for (Shop shop : shops) {
+                    out.writeInt(worlds.get(shop.world()));
+                    out.writeInt(shop.x());
+                    out.writeInt(shop.y());
+                    out.writeInt(shop.z());
+                    writeUUID(out, shop.owner());
+                    out.writeBoolean(!shop.owner2().isEmpty());
+                    if (!shop.owner2().isEmpty()) writeUUID(out, shop.owner2());
+                    out.writeLong(shop.priceCents());
+                    out.writeBoolean(shop.singleItem());
+                }
+                // Saved with the shops, so a chunk counts as scanned exactly when its shops are in the file
+                for (String world : worldNames) {
+                    long[] chunkKeys = indexed.getOrDefault(world, new long[0]);
+                    out.writeInt(chunkKeys.length);
+                    for (long chunkKey : chunkKeys) {
+                        out.writeLong(chunkKey);
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary.toPath(), new File(plugin.getDataFolder(), "shops.dat").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            synchronized (lock) {
+                dirty = true;
+            }
+            plugin.getLogger().severe("Could not write shops.dat: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a shop, replacing any shop already registered on the chest. Chests still locked to player names instead of UUIDs are skipped.
+     * @param chest The shop chest.
+     * @param owner The trimmed UUID of the owner.
+     * @param owner2 The trimmed UUID of the second owner, empty or null if there is none.
+     * @param price The price.
+     * @param singleItem True if one item is sold at a time, false for a stack.
+     */
+    public static void register(Chest chest, String owner, String owner2, double price, boolean singleItem) {
+        if (!TypeChecker.isTrimmedUUID(owner)) return;
+        if (owner2 != null && !owner2.isEmpty() && !TypeChecker.isTrimmedUUID(owner2)) return;
+        Shop shop = new Shop(chest.getWorld().getName(), chest.getX(), chest.getY(), chest.getZ(), owner,
+                owner2 == null ? "" : owner2, Money.toCents(price), singleItem);
+        synchronized (lock) {
+            remove(shop.world(), shop.x(), shop.y(), shop.z());
+            add(shop);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes the shop on a chest, if there is one.
+     * @param block The chest block.
+     */
+    public static void unregister(Block block) {
+        synchronized (lock) {
+            if (remove(block.getWorld().getName(), block.getX(), block.getY(), block.getZ()) != null) dirty = true;
+        }
+    }
+
+    /**
+     * @param block The chest block.
+     * @return The shop on the chest, or null if there is none.
+     */
+    public static Shop get(Block block) {
+        synchronized (lock) {
+            Map<Long, Map<Long, Shop>> world = chunks.get(block.getWorld().getName());
+            if (world == null) return null;
+            Map<Long, Shop> chunk = world.get(chunkKey(block.getX() >> 4, block.getZ() >> 4));
+            if (chunk == null) return null;
+            return chunk.get(blockKey(block.getX(), block.getY(), block.getZ()));
+        }
+    }
+
+    /**
+     * @param uuid The trimmed UUID of a player.
+     * @return Every shop the player owns or shares, sorted by location.
+     */
+    public static List<Shop> byOwner(String uuid) {
+        synchronized (lock) {
+            Set<Shop> owned = owners.get(uuid);
+            if (owned == null) return List.of();
+            List<Shop> shops = new ArrayList<>(owned);
+            shops.sort(LOCATION_ORDER);
+            return shops;
+        }
+    }
+
+    /**
+     * @param chunk A chunk.
+     * @return Every shop in the chunk.
+     */
+    public static List<Shop> inChunk(Chunk chunk) {
+        synchronized (lock) {
+            Map<Long, Map<Long, Shop>> world = chunks.get(chunk.getWorld().getName());
+            if (world == null) return List.of();
+            Map<Long, Shop> shops = world.get(chunkKey(chunk.getX(), chunk.getZ()));
+            return shops == null ? List.of() : new ArrayList<>(shops.values());
+        }
+    }
+
+    /**
+     * @param min The lowest price, inclusive.
+     * @param max The highest price, inclusive.
+     * @return Every shop with a price in the range, cheapest first.
+     */
+    public static List<Shop> byPrice(double min, double max) {
+        synchronized (lock) {
+            List<Shop> shops = new ArrayList<>();
+            long minCents = Money.toCents(min);
+            long maxCents = Money.toCents(max);
+            if (minCents > maxCents) return shops;
+            for (Set<Shop> samePrice : prices.subMap(minCents, true, maxCents, true).values()) {
+                List<Shop> sorted = new ArrayList<>(samePrice);
+                sorted.sort(LOCATION_ORDER);
+                shops.addAll(sorted);
+            }
+            return shops;
+        }
+    }
+
+    /**
+     * @return The number of registered shops.
+     */
+    public static int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Registers the shops in a chunk the first time it is loaded. The chunk is remembered in shops.dat, so it is only scanned once.
+     * Must be called on the main thread.
+     * @param chunk The loaded chunk.
+     */
+    public static void indexChunk(Chunk chunk) {
+        synchronized (lock) {
+            Set<Long> indexed = indexedChunks.get(chunk.getWorld().getName());
+            if (indexed != null && indexed.contains(chunkKey(chunk.getX(), chunk.getZ()))) return;
+        }
+        reindexChunk(chunk);
+    }
+
+    /**
+     * Registers the shops in a chunk, even if it was scanned before. Is used after legacy locks in the chunk were converted,
+     * since shops locked to player names are skipped. Registered shops that are no longer in the chunk are removed.
+     * @param chunk The loaded chunk.
+     */
+    public static void reindexChunk(Chunk chunk) {
+        String worldName = chunk.getWorld().getName();
+        long chunkKey = chunkKey(chunk.getX(), chunk.getZ());
+        Set<Shop> previous = new HashSet<>(inChunk(chunk));
+        Component shopHeader = PlayerPlaceSignListener.getShopHeaderComponent();
+        for (BlockState state : chunk.getTileEntities()) {
+            if (!(state instanceof Sign sign)) continue;
+            List<Component> lines = sign.getSide(Side.FRONT).lines();
+            if (!lines.get(0).equals(shopHeader)) continue;
+            Chest chest = FindChest.get(sign);
+            if (chest == null) continue;
+            List<String> chestOwners = BlockOwner.getChestOwner(chest);
+            if (chestOwners == null) continue;
+            // The sign text was checked when the shop was created, but may have been edited since
+            String[] price = TypeChecker.getRawString(lines.get(1)).split("/");
+            if (!TypeChecker.isDouble(price[0])) continue;
+            boolean singleItem = price.length == 2 && price[1].equalsIgnoreCase("item");
+            register(chest, chestOwners.getFirst(), chestOwners.size() == 2 ? chestOwners.getLast() : "",
+                    Double.parseDouble(price[0]), singleItem);
+            previous.removeIf(shop -> shop.x() == chest.getX() && shop.y() == chest.getY() && shop.z() == chest.getZ());
+        }
+        // The sign of a shop may be in the next chunk, so a shop whose sign was not found is only removed if its chest is no shop
+        previous.removeIf(shop -> chunk.getBlock(shop.x() & 15, shop.y(), shop.z() & 15).getState() instanceof Chest chest
+                && BlockOwner.isShop(chest));
+        synchronized (lock) {
+            for (Shop shop : previous) {
+                remove(shop.world(), shop.x(), shop.y(), shop.z());
+            }
+            indexedChunks.computeIfAbsent(worldName, world -> new HashSet<>()).add(chunkKey);
+            dirty = true;
+        }
+    }
+
+    private static List<Shop> all() {
+        List<Shop> shops = new ArrayList<>(size);
+        for (Map<Long, Map<Long, Shop>> world : chunks.values()) {
+            for (Map<Long, Shop> chunk : world.values()) {
+                shops.addAll(chunk.values());
+            }
+        }
+        return shops;
+    }
+
+    // Must hold the lock
+    private static void add(Shop shop) {
+        chunks.computeIfAbsent(shop.world(), world -> new HashMap<>())
+                .computeIfAbsent(chunkKey(shop.x() >> 4, shop.z() >> 4), key -> new HashMap<>())
+                .put(blockKey(shop.x(), shop.y(), shop.z()), shop);
+        owners.computeIfAbsent(shop.owner(), uuid -> new HashSet<>()).add(shop);
+        if (!shop.owner2().isEmpty()) owners.computeIfAbsent(shop.owner2(), uuid -> new HashSet<>()).add(shop);
+        prices.computeIfAbsent(shop.priceCents(), price -> new HashSet<>()).add(shop);
+        size++;
+    }
+
+    // Must hold the lock
+    private static Shop remove(String worldName, int x, int y, int z) {
+        Map<Long, Map<Long, Shop>> world = chunks.get(worldName);
+        if (world == null) return null;
+        long chunkKey = chunkKey(x >> 4, z >> 4);
+        Map<Long, Shop> chunk = world.get(chunkKey);
+        if (chunk == null) return null;
+        Shop shop = chunk.remove(blockKey(x, y, z));
+        if (shop == null) return null;
+        if (chunk.isEmpty()) world.remove(chunkKey);
+        removeFrom(owners, shop.owner(), shop);
+        if (!shop.owner2().isEmpty()) removeFrom(owners, shop.owner2(), shop);
+        removeFrom(prices, shop.priceCents(), shop);
+        size--;
+        return shop;
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Shop>> index, K key, Shop shop) {
+        Set<Shop> shops = index.get(key);
+        if (shops == null) return;
+        shops.remove(shop);
+        if (shops.isEmpty()) index.remove(key);
+    }
+
+    // The same packing as Chunk.getChunkKey()
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (chunkX & 0xFFFFFFFFL) | ((chunkZ & 0xFFFFFFFFL) << 32);
+    }
+
+    private static long blockKey(int x, int y, int z) {
+        return ((x & 0x7FFFFFFL) << 37) | ((z & 0x7FFFFFFL) << 10) | (y & 0x3FFL);
+    }
+
+    private static void writeUUID(DataOutputStream out, String uuid) throws IOException {
+        out.writeLong(TypeChecker.parseHex(uuid, 0));
+        out.writeLong(TypeChecker.parseHex(uuid, 16));
+    }
+
+    private static String readUUID(DataInputStream in) throws IOException {
+        char[] chars = new char[32];
+        TypeChecker.writeHex(in.readLong(), chars, 0);
+        TypeChecker.writeHex(in.readLong(), chars, 16);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,122 @@
+package net.derfla.quickeconomy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel. Entries are kept in buckets by the tick they are due, so advancing the wheel only visits
+ * the entries that are due and the occasional bucket moved down a level, never every entry.
+ * <p>
+ * The first level has one bucket per tick for the next 256 ticks. Each level above has 64 buckets, each as wide as the whole
+ * level below. Five levels reach about 2^32 ticks ahead, entries due later than that are put in the last bucket and moved
+ * down when it is reached. Not thread safe, callers must synchronize.
+ * @param <T> The type of the entries.
+ */
+public class TimingWheel<T> {
+
+    private static final int FIRST_BITS = 8;
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVELS = 5;
+
+    private record Entry<T>(T value, long dueTick) {}
+
+    private final List<Entry<T>>[][] levels;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long startTick) {
+        levels = new List[LEVELS][];
+        levels[0] = new List[1 << FIRST_BITS];
+        for (int level = 1; level < LEVELS; level++) {
+            levels[level] = new List[1 << LEVEL_BITS];
+        }
+        currentTick = startTick;
+    }
+
+    /**
+     * @return The last tick the wheel was advanced to.
+     */
+    public long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return The number of entries in the wheel.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds an entry. An entry due now or in the past is due on the next tick.
+     * @param value The entry.
+     * @param dueTick The tick the entry is due.
+     */
+    public void add(T value, long dueTick) {
+        place(new Entry<>(value, Math.max(dueTick, currentTick + 1)));
+        size++;
+    }
+
+    /**
+     * Advances the wheel one tick at a time, passing every entry that comes due to the consumer.
+     * @param toTick The tick to advance to. Nothing happens if the wheel already is there.
+     * @param due Receives the due entries, in the order their ticks come.
+     */
+    public void advance(long toTick, Consumer<T> due) {
+        while (currentTick < toTick) {
+            currentTick++;
+            int index = (int) (currentTick & ((1 << FIRST_BITS) - 1));
+            // When the first level wraps, the next bucket of the level above is spread over it, and so on upwards
+            if (index == 0) cascade(1);
+            List<Entry<T>> bucket = levels[0][index];
+            if (bucket == null) continue;
+            levels[0][index] = null;
+            size -= bucket.size();
+            for (Entry<T> entry : bucket) {
+                due.accept(entry.value());
+            }
+        }
+    }
+
+    private void cascade(int level) {
+        if (level >= LEVELS) return;
+        int index = bucketIndex(level, currentTick);
+        if (index == 0) cascade(level + 1);
+        List<Entry<T>> bucket = levels[level][index];
+        if (bucket == null) return;
+        levels[level][index] = null;
+        for (Entry<T> entry : bucket) {
+            place(entry);
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        long delta = entry.dueTick() - currentTick;
+        int level = 0;
+        int index;
+        if (delta < (1L << FIRST_BITS)) {
+            index = (int) (entry.dueTick() & ((1 << FIRST_BITS) - 1));
+        } else {
+            level = 1;
+            while (level < LEVELS - 1 && delta >= (1L << (FIRST_BITS + LEVEL_BITS * level))) {
+                level++;
+            }
+            // Too far ahead for the top level. Put it in the last bucket that will be reached, it is placed again from there
+            long dueTick = delta >= (1L << (FIRST_BITS + LEVEL_BITS * level))
+                    ? currentTick + (1L << (FIRST_BITS + LEVEL_BITS * level)) - 1 : entry.dueTick();
+            index = bucketIndex(level, dueTick);
+        }
+        List<Entry<T>> bucket = levels[level][index];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            levels[level][index] = bucket;
+        }
+        bucket.add(entry);
+    }
+
+    private static int bucketIndex(int level, long tick) {
+        return (int) ((tick >>> (FIRST_BITS + LEVEL_BITS * (level - 1))) & ((1 << LEVEL_BITS) - 1));
+    }
+}
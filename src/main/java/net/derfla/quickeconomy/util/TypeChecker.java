@@ -7,10 +7,23 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.UUID;
 
 
 public class TypeChecker {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte['f' + 1];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
     public static boolean isDouble(String string) {
         try {
             Double.parseDouble(string);
@@ -21,16 +34,8 @@ public class TypeChecker {
     }
 
     public static double formatDouble(double inputDouble) {
-        // Extract integer and decimal parts
-        int integerPart = (int) Math.floor(inputDouble);
-        double decimalPart = inputDouble - integerPart;
-
-        // Multiply decimal part by 100 to get two decimal places as integers
-        int decimalPartInt = (int) Math.round(decimalPart * 100);
-
-        // Combine integer and decimal parts with "."
-        String formattedDouble = String.format("%d.%02d", integerPart, decimalPartInt);
-        return Double.parseDouble(formattedDouble);
+        // Rounds to two decimals in cents, see Money
+        return Money.round(inputDouble);
     }
 
     public static String getRawString(Component component) {
@@ -42,7 +47,18 @@ public class TypeChecker {
             return null;
         }
         if (uuid.length() == 36) {
-            return uuid.replaceAll("-", "");
+            // Copies the hex digits around the dashes, no regex
+            char[] trimmed = new char[32];
+            int index = 0;
+            for (int i = 0; i < 36; i++) {
+                char c = uuid.charAt(i);
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    if (c != '-') throw new IllegalArgumentException("Invalid UUID format: " + uuid);
+                    continue;
+                }
+                trimmed[index++] = c;
+            }
+            return new String(trimmed);
         }
         else if (uuid.length() == 32) {
             return uuid;
@@ -52,6 +68,21 @@ public class TypeChecker {
         }
     }
 
+    /**
+     * Writes the UUID as 32 lower case hex digits, without going through UUID.toString().
+     * @param uuid The UUID, may be null.
+     * @return The trimmed UUID, or null.
+     */
+    public static String trimUUID(UUID uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        char[] trimmed = new char[32];
+        writeHex(uuid.getMostSignificantBits(), trimmed, 0);
+        writeHex(uuid.getLeastSignificantBits(), trimmed, 16);
+        return new String(trimmed);
+    }
+
     public static String untrimUUID(String uuid) {
         if (uuid == null) {
             return null;
@@ -60,7 +91,17 @@ public class TypeChecker {
             return null;
         }
         if (uuid.length() == 32) {
-            return uuid.replaceAll("(.{8})(.{4})(.{4})(.{4})(.{12})", "$1-$2-$3-$4-$5");
+            char[] dashed = new char[36];
+            uuid.getChars(0, 8, dashed, 0);
+            dashed[8] = '-';
+            uuid.getChars(8, 12, dashed, 9);
+            dashed[13] = '-';
+            uuid.getChars(12, 16, dashed, 14);
+            dashed[18] = '-';
+            uuid.getChars(16, 20, dashed, 19);
+            dashed[23] = '-';
+            uuid.getChars(20, 32, dashed, 24);
+            return new String(dashed);
         } 
         else if (uuid.length() == 36) {
             return uuid;
@@ -70,6 +111,61 @@ public class TypeChecker {
         }
     }
 
+    /**
+     * Parses a trimmed or dashed UUID with a lookup table, without UUID.fromString() or regex.
+     * @param uuid The UUID, may be null.
+     * @return The UUID, or null.
+     */
+    public static UUID toUUID(String uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        String trimmed = trimUUID(uuid);
+        return new UUID(parseHex(trimmed, 0), parseHex(trimmed, 16));
+    }
+
+    /**
+     * @param uuid A string.
+     * @return True if the string is 32 lower case hex digits, the form UUIDs are stored in.
+     */
+    public static boolean isTrimmedUUID(String uuid) {
+        if (uuid == null || uuid.length() != 32) return false;
+        for (int i = 0; i < 32; i++) {
+            char c = uuid.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads 16 hex digits as a long. Upper case digits are accepted.
+     * @param uuid A trimmed UUID.
+     * @param offset 0 for the most significant bits, 16 for the least significant bits.
+     */
+    public static long parseHex(String uuid, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            char c = uuid.charAt(i);
+            int digit = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+            if (digit < 0) throw new IllegalArgumentException("Invalid UUID format: " + uuid);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Writes a long as 16 lower case hex digits.
+     * @param bits The long.
+     * @param chars The array to write to.
+     * @param offset Where in the array the first digit goes.
+     */
+    public static void writeHex(long bits, char[] chars, int offset) {
+        for (int i = offset + 15; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) (bits & 0xF)];
+            bits >>>= 4;
+        }
+    }
+
     // Comparing version1 on to version2. Returns true if version1 is newer
     public static boolean isNewerVersion(String version1, String version2) {
         // Split by "-" and use only the main version part (before the dash)
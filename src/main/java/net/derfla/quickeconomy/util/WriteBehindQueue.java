@@ -0,0 +1,170 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.Main;
+import net.derfla.quickeconomy.model.PendingTransaction;
+import net.derfla.quickeconomy.model.PlayerAccount;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects balance changes that have been applied to the AccountCache and writes them to storage in the background.
+ * While enabled the AccountCache is the authoritative copy of every balance, so storage is only written by the flusher.
+ * Several changes to one account between two flushes are coalesced into a single write.
+ */
+public class WriteBehindQueue {
+
+    static Plugin plugin = Main.getInstance();
+    private static final Set<String> newAccounts = ConcurrentHashMap.newKeySet();
+    private static final Set<String> dirtyAccounts = ConcurrentHashMap.newKeySet();
+    // A deque, so transactions that failed to write can be put back in front of the ones queued since
+    private static final ConcurrentLinkedDeque<PendingTransaction> pendingTransactions = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger pendingChanges = new AtomicInteger(0);
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private static final Object flushLock = new Object();
+    private static boolean enabled = false;
+    private static int maxPending;
+    private static BukkitTask flushTask;
+
+    /**
+     * Reads the writeBehind settings from the config and starts the background flusher if it is enabled.
+     * Is called in startup, in onEnable, after the AccountCache has been initiated.
+     */
+    public static void init() {
+        enabled = plugin.getConfig().getBoolean("writeBehind.enabled", false);
+        if (!enabled) return;
+
+        long flushInterval = plugin.getConfig().getLong("writeBehind.flushInterval", 100);
+        if (flushInterval < 1) {
+            flushInterval = 100;
+            plugin.getLogger().warning("writeBehind.flushInterval must be at least 1 tick, using default (100).");
+        }
+        maxPending = plugin.getConfig().getInt("writeBehind.maxPending", 500);
+        if (maxPending < 1) {
+            maxPending = 500;
+            plugin.getLogger().warning("writeBehind.maxPending must be at least 1, using default (500).");
+        }
+        flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, WriteBehindQueue::flush, flushInterval, flushInterval);
+        plugin.getLogger().info("Write-behind enabled. Balance changes are written every " + flushInterval + " ticks or after " + maxPending + " changes.");
+    }
+
+    /**
+     * @return True if balance changes should be handed to the queue instead of being written directly.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param uuid The trimmed UUID of the account.
+     * @return True if the account has changes that have not been written yet.
+     */
+    public static boolean isPending(String uuid) {
+        return dirtyAccounts.contains(uuid) || newAccounts.contains(uuid);
+    }
+
+    /**
+     * Marks an account as changed. Its current state in the AccountCache will be written on the next flush.
+     * @param uuid The trimmed UUID of the account.
+     */
+    public static void markDirty(String uuid) {
+        dirtyAccounts.add(uuid);
+        countChange();
+    }
+
+    /**
+     * Marks an account as newly created. It will be inserted into storage on the next flush.
+     * @param uuid The trimmed UUID of the account.
+     */
+    public static void markNew(String uuid) {
+        newAccounts.add(uuid);
+        countChange();
+    }
+
+    /**
+     * Queues a transaction to be recorded on the next flush. Only used in SQL mode, file mode keeps no transaction history.
+     * @param transaction The transaction, already applied to the AccountCache.
+     */
+    public static void addTransaction(PendingTransaction transaction) {
+        pendingTransactions.add(transaction);
+        countChange();
+    }
+
+    private static void countChange() {
+        if (pendingChanges.incrementAndGet() < maxPending) return;
+        // Size threshold reached, flush without waiting for the timer
+        if (flushScheduled.compareAndSet(false, true)) {
+            Main.getExecutorService().execute(WriteBehindQueue::flush);
+        }
+    }
+
+    /**
+     * Writes everything that is currently queued. Blocks until storage has been written.
+     * If writing fails the changes are put back in the queue and retried on the next flush.
+     */
+    public static void flush() {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            pendingChanges.set(0);
+            if (newAccounts.isEmpty() && dirtyAccounts.isEmpty() && pendingTransactions.isEmpty()) return;
+
+            Map<String, PlayerAccount> created = drain(newAccounts);
+            Map<String, PlayerAccount> changed = drain(dirtyAccounts);
+            // The insert of a new account already contains its latest state
+            changed.keySet().removeAll(created.keySet());
+            List<PendingTransaction> transactions = new ArrayList<>();
+            PendingTransaction transaction;
+            while ((transaction = pendingTransactions.poll()) != null) {
+                transactions.add(transaction);
+            }
+
+            try {
+                Main.getStore().saveBatch(created, changed, transactions).join();
+            } catch (Exception e) {
+                plugin.getLogger().severe("Failed to write balance changes, they will be retried on the next flush: " + e.getMessage());
+                newAccounts.addAll(created.keySet());
+                dirtyAccounts.addAll(changed.keySet());
+                // Back at the head in their original order, so the history keeps the order they were made in
+                for (int i = transactions.size() - 1; i >= 0; i--) {
+                    pendingTransactions.addFirst(transactions.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes everything that is still queued.
+     * Is called in onDisable, before the database connection pool is closed.
+     */
+    public static void shutdown() {
+        if (!enabled) return;
+        if (flushTask != null) flushTask.cancel();
+        flush();
+        plugin.getLogger().info("Write-behind queue flushed.");
+    }
+
+    // Removes the UUIDs from the set before copying the accounts, so a change made during the copy marks the account again
+    private static Map<String, PlayerAccount> drain(Set<String> uuids) {
+        Map<String, PlayerAccount> snapshot = new HashMap<>();
+        Iterator<String> iterator = uuids.iterator();
+        while (iterator.hasNext()) {
+            String uuid = iterator.next();
+            iterator.remove();
+            PlayerAccount account = AccountCache.getPlayerAccount(uuid);
+            if (account == null) continue;
+            snapshot.put(uuid, new PlayerAccount(account.name(), account.balance(), account.change(), account.createdTime()));
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,184 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+import net.derfla.quickeconomy.util.AccountCache;
+import net.derfla.quickeconomy.util.TypeChecker;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Every file store runs the same scenarios. Accounts are kept in the AccountCache like at runtime, so each test uses new UUIDs
+abstract class FileStoreTest {
+
+    private static final int THROUGHPUT_ACCOUNTS = 100;
+    private static final int THROUGHPUT_UPDATES = 2000;
+
+    @TempDir
+    Path dataFolder;
+    FileStore store;
+
+    // Opens the store in an empty data folder
+    abstract FileStore open();
+
+    // Reads back what the store has written to disk
+    abstract Map<String, PlayerAccount> reopen();
+
+    @BeforeEach
+    void setUp() {
+        Plugin plugin = plugin(dataFolder.toFile());
+        BalanceFile.plugin = plugin;
+        BalanceJournal.plugin = plugin;
+        YamlStore.plugin = plugin;
+        BalanceFile.setup();
+        store = open();
+    }
+
+    // Only what the file stores use. Anything else would need a running server
+    private static Plugin plugin(File dataFolder) {
+        YamlConfiguration config = new YamlConfiguration();
+        Logger logger = Logger.getLogger("QuickEconomy");
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[]{Plugin.class}, (proxy, method, args) ->
+                switch (method.getName()) {
+                    case "getDataFolder" -> dataFolder;
+                    case "getConfig" -> config;
+                    case "getLogger" -> logger;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private String newAccount(double balance) {
+        String uuid = TypeChecker.trimUUID(UUID.randomUUID());
+        AccountCache.addAccount(uuid, "player" + uuid.substring(0, 8));
+        AccountCache.setBalance(uuid, balance);
+        store.createAccount(uuid, AccountCache.getCachedAccount(uuid)).join();
+        return uuid;
+    }
+
+    @Test
+    void appliedDeltasAreStored() {
+        String uuid = newAccount(10);
+        AccountCache.addBalance(uuid, 2.5);
+        AccountCache.addChange(uuid, 2.5);
+        store.applyDelta(uuid, 2.5, 2.5).join();
+
+        PlayerAccount stored = reopen().get(uuid);
+        assertEquals(1250, stored.balanceCents());
+        assertEquals(250, stored.changeCents());
+    }
+
+    @Test
+    void transferMovesTheAmount() {
+        String source = newAccount(10);
+        String destination = newAccount(0);
+        assertTrue(store.transfer("p2p", "command", source, destination, 4, null).join());
+
+        Map<String, PlayerAccount> stored = reopen();
+        assertEquals(600, stored.get(source).balanceCents());
+        assertEquals(400, stored.get(destination).balanceCents());
+        assertEquals(400, stored.get(destination).changeCents());
+    }
+
+    @Test
+    void transferIsRejectedWhenTheSourceCantAffordIt() {
+        String source = newAccount(5);
+        String destination = newAccount(0);
+        assertFalse(store.transfer("p2p", "command", source, destination, 10, null).join());
+
+        assertEquals(500, AccountCache.getCachedAccount(source).balanceCents());
+        assertEquals(0, AccountCache.getCachedAccount(destination).balanceCents());
+        Map<String, PlayerAccount> stored = reopen();
+        assertEquals(500, stored.get(source).balanceCents());
+        assertEquals(0, stored.get(destination).balanceCents());
+    }
+
+    @Test
+    void transferToAMissingAccountIsRejected() {
+        String source = newAccount(5);
+        String missing = TypeChecker.trimUUID(UUID.randomUUID());
+        assertFalse(store.transfer("p2p", "command", source, missing, 1, null).join());
+
+        assertEquals(500, AccountCache.getCachedAccount(source).balanceCents());
+        Map<String, PlayerAccount> stored = reopen();
+        assertEquals(500, stored.get(source).balanceCents());
+        assertNull(stored.get(missing));
+    }
+
+    @Test
+    void savedBatchesRoundTrip() {
+        String changedUUID = newAccount(1);
+        String createdUUID = TypeChecker.trimUUID(UUID.randomUUID());
+        Map<String, PlayerAccount> created = Map.of(createdUUID, new PlayerAccount("Alex", 3.5, 1, "2024-01-31 12:34:56"));
+        Map<String, PlayerAccount> changed = Map.of(changedUUID, new PlayerAccount("Steve", 7.25, 0.5, null));
+        store.saveBatch(created, changed, List.of()).join();
+
+        Map<String, PlayerAccount> stored = reopen();
+        PlayerAccount createdAccount = stored.get(createdUUID);
+        assertEquals("Alex", createdAccount.name());
+        assertEquals(350, createdAccount.balanceCents());
+        assertEquals(100, createdAccount.changeCents());
+        assertEquals("2024-01-31 12:34:56", createdAccount.createdTime());
+        PlayerAccount changedAccount = stored.get(changedUUID);
+        assertEquals("Steve", changedAccount.name());
+        assertEquals(725, changedAccount.balanceCents());
+        assertEquals(50, changedAccount.changeCents());
+    }
+
+    @Test
+    void streamReadsEveryStoredAccount() {
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 1; i <= 3; i++) {
+            expected.put(newAccount(i), i * 100L);
+        }
+
+        Map<String, PlayerAccount> streamed = new HashMap<>();
+        int count = store.streamAccounts(2, streamed::put).join();
+        assertEquals(expected.size(), count);
+        assertEquals(expected.size(), streamed.size());
+        expected.forEach((uuid, cents) -> assertEquals(cents.longValue(), streamed.get(uuid).balanceCents()));
+    }
+
+    @Test
+    void unknownAccountsHaveNoBalance() {
+        assertEquals(0.0, store.getBalance(TypeChecker.trimUUID(UUID.randomUUID())).join().doubleValue());
+    }
+
+    // A shop purchase or /bal send stores each account it changes. A store that can't keep up stalls every payment
+    @Test
+    void manySmallUpdatesAreStoredInTime() {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < THROUGHPUT_ACCOUNTS; i++) {
+            uuids.add(newAccount(0));
+        }
+        assertTimeout(Duration.ofSeconds(20), () -> {
+            for (int i = 0; i < THROUGHPUT_UPDATES; i++) {
+                String uuid = uuids.get(i % THROUGHPUT_ACCOUNTS);
+                AccountCache.addBalance(uuid, 0.01);
+                store.applyDelta(uuid, 0.01, 0).join();
+            }
+        });
+
+        Map<String, PlayerAccount> stored = reopen();
+        for (String uuid : uuids) {
+            assertEquals(THROUGHPUT_UPDATES / THROUGHPUT_ACCOUNTS, stored.get(uuid).balanceCents());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+import org.junit.jupiter.api.AfterEach;
+
+import java.util.Map;
+
+class JournalStoreTest extends FileStoreTest {
+
+    @Override
+    FileStore open() {
+        JournalStore store = new JournalStore();
+        store.loadAccounts().join();
+        return store;
+    }
+
+    // Replays the journal, like a restart does
+    @Override
+    Map<String, PlayerAccount> reopen() {
+        BalanceJournal.shutdown();
+        return BalanceJournal.load();
+    }
+
+    @AfterEach
+    void close() {
+        BalanceJournal.shutdown();
+    }
+}
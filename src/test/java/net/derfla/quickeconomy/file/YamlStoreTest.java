@@ -0,0 +1,19 @@
+package net.derfla.quickeconomy.file;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+
+import java.util.Map;
+
+class YamlStoreTest extends FileStoreTest {
+
+    @Override
+    FileStore open() {
+        return new YamlStore();
+    }
+
+    @Override
+    Map<String, PlayerAccount> reopen() {
+        BalanceFile.setup();
+        return BalanceFile.readAccounts();
+    }
+}
@@ -0,0 +1,38 @@
+package net.derfla.quickeconomy.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PlayerAccountTest {
+
+    @Test
+    void createdTimeRoundTrips() {
+        PlayerAccount account = new PlayerAccount("Steve", 0, 0, "2024-01-31 12:34:56");
+        assertEquals("2024-01-31 12:34:56", account.createdTime());
+    }
+
+    @Test
+    void fractionsOfASecondAreDropped() {
+        PlayerAccount account = new PlayerAccount("Steve", 0, 0, "2024-01-31 12:34:56.0");
+        assertEquals("2024-01-31 12:34:56", account.createdTime());
+    }
+
+    @Test
+    void unreadableCreatedTimeIsKept() {
+        PlayerAccount account = new PlayerAccount("Steve", 0, 0, "31/01/2024");
+        assertEquals("31/01/2024", account.createdTime());
+    }
+
+    @Test
+    void missingCreatedTimeStaysMissing() {
+        assertNull(new PlayerAccount("Steve", 0, 0, null).createdTime());
+    }
+
+    @Test
+    void toStringWithoutCreatedTime() {
+        assertEquals("Steve: 12.50", new PlayerAccount("Steve", 12.5, 0, null).toString());
+        assertEquals("Steve: 12.50 (Created: 2024-01-31)", new PlayerAccount("Steve", 12.5, 0, "2024-01-31 12:34:56").toString());
+    }
+}
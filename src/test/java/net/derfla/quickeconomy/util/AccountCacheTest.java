@@ -0,0 +1,138 @@
+package net.derfla.quickeconomy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Only uses accounts that are in the cache, so nothing is read from storage
+class AccountCacheTest {
+
+    private static final int THREADS = 8;
+    private static final int UPDATES_PER_THREAD = 5000;
+
+    private static String newAccount(double balance) {
+        String uuid = TypeChecker.trimUUID(UUID.randomUUID());
+        AccountCache.addAccount(uuid, "player" + uuid.substring(0, 8));
+        AccountCache.setBalance(uuid, balance);
+        return uuid;
+    }
+
+    // Runs the task on every thread at once and waits for all of them
+    private static void runConcurrently(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentAdditionsAreNotLost() throws Exception {
+        String uuid = newAccount(0);
+        runConcurrently(() -> {
+            for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                AccountCache.addBalance(uuid, 0.01);
+                AccountCache.addChange(uuid, 0.01);
+            }
+        });
+        long expected = (long) THREADS * UPDATES_PER_THREAD;
+        assertEquals(expected, AccountCache.getCachedAccount(uuid).balanceCents());
+        assertEquals(expected, AccountCache.getCachedAccount(uuid).changeCents());
+    }
+
+    @Test
+    void concurrentTransfersKeepTheTotal() throws Exception {
+        String first = newAccount(100);
+        String second = newAccount(100);
+        runConcurrently(() -> {
+            for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                boolean forward = (i & 1) == 0;
+                String source = forward ? first : second;
+                String destination = forward ? second : first;
+                if (!Double.isNaN(AccountCache.subtractBalanceIfSufficient(source, 0.37))) {
+                    AccountCache.addBalance(destination, 0.37);
+                }
+            }
+        });
+        long total = AccountCache.getCachedAccount(first).balanceCents() + AccountCache.getCachedAccount(second).balanceCents();
+        assertEquals(20000, total);
+    }
+
+    @Test
+    void concurrentWithdrawalsNeverOverdraw() throws Exception {
+        String uuid = newAccount(10);
+        AtomicInteger passed = new AtomicInteger();
+        runConcurrently(() -> {
+            for (int i = 0; i < 100; i++) {
+                if (!Double.isNaN(AccountCache.subtractBalanceIfSufficient(uuid, 0.25))) passed.incrementAndGet();
+            }
+        });
+        assertEquals(40, passed.get());
+        assertEquals(0, AccountCache.getCachedAccount(uuid).balanceCents());
+    }
+
+    @Test
+    void compareAndSetOnlyLetsOneThreadWin() throws Exception {
+        String uuid = newAccount(0);
+        runConcurrently(() -> {
+            for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                while (true) {
+                    double balance = AccountCache.getCachedAccount(uuid).balance();
+                    if (AccountCache.compareAndSetBalance(uuid, balance, Money.round(balance + 1))) break;
+                }
+            }
+        });
+        assertEquals(THREADS * UPDATES_PER_THREAD * 100L, AccountCache.getCachedAccount(uuid).balanceCents());
+    }
+
+    @Test
+    void refreshReplacesCachedValues() {
+        String uuid = newAccount(5);
+        AccountCache.refresh(uuid, 1234, 56);
+        assertEquals(1234, AccountCache.getCachedAccount(uuid).balanceCents());
+        assertEquals(56, AccountCache.getCachedAccount(uuid).changeCents());
+    }
+
+    @Test
+    void refreshDeltaAddsToCachedValues() {
+        String uuid = newAccount(5);
+        AccountCache.addChange(uuid, 1);
+        assertTrue(AccountCache.refreshDelta(uuid, -200, -200, 0));
+        assertEquals(300, AccountCache.getCachedAccount(uuid).balanceCents());
+        assertEquals(-100, AccountCache.getCachedAccount(uuid).changeCents());
+    }
+
+    @Test
+    void refreshDoesNotAddUncachedAccounts() {
+        String uuid = TypeChecker.trimUUID(UUID.randomUUID());
+        AccountCache.refresh(uuid, 500, 0);
+        assertFalse(AccountCache.refreshDelta(uuid, 100, 100, 600));
+        assertNull(AccountCache.getCachedAccount(uuid));
+        assertTrue(BalanceLeaderboard.getRank(uuid) > 0);
+    }
+}
@@ -0,0 +1,76 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Measures the heap a full cache takes, by the used memory before and after filling it
+class AccountTableMemoryTest {
+
+    private static final int ACCOUNTS = 100000;
+
+    // The account the cache held before balances were stored in cents and the creation time as epoch seconds
+    private static final class StringAccount {
+        double balance;
+        double change;
+        String name;
+        String createdTime;
+
+        StringAccount(String name, double balance, double change, String createdTime) {
+            this.name = name;
+            this.balance = balance;
+            this.change = change;
+            this.createdTime = createdTime;
+        }
+    }
+
+    @Test
+    void cacheTakesLessHeapPerAccountThanAStringKeyedMap() {
+        // The names are the same objects in both layouts, so they are left out of the measurement
+        UUID[] uuids = new UUID[ACCOUNTS];
+        String[] names = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            uuids[i] = UUID.randomUUID();
+            names[i] = "player" + i;
+        }
+
+        long table = bytesPerAccount(() -> {
+            AccountTable accounts = new AccountTable();
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts.putIfAbsent(TypeChecker.trimUUID(uuids[i]), new PlayerAccount(names[i], i, 0, "2024-01-31 12:34:56"));
+            }
+            return accounts;
+        });
+        long map = bytesPerAccount(() -> {
+            Map<String, StringAccount> accounts = new ConcurrentHashMap<>();
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts.put(TypeChecker.trimUUID(uuids[i]), new StringAccount(names[i], i, 0, new String("2024-01-31 12:34:56")));
+            }
+            return accounts;
+        });
+        assertTrue(table < map, "AccountTable: " + table + " bytes per account, string keyed map: " + map + " bytes per account");
+    }
+
+    private static long bytesPerAccount(Supplier<Object> fill) {
+        long before = usedMemory();
+        Object accounts = fill.get();
+        long after = usedMemory();
+        Reference.reachabilityFence(accounts);
+        return (after - before) / ACCOUNTS;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,163 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AccountTableTest {
+
+    // A new segment has 16 slots, see AccountTable
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Same mix as AccountTable.hash(), so the tests can pick keys that collide
+    private static int hash(long most, long least) {
+        long mixed = (most ^ Long.rotateLeft(least, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static String key(long most, long least) {
+        return String.format("%016x%016x", most, least);
+    }
+
+    // Keys in segment 0 whose home slot in a new table is the given slot
+    private static List<String> keysWithHome(int homeSlot, int count) {
+        List<String> keys = new ArrayList<>();
+        for (long least = 0; keys.size() < count; least++) {
+            int hash = hash(0, least);
+            if (hash >>> 26 == 0 && (hash & (INITIAL_CAPACITY - 1)) == homeSlot) keys.add(key(0, least));
+        }
+        return keys;
+    }
+
+    private static PlayerAccount account(String name) {
+        return new PlayerAccount(name, 0, 0, null);
+    }
+
+    @Test
+    void putGetAndRemove() {
+        AccountTable table = new AccountTable();
+        PlayerAccount account = account("a");
+        String uuid = "0123456789abcdef0123456789abcdef";
+
+        assertNull(table.putIfAbsent(uuid, account));
+        assertSame(account, table.putIfAbsent(uuid, account("b")));
+        assertSame(account, table.get(uuid));
+        assertSame(account, table.get(TypeChecker.toUUID(uuid)));
+        assertEquals(1, table.size());
+        assertSame(account, table.remove(uuid));
+        assertNull(table.remove(uuid));
+        assertNull(table.get(uuid));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void removeKeepsTheRestOfTheProbeChain() {
+        List<String> keys = keysWithHome(3, 4);
+        AccountTable table = new AccountTable();
+        for (String key : keys) {
+            table.putIfAbsent(key, account(key));
+        }
+
+        // Removing the head leaves a hole at the home slot, the others must be moved back over it
+        table.remove(keys.get(0));
+        assertNull(table.get(keys.get(0)));
+        for (String key : keys.subList(1, 4)) {
+            assertEquals(key, table.get(key).name());
+        }
+
+        // And from the middle
+        table.remove(keys.get(2));
+        assertEquals(keys.get(1), table.get(keys.get(1)).name());
+        assertEquals(keys.get(3), table.get(keys.get(3)).name());
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void shiftBackWrapsAroundTheEndOfTheTable() {
+        // a and b start in the last slot, so b wraps to slot 0 and c, which starts in slot 0, goes to slot 1
+        List<String> last = keysWithHome(INITIAL_CAPACITY - 1, 2);
+        String c = keysWithHome(0, 1).get(0);
+        AccountTable table = new AccountTable();
+        table.putIfAbsent(last.get(0), account("a"));
+        table.putIfAbsent(last.get(1), account("b"));
+        table.putIfAbsent(c, account("c"));
+
+        table.remove(last.get(0));
+        assertEquals("b", table.get(last.get(1)).name());
+        assertEquals("c", table.get(c).name());
+
+        table.remove(last.get(1));
+        assertEquals("c", table.get(c).name());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void shiftBackLeavesEntriesAtTheirHomeSlot() {
+        // b sits in its own home slot right after a and must not be moved into the hole a leaves
+        String a = keysWithHome(5, 1).get(0);
+        String b = keysWithHome(6, 1).get(0);
+        String c = keysWithHome(5, 2).get(1);
+        AccountTable table = new AccountTable();
+        table.putIfAbsent(a, account("a"));
+        table.putIfAbsent(b, account("b"));
+        table.putIfAbsent(c, account("c"));
+
+        table.remove(a);
+        assertEquals("b", table.get(b).name());
+        assertEquals("c", table.get(c).name());
+        table.remove(b);
+        assertEquals("c", table.get(c).name());
+    }
+
+    @Test
+    void matchesAHashMapUnderRandomPutsAndRemoves() {
+        // Few distinct keys in one segment, so the tables grow and probe chains are long and often broken
+        List<String> keys = new ArrayList<>();
+        for (int home = 0; home < INITIAL_CAPACITY; home++) {
+            keys.addAll(keysWithHome(home, 4));
+        }
+        AccountTable table = new AccountTable();
+        Map<String, PlayerAccount> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                assertSame(expected.remove(key), table.remove(key));
+            } else {
+                PlayerAccount account = account(key);
+                assertSame(expected.putIfAbsent(key, account), table.putIfAbsent(key, account));
+            }
+            if (i % 100 == 0) {
+                for (String checked : keys) {
+                    assertSame(expected.get(checked), table.get(checked), checked);
+                }
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        Map<String, PlayerAccount> walked = new HashMap<>();
+        table.forEach(walked::put);
+        assertEquals(expected, walked);
+    }
+
+    @Test
+    void keysThatAreNotTrimmedUUIDsAreKept() {
+        AccountTable table = new AccountTable();
+        PlayerAccount account = account("old");
+        String dashed = "01234567-89ab-cdef-0123-456789abcdef";
+        assertNull(table.putIfAbsent(dashed, account));
+        assertSame(account, table.get(dashed));
+        assertNull(table.get("0123456789abcdef0123456789abcdef"));
+        assertEquals(1, table.size());
+        assertSame(account, table.remove(dashed));
+        assertEquals(0, table.size());
+    }
+}
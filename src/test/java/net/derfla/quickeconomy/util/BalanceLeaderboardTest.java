@@ -0,0 +1,109 @@
+package net.derfla.quickeconomy.util;
+
+import net.derfla.quickeconomy.model.PlayerAccount;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceLeaderboardTest {
+
+    @BeforeEach
+    void clear() {
+        BalanceLeaderboard.init(Map.of());
+    }
+
+    @Test
+    void highestBalanceIsFirst() {
+        BalanceLeaderboard.update("a", 10);
+        BalanceLeaderboard.update("b", 30);
+        BalanceLeaderboard.update("c", 20);
+        assertEquals(1, BalanceLeaderboard.getRank("b"));
+        assertEquals(2, BalanceLeaderboard.getRank("c"));
+        assertEquals(3, BalanceLeaderboard.getRank("a"));
+        assertEquals(List.of("b", "c", "a"), BalanceLeaderboard.getPage(1, 10));
+    }
+
+    @Test
+    void equalBalancesAreOrderedByUUID() {
+        BalanceLeaderboard.update("c", 5);
+        BalanceLeaderboard.update("a", 5);
+        BalanceLeaderboard.update("b", 5);
+        assertEquals(List.of("a", "b", "c"), BalanceLeaderboard.getPage(1, 10));
+        assertEquals(2, BalanceLeaderboard.getRank("b"));
+    }
+
+    @Test
+    void updateMovesTheAccount() {
+        BalanceLeaderboard.update("a", 10);
+        BalanceLeaderboard.update("b", 20);
+        BalanceLeaderboard.update("a", 30);
+        assertEquals(1, BalanceLeaderboard.getRank("a"));
+        assertEquals(2, BalanceLeaderboard.getRank("b"));
+        assertEquals(2, BalanceLeaderboard.size());
+        BalanceLeaderboard.update("a", -5);
+        assertEquals(2, BalanceLeaderboard.getRank("a"));
+    }
+
+    @Test
+    void unknownAccountHasNoRank() {
+        BalanceLeaderboard.update("a", 10);
+        assertEquals(0, BalanceLeaderboard.getRank("b"));
+    }
+
+    @Test
+    void pagesSplitTheLeaderboard() {
+        for (int i = 0; i < 25; i++) {
+            BalanceLeaderboard.update(String.format("%02d", i), i);
+        }
+        assertEquals(List.of("24", "23", "22", "21", "20", "19", "18", "17", "16", "15"), BalanceLeaderboard.getPage(1, 10));
+        assertEquals(List.of("04", "03", "02", "01", "00"), BalanceLeaderboard.getPage(3, 10));
+        assertTrue(BalanceLeaderboard.getPage(4, 10).isEmpty());
+    }
+
+    @Test
+    void entriesCarryTheRankedBalance() {
+        BalanceLeaderboard.update("a", 10);
+        BalanceLeaderboard.update("b", 20.5);
+        assertEquals(List.of(new BalanceLeaderboard.Entry("b", 20.5), new BalanceLeaderboard.Entry("a", 10)), BalanceLeaderboard.getEntries(1, 10));
+        assertEquals(20.5, BalanceLeaderboard.getBalance("b"));
+        assertTrue(Double.isNaN(BalanceLeaderboard.getBalance("c")));
+    }
+
+    @Test
+    void initLoadsEveryAccount() {
+        Map<String, PlayerAccount> accounts = new HashMap<>();
+        accounts.put("a", new PlayerAccount("A", 1, 0, null));
+        accounts.put("b", new PlayerAccount("B", 3, 0, null));
+        accounts.put("c", new PlayerAccount("C", 2, 0, null));
+        BalanceLeaderboard.init(accounts);
+        assertEquals(List.of("b", "c", "a"), BalanceLeaderboard.getPage(1, 3));
+    }
+
+    @Test
+    void ranksMatchASortedList() {
+        Random random = new Random(11);
+        Map<String, Double> balances = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            String uuid = "u" + random.nextInt(500);
+            double balance = random.nextInt(200) / 4.0;
+            balances.put(uuid, balance);
+            BalanceLeaderboard.update(uuid, balance);
+        }
+        List<String> sorted = new ArrayList<>(balances.keySet());
+        sorted.sort(Comparator.comparing((String uuid) -> -balances.get(uuid)).thenComparing(Comparator.naturalOrder()));
+        assertEquals(sorted.size(), BalanceLeaderboard.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(i + 1, BalanceLeaderboard.getRank(sorted.get(i)), sorted.get(i));
+        }
+        assertEquals(sorted.subList(10, 20), BalanceLeaderboard.getPage(2, 10));
+    }
+}
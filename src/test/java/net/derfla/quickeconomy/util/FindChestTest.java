@@ -0,0 +1,214 @@
+package net.derfla.quickeconomy.util;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Sign;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.WallSign;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Blocks are proxies that only answer what FindChest asks, so no server is needed
+class FindChestTest {
+
+    private static final BlockFace[] FACINGS = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+    private static final int CLICKS = 20000;
+
+    private final Map<List<Integer>, Block> world = new HashMap<>();
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> answer.answer(method.getName(), args == null ? new Object[0] : args));
+    }
+
+    private static BlockData chestData(BlockFace facing, org.bukkit.block.data.type.Chest.Type type) {
+        return proxy(org.bukkit.block.data.type.Chest.class, (method, args) -> switch (method) {
+            case "getFacing" -> facing;
+            case "getType" -> type;
+            case "getMaterial" -> Material.CHEST;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private static BlockData signData(BlockFace facing) {
+        return proxy(WallSign.class, (method, args) -> switch (method) {
+            case "getFacing" -> facing;
+            case "getMaterial" -> Material.OAK_WALL_SIGN;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private Block at(int x, int y, int z) {
+        Block block = world.get(List.of(x, y, z));
+        return block != null ? block : put(x, y, z, Material.AIR, null, "");
+    }
+
+    // The text matches CraftBlock.toString(), which the old regex version of FindChest parsed
+    private Block put(int x, int y, int z, Material type, BlockData data, String properties) {
+        String text = "CraftBlock{pos=BlockPosition{x=" + x + ", y=" + y + ", z=" + z + "},type=" + type
+                + ",data=Block{minecraft:" + type.name().toLowerCase(Locale.ROOT) + "}" + properties + "}";
+        Block[] block = new Block[1];
+        Supplier<BlockState> state = () -> {
+            Class<? extends BlockState> stateType = type == Material.CHEST ? Chest.class : type == Material.OAK_WALL_SIGN ? Sign.class : BlockState.class;
+            return proxy(stateType, (method, args) -> switch (method) {
+                case "getBlock" -> block[0];
+                case "getBlockData" -> data;
+                case "getType" -> type;
+                default -> throw new UnsupportedOperationException(method);
+            });
+        };
+        block[0] = proxy(Block.class, (method, args) -> switch (method) {
+            case "getType" -> type;
+            case "getBlockData" -> data;
+            case "getState" -> state.get();
+            case "getRelative" -> args.length == 1
+                    ? at(x + ((BlockFace) args[0]).getModX(), y + ((BlockFace) args[0]).getModY(), z + ((BlockFace) args[0]).getModZ())
+                    : at(x + (int) args[0], y + (int) args[1], z + (int) args[2]);
+            case "toString" -> text;
+            default -> throw new UnsupportedOperationException(method);
+        });
+        if (type != Material.AIR) world.put(List.of(x, y, z), block[0]);
+        return block[0];
+    }
+
+    private Block chest(int x, int z, BlockFace facing, org.bukkit.block.data.type.Chest.Type type) {
+        return put(x, 64, z, Material.CHEST, chestData(facing, type),
+                "[facing=" + facing.name().toLowerCase(Locale.ROOT) + ",type=" + type.name().toLowerCase(Locale.ROOT) + ",waterlogged=false]");
+    }
+
+    // A wall sign faces away from the block it hangs on
+    private Block sign(int x, int z, BlockFace facing) {
+        return put(x, 64, z, Material.OAK_WALL_SIGN, signData(facing), "[facing=" + facing.name().toLowerCase(Locale.ROOT) + ",waterlogged=false]");
+    }
+
+    @Test
+    void signFindsTheChestBehindIt() {
+        for (BlockFace facing : FACINGS) {
+            world.clear();
+            Block chest = chest(0, 0, facing, org.bukkit.block.data.type.Chest.Type.SINGLE);
+            Sign sign = (Sign) sign(facing.getModX(), facing.getModZ(), facing).getState();
+            assertSame(chest, FindChest.get(sign).getBlock(), facing.name());
+        }
+    }
+
+    @Test
+    void signWithoutAChestBehindItFindsNothing() {
+        Sign sign = (Sign) sign(0, -1, BlockFace.NORTH).getState();
+        assertNull(FindChest.get(sign));
+    }
+
+    @Test
+    void singleChestHasNoOtherHalf() {
+        Chest chest = (Chest) chest(0, 0, BlockFace.NORTH, org.bukkit.block.data.type.Chest.Type.SINGLE).getState();
+        assertFalse(FindChest.isDouble(chest));
+        assertNull(FindChest.get(chest));
+    }
+
+    // The offsets the old regex version used for the left half, seen from the right half
+    @Test
+    void halvesOfADoubleChestFindEachOther() {
+        Map<BlockFace, int[]> leftOfRight = Map.of(
+                BlockFace.NORTH, new int[]{-1, 0},
+                BlockFace.WEST, new int[]{0, 1},
+                BlockFace.SOUTH, new int[]{1, 0},
+                BlockFace.EAST, new int[]{0, -1});
+        for (BlockFace facing : FACINGS) {
+            world.clear();
+            int[] offset = leftOfRight.get(facing);
+            Block right = chest(0, 0, facing, org.bukkit.block.data.type.Chest.Type.RIGHT);
+            Block left = chest(offset[0], offset[1], facing, org.bukkit.block.data.type.Chest.Type.LEFT);
+            assertTrue(FindChest.isDouble((Chest) right.getState()), facing.name());
+            assertSame(left, FindChest.get((Chest) right.getState()).getBlock(), facing.name());
+            assertSame(right, FindChest.get((Chest) left.getState()).getBlock(), facing.name());
+        }
+    }
+
+    // A shop click finds the chest behind the sign, checks if it is double and finds its other half
+    @Test
+    void clickIsCheaperThanParsingTheBlockText() {
+        chest(0, 0, BlockFace.NORTH, org.bukkit.block.data.type.Chest.Type.RIGHT);
+        chest(-1, 0, BlockFace.NORTH, org.bukkit.block.data.type.Chest.Type.LEFT);
+        Sign sign = (Sign) sign(0, -1, BlockFace.NORTH).getState();
+
+        long blockData = nanosPerClick(() -> {
+            Chest chest = FindChest.get(sign);
+            return FindChest.isDouble(chest) ? FindChest.get(chest) : chest;
+        });
+        long regex = nanosPerClick(() -> {
+            Chest chest = regexGet(sign);
+            return regexIsDouble(chest) ? regexGet(chest) : chest;
+        });
+        assertTrue(blockData < regex, "Block data: " + blockData + " ns per click, regex: " + regex + " ns per click");
+    }
+
+    // The best of a few rounds, after a warm-up round
+    private static long nanosPerClick(Supplier<Chest> click) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 6; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CLICKS; i++) {
+                if (click.get() == null) throw new IllegalStateException("No chest found");
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) best = Math.min(best, elapsed / CLICKS);
+        }
+        return best;
+    }
+
+    // What FindChest did before it read block data. Only the cases used above
+    private static Chest regexGet(Sign sign) {
+        Matcher matcher = Pattern.compile("facing=([a-z]+)").matcher(sign.getBlock().toString());
+        if (!matcher.find()) return null;
+        Block block = switch (matcher.group(1)) {
+            case "north" -> sign.getBlock().getRelative(0, 0, 1);
+            case "east" -> sign.getBlock().getRelative(-1, 0, 0);
+            case "south" -> sign.getBlock().getRelative(0, 0, -1);
+            case "west" -> sign.getBlock().getRelative(1, 0, 0);
+            default -> null;
+        };
+        if (block == null || !(block.getState() instanceof Chest) || block.getType() != Material.CHEST) return null;
+        return (Chest) block.getState();
+    }
+
+    private static boolean regexIsDouble(Chest chest) {
+        Matcher matcher = Pattern.compile("type=([a-z]+)").matcher(chest.getBlock().toString());
+        return matcher.find() && !matcher.group(1).equals("single");
+    }
+
+    private static Chest regexGet(Chest chest) {
+        Matcher type = Pattern.compile("type=([a-z]+)").matcher(chest.getBlock().toString());
+        if (!type.find()) return null;
+        boolean isRight = type.group(1).equals("right");
+        Matcher facing = Pattern.compile("facing=([a-z]+)").matcher(chest.getBlock().toString());
+        if (!facing.find()) return null;
+        Block block = switch (facing.group(1)) {
+            case "north" -> chest.getBlock().getRelative(isRight ? -1 : 1, 0, 0);
+            case "west" -> chest.getBlock().getRelative(0, 0, isRight ? 1 : -1);
+            case "south" -> chest.getBlock().getRelative(isRight ? 1 : -1, 0, 0);
+            case "east" -> chest.getBlock().getRelative(0, 0, isRight ? -1 : 1);
+            default -> null;
+        };
+        return block != null && block.getState() instanceof Chest other ? other : null;
+    }
+}
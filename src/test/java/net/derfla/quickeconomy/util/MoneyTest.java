@@ -0,0 +1,99 @@
+package net.derfla.quickeconomy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTest {
+
+    @Test
+    void toCentsRoundsHalfAwayFromZero() {
+        assertEquals(1, Money.toCents(0.005));
+        assertEquals(-1, Money.toCents(-0.005));
+        assertEquals(13, Money.toCents(0.125));
+        assertEquals(-13, Money.toCents(-0.125));
+    }
+
+    @Test
+    void toCentsRoundsUpAtNinePointFive() {
+        assertEquals(100, Money.toCents(0.995));
+        assertEquals(300, Money.toCents(2.995));
+        assertEquals(-300, Money.toCents(-2.995));
+        assertEquals(2000, Money.toCents(19.995));
+    }
+
+    @Test
+    void toCentsKeepsSignOfNegativeAmounts() {
+        assertEquals(-1050, Money.toCents(-10.5));
+        assertEquals(0, Money.toCents(-0.0));
+        assertEquals(0, Money.toCents(-0.001));
+    }
+
+    @Test
+    void toCentsSaturatesInsteadOfOverflowing() {
+        assertEquals(Long.MAX_VALUE, Money.toCents(Double.MAX_VALUE));
+        assertEquals(-Long.MAX_VALUE, Money.toCents(-Double.MAX_VALUE));
+    }
+
+    @Test
+    void toCentsRejectsNaN() {
+        assertThrows(IllegalArgumentException.class, () -> Money.toCents(Double.NaN));
+    }
+
+    @Test
+    void firstHalfGetsTheOddCent() {
+        assertEquals(0.01, Money.firstHalf(0.01));
+        assertEquals(0.0, Money.secondHalf(0.01));
+        assertEquals(0.07, Money.firstHalf(0.13));
+        assertEquals(0.06, Money.secondHalf(0.13));
+    }
+
+    @Test
+    void halvesOfNegativeAmountsAddUp() {
+        assertEquals(-0.01, Money.firstHalf(-0.01));
+        assertEquals(0.0, Money.secondHalf(-0.01));
+        assertEquals(-0.07, Money.firstHalf(-0.13));
+        assertEquals(-0.06, Money.secondHalf(-0.13));
+    }
+
+    @Test
+    void halvesAlwaysAddUpToTheAmount() {
+        for (long cents = -1001; cents <= 1001; cents++) {
+            double amount = Money.toDouble(cents);
+            assertEquals(cents, Money.toCents(Money.firstHalf(amount)) + Money.toCents(Money.secondHalf(amount)), "Amount " + amount);
+        }
+    }
+
+    @Test
+    void formatHasExactlyTwoDecimals() {
+        assertEquals("0.00", Money.format(0L));
+        assertEquals("0.05", Money.format(5L));
+        assertEquals("1234.50", Money.format(123450L));
+        assertEquals("3.00", Money.format(2.995));
+    }
+
+    @Test
+    void formatNegativeAmounts() {
+        assertEquals("-0.05", Money.format(-5L));
+        assertEquals("-1.00", Money.format(-100L));
+        assertEquals("-10.50", Money.format(-10.5));
+    }
+
+    @Test
+    void formatLongExtremes() {
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+        assertEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+    }
+
+    @Test
+    void formatMatchesBigDecimal() {
+        long[] values = {0, 1, -1, 99, -99, 100, -100, 123456789, -123456789, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long cents : values) {
+            assertEquals(Money.toBigDecimal(cents).toPlainString(), Money.format(cents));
+        }
+        assertEquals(new BigDecimal("-10.50"), Money.toBigDecimal(-10.5));
+    }
+}
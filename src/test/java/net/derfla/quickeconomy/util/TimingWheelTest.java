@@ -0,0 +1,173 @@
+package net.derfla.quickeconomy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongToIntFunction;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    private static final int SCHEDULED = 50000;
+    private static final int TICKS_PER_MINUTE = 20 * 60;
+    private static final int TICKS_PER_DAY = TICKS_PER_MINUTE * 60 * 24;
+
+    // Records the tick each entry came due on
+    private static List<long[]> advance(TimingWheel<Long> wheel, long toTick) {
+        List<long[]> due = new ArrayList<>();
+        while (wheel.currentTick() < toTick) {
+            long tick = wheel.currentTick() + 1;
+            wheel.advance(tick, dueTick -> due.add(new long[] {dueTick, tick}));
+        }
+        return due;
+    }
+
+    private static void assertDueOnTime(List<long[]> due) {
+        for (long[] entry : due) {
+            assertEquals(entry[0], entry[1], "Due on tick " + entry[0] + " but came on " + entry[1]);
+        }
+    }
+
+    @Test
+    void entriesInTheFirstLevelComeDueOnTheirTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        wheel.add(1L, 1);
+        wheel.add(255L, 255);
+        List<long[]> due = advance(wheel, 300);
+        assertEquals(2, due.size());
+        assertDueOnTime(due);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void entriesAreCascadedDownFromEveryLevel() {
+        long start = 1000;
+        TimingWheel<Long> wheel = new TimingWheel<>(start);
+        // Around the edge of each level: 2^8, 2^14, 2^20
+        long[] offsets = {256, 257, 511, 512, 16383, 16384, 16385, 1 << 20, (1 << 20) + 1};
+        for (long offset : offsets) {
+            wheel.add(start + offset, start + offset);
+        }
+        List<long[]> due = advance(wheel, start + (1 << 20) + 2);
+        assertEquals(offsets.length, due.size());
+        assertDueOnTime(due);
+    }
+
+    @Test
+    void entriesBeyondTheTopLevelComeDueOnTheirTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        long far = (1L << 32) + 5;
+        wheel.add(far, far);
+        List<long[]> due = new ArrayList<>();
+        // Jumps most of the way in one call, the wheel still visits every tick on the way
+        wheel.advance(far - 1, dueTick -> due.add(new long[] {dueTick, -1}));
+        assertTrue(due.isEmpty());
+        assertEquals(1, wheel.size());
+        due.addAll(advance(wheel, far));
+        assertEquals(1, due.size());
+        assertDueOnTime(due);
+    }
+
+    @Test
+    void entriesDueInThePastComeOnTheNextTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(500);
+        List<Long> due = new ArrayList<>();
+        wheel.add(100L, 100);
+        wheel.add(500L, 500);
+        wheel.advance(501, due::add);
+        assertEquals(List.of(100L, 500L), due);
+    }
+
+    @Test
+    void entriesComeInTickOrderAcrossLevels() {
+        Random random = new Random(3);
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            long dueTick = 1 + random.nextInt(1 << 18);
+            wheel.add(dueTick, dueTick);
+        }
+        List<Long> due = new ArrayList<>();
+        wheel.advance(1 << 18, due::add);
+        assertEquals(count, due.size());
+        for (int i = 1; i < due.size(); i++) {
+            assertTrue(due.get(i - 1) <= due.get(i), "Out of order at " + i);
+        }
+    }
+
+    @Test
+    void entriesAddedWhileRunningAreCascadedFromTheirPosition() {
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        List<long[]> due = new ArrayList<>();
+        // Added at ticks that are not aligned to the level boundaries
+        for (long now = 0; now < 3000; now += 97) {
+            due.addAll(advance(wheel, now));
+            wheel.add(now + 300, now + 300);
+            wheel.add(now + 17000, now + 17000);
+        }
+        due.addAll(advance(wheel, 3000 + 17000));
+        assertEquals(2 * 31, due.size());
+        assertDueOnTime(due);
+        assertEquals(0, wheel.size());
+    }
+
+    // The scheduler advances the wheel every tick. Scanning every autopay for the ones that are due is what it replaced
+    @Test
+    void tickIsCheaperThanScanningEveryEntry() {
+        Random random = new Random(5);
+        long[] dueTicks = new long[SCHEDULED];
+        for (int i = 0; i < SCHEDULED; i++) {
+            dueTicks[i] = 1 + random.nextInt(TICKS_PER_DAY);
+        }
+
+        long wheel = nanosPerTick(dueTicks, () -> {
+            TimingWheel<Long> timingWheel = new TimingWheel<>(0);
+            for (long dueTick : dueTicks) {
+                timingWheel.add(dueTick, dueTick);
+            }
+            return tick -> {
+                int[] due = new int[1];
+                timingWheel.advance(tick, dueTick -> due[0]++);
+                return due[0];
+            };
+        });
+        long scan = nanosPerTick(dueTicks, () -> {
+            List<Long> scheduled = new ArrayList<>();
+            for (long dueTick : dueTicks) {
+                scheduled.add(dueTick);
+            }
+            return tick -> {
+                int due = 0;
+                for (Long dueTick : scheduled) {
+                    if (dueTick == tick) due++;
+                }
+                return due;
+            };
+        });
+        assertTrue(wheel < scan, "Timing wheel: " + wheel + " ns per tick, scan: " + scan + " ns per tick");
+    }
+
+    // The best of a few rounds of one minute of ticks, after a warm-up round. Every round must find the payments due that minute
+    private static long nanosPerTick(long[] dueTicks, Supplier<LongToIntFunction> schedule) {
+        long expected = Arrays.stream(dueTicks).filter(dueTick -> dueTick <= TICKS_PER_MINUTE).count();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 6; round++) {
+            LongToIntFunction tick = schedule.get();
+            int due = 0;
+            long start = System.nanoTime();
+            for (long i = 1; i <= TICKS_PER_MINUTE; i++) {
+                due += tick.applyAsInt(i);
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(expected, due);
+            if (round > 0) best = Math.min(best, elapsed / TICKS_PER_MINUTE);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,128 @@
+package net.derfla.quickeconomy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TypeCheckerTest {
+
+    private static final Pattern TRIMMED = Pattern.compile("[0-9a-f]{32}");
+    private static final Pattern DASHED = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private static UUID[] uuids() {
+        Random random = new Random(42);
+        UUID[] uuids = new UUID[1000];
+        uuids[0] = new UUID(0, 0);
+        uuids[1] = new UUID(-1, -1);
+        uuids[2] = new UUID(Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int i = 3; i < uuids.length; i++) {
+            uuids[i] = i % 2 == 0 ? UUID.randomUUID() : new UUID(random.nextLong(), random.nextLong());
+        }
+        return uuids;
+    }
+
+    @Test
+    void trimUUIDMatchesRegex() {
+        for (UUID uuid : uuids()) {
+            String trimmed = TypeChecker.trimUUID(uuid);
+            assertTrue(TRIMMED.matcher(trimmed).matches(), trimmed);
+            assertEquals(uuid.toString().replace("-", ""), trimmed);
+            assertEquals(trimmed, TypeChecker.trimUUID(uuid.toString()));
+            assertTrue(TypeChecker.isTrimmedUUID(trimmed));
+        }
+    }
+
+    @Test
+    void untrimUUIDMatchesUUIDToString() {
+        for (UUID uuid : uuids()) {
+            String untrimmed = TypeChecker.untrimUUID(TypeChecker.trimUUID(uuid));
+            assertTrue(DASHED.matcher(untrimmed).matches(), untrimmed);
+            assertEquals(uuid.toString(), untrimmed);
+            assertEquals(uuid, UUID.fromString(untrimmed));
+        }
+    }
+
+    @Test
+    void toUUIDRoundTrips() {
+        for (UUID uuid : uuids()) {
+            String trimmed = TypeChecker.trimUUID(uuid);
+            assertEquals(uuid, TypeChecker.toUUID(trimmed));
+            assertEquals(uuid, TypeChecker.toUUID(uuid.toString()));
+            assertEquals(UUID.fromString(uuid.toString()), TypeChecker.toUUID(trimmed.toUpperCase()));
+        }
+    }
+
+    @Test
+    void nullAndEmptyAreKept() {
+        assertNull(TypeChecker.trimUUID((String) null));
+        assertNull(TypeChecker.trimUUID((UUID) null));
+        assertNull(TypeChecker.untrimUUID(null));
+        assertNull(TypeChecker.untrimUUID(""));
+        assertNull(TypeChecker.toUUID(null));
+    }
+
+    @Test
+    void invalidUUIDsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TypeChecker.trimUUID("not a uuid"));
+        assertThrows(IllegalArgumentException.class, () -> TypeChecker.trimUUID("0123456789abcdef0123456789abcdef0123"));
+        assertThrows(IllegalArgumentException.class, () -> TypeChecker.untrimUUID("0123"));
+        assertThrows(IllegalArgumentException.class, () -> TypeChecker.toUUID("0123456789abcdef0123456789abcdeg"));
+        assertThrows(IllegalArgumentException.class, () -> TypeChecker.toUUID("0123456789abcdef0123456789abcdeĀ"));
+    }
+
+    @Test
+    void isTrimmedUUIDOnlyAcceptsLowerCaseHex() {
+        assertFalse(TypeChecker.isTrimmedUUID("0123456789ABCDEF0123456789abcdef"));
+        assertFalse(TypeChecker.isTrimmedUUID("01234567-89ab-cdef-0123-456789abcdef"));
+        assertFalse(TypeChecker.isTrimmedUUID(null));
+        assertTrue(TypeChecker.isTrimmedUUID("0123456789abcdef0123456789abcdef"));
+    }
+
+    // What trimUUID, untrimUUID and the String to UUID conversion did before, on every balance call, click and join
+    @Test
+    void conversionsAreFasterThanTheRegexVersions() {
+        UUID[] uuids = uuids();
+        String[] dashed = new String[uuids.length];
+        String[] trimmed = new String[uuids.length];
+        for (int i = 0; i < uuids.length; i++) {
+            dashed[i] = uuids[i].toString();
+            trimmed[i] = dashed[i].replace("-", "");
+        }
+        assertFaster("trimUUID(String)", dashed, TypeChecker::trimUUID, uuid -> uuid.replaceAll("-", ""));
+        assertFaster("trimUUID(UUID)", uuids, TypeChecker::trimUUID, uuid -> uuid.toString().replaceAll("-", ""));
+        assertFaster("untrimUUID", trimmed, TypeChecker::untrimUUID,
+                uuid -> uuid.replaceAll("(.{8})(.{4})(.{4})(.{4})(.{12})", "$1-$2-$3-$4-$5"));
+        assertFaster("toUUID", trimmed, TypeChecker::toUUID,
+                uuid -> UUID.fromString(uuid.replaceAll("(.{8})(.{4})(.{4})(.{4})(.{12})", "$1-$2-$3-$4-$5")));
+    }
+
+    private static <T> void assertFaster(String name, T[] inputs, Function<T, Object> conversion, Function<T, Object> regex) {
+        long conversionNanos = nanosPerCall(inputs, conversion);
+        long regexNanos = nanosPerCall(inputs, regex);
+        assertTrue(conversionNanos < regexNanos, name + ": " + conversionNanos + " ns per call, regex: " + regexNanos + " ns per call");
+    }
+
+    // The best of a few rounds, after a warm-up round
+    private static <T> long nanosPerCall(T[] inputs, Function<T, Object> conversion) {
+        int calls = 50 * inputs.length;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 6; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                if (conversion.apply(inputs[i % inputs.length]) == null) throw new IllegalStateException("No result");
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) best = Math.min(best, elapsed / calls);
+        }
+        return best;
+    }
+}